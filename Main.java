@@ -1,5 +1,7 @@
 import blockchain.*;
 import dataentities.block.record.RecordCreator;
+import functionality.metrics.MetricsRegistry;
+import functionality.metrics.MetricsReporter;
 import functionality.random.CurrencyTransferGenerator;
 
 import java.util.concurrent.ExecutorService;
@@ -9,10 +11,12 @@ import java.util.concurrent.TimeUnit;
 public class Main {
     public static void main(String[] args) throws InterruptedException {
         CurrencyBlockchain blockchain = new CurrencyBlockchain(100);
+        MetricsReporter metricsReporter = MetricsReporter.start(MetricsRegistry.getDefault(), System.out, 5000);
 
-        // Create the miners and the message creators
+        // Create the miners and the message creators.
+        // Miners only use the processors left over by the message creators, since they do not wait on anything.
         int recordCreatorCount = 3;
-        int minerCount = 15;
+        int minerCount = Math.max(1, Runtime.getRuntime().availableProcessors() - recordCreatorCount);
         ExecutorService executorService = Executors.newFixedThreadPool(minerCount + recordCreatorCount);
         for (int i = 0; i < recordCreatorCount; i++) {
             executorService.submit(new RecordCreator<>(
@@ -21,13 +25,16 @@ public class Main {
                     new CurrencyTransferGenerator()
             ));
         }
-        for (int startingNonce = 1; startingNonce <= minerCount; startingNonce++) {
-            executorService.submit(new Miner<>(UserManager.generateNewUser(), blockchain, startingNonce, minerCount));
+        MiningCoordinator miningCoordinator = new MiningCoordinator();
+        for (int i = 0; i < minerCount; i++) {
+            executorService.submit(new Miner<>(UserManager.generateNewUser(), blockchain, miningCoordinator));
         }
 
         // Wait for all the miners and message creators to finish
         executorService.shutdown();
         executorService.awaitTermination(10, TimeUnit.SECONDS);
+        metricsReporter.close();
+        metricsReporter.report();
 
         if (!blockchain.blocksAreValid()) {
             System.out.println("Blockchain is invalid");
@@ -0,0 +1,102 @@
+package benchmarks;
+
+import blockchain.BlockSubmitResult;
+import blockchain.BlockTemplate;
+import blockchain.Blockchain;
+import blockchain.CurrencyBlockchain;
+import blockchain.UserManager;
+import dataentities.block.HashedBlock;
+import dataentities.block.MinerBlock;
+import dataentities.block.record.CurrencyTransfer;
+import dataentities.block.record.Record;
+import dataentities.block.record.RecordValue;
+import dataentities.user.User;
+import functionality.BlockHasher;
+import functionality.MiningKernel;
+import functionality.MiningKernels;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/** Builds the users, records and chains that the benchmarks run against */
+final class BenchmarkFixtures {
+
+    /** The number of nonces searched at a time while mining a fixture block */
+    private static final int NONCE_BATCH_SIZE = 1 << 16;
+
+    private BenchmarkFixtures() {
+    }
+
+    /** Creates a blockchain whose difficulty stays at zero leading zeros, so its blocks are mined straight away */
+    static CurrencyBlockchain newZeroDifficultyBlockchain() {
+        // A calculation speed of zero means every block took too long, and the difficulty never goes below zero
+        return new CurrencyBlockchain(0);
+    }
+
+    /** Creates the users */
+    static List<User> newUsers(int count) {
+        List<User> users = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            users.add(UserManager.generateNewUser());
+        }
+        return users;
+    }
+
+    /** Creates a signed transfer from one user to another */
+    static Record<CurrencyTransfer> newSignedTransfer(User from, User to, int amount, long recordId) {
+        CurrencyTransfer transfer = new CurrencyTransfer(from.id, amount, to.id);
+        return new Record<>(recordId, from.id, transfer, from.getSignature(transfer, recordId), from.publicKey);
+    }
+
+    /** Creates transfers with a signature of the right length that is not valid, for benchmarks that only hash */
+    static List<Record<CurrencyTransfer>> newUnsignedTransfers(List<User> users, int count) {
+        byte[] signature = users.get(0).getSignature(new CurrencyTransfer(users.get(0).id, 1, users.get(0).id), 1);
+        List<Record<CurrencyTransfer>> records = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            User from = users.get(i % users.size());
+            User to = users.get((i + 1) % users.size());
+            records.add(new Record<>(i + 1, from.id, new CurrencyTransfer(from.id, 1, to.id), signature, from.publicKey));
+        }
+        return records;
+    }
+
+    /** Adds blocks to the blockchain, each holding one transfer per user to the next user */
+    static void addBlocks(CurrencyBlockchain blockchain, List<User> users, User miner, int blockCount) {
+        for (int i = 0; i < blockCount; i++) {
+            for (int j = 0; j < users.size(); j++) {
+                User from = users.get(j);
+                User to = users.get((j + 1) % users.size());
+                Record<CurrencyTransfer> record = newSignedTransfer(
+                        from, to, 1, blockchain.getNextRecordId(from.id)
+                );
+                if (!blockchain.tryAddRecord(record)) {
+                    throw new IllegalStateException("Fixture record was rejected");
+                }
+            }
+            mineBlock(blockchain, miner);
+        }
+    }
+
+    /** Mines the next block of the blockchain on the calling thread */
+    static <T extends RecordValue> void mineBlock(Blockchain<T> blockchain, User miner) {
+        BlockTemplate<T> template = blockchain.getNextBlockTemplate(miner.id);
+        MinerBlock<T> block = template.block;
+        MiningKernel kernel = MiningKernels.create(block.prevBlockHash, block.contentRoot);
+        long timestamp = Math.max(System.currentTimeMillis(), template.minTimestamp);
+        kernel.setTimestamp(timestamp);
+        for (long firstNonce = 0; ; firstNonce += NONCE_BATCH_SIZE) {
+            int match = kernel.findNonce(firstNonce, NONCE_BATCH_SIZE, block.hashPrefixZeroCount);
+            if (match >= 0) {
+                byte[] hash = new byte[BlockHasher.HASH_LENGTH];
+                kernel.hash(firstNonce + match, hash);
+                BlockSubmitResult result = blockchain.submitBlock(
+                        HashedBlock.fromMinerBlock(block, timestamp, firstNonce + match, BlockHasher.encodeHash(hash))
+                );
+                if (result != BlockSubmitResult.ACCEPTED) {
+                    throw new IllegalStateException("Fixture block was rejected: " + result);
+                }
+                return;
+            }
+        }
+    }
+}
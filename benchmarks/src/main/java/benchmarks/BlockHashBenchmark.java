@@ -0,0 +1,86 @@
+package benchmarks;
+
+import blockchain.Blockchain;
+import blockchain.UserManager;
+import dataentities.block.HashedBlock;
+import dataentities.block.MinerBlock;
+import dataentities.block.record.CurrencyTransfer;
+import dataentities.block.record.CurrencyTransferReward;
+import dataentities.block.record.Record;
+import dataentities.user.User;
+import functionality.BlockHasher;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/** Benchmarks hashing a whole block and checking the difficulty of its hash */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class BlockHashBenchmark {
+
+    /** The number of records in the block */
+    @Param({ "1", "10", "100", "1000" })
+    public int recordCount;
+
+    /** The leading hexadecimal zeros required of the hash */
+    @Param({ "4" })
+    public int hashPrefixZeroCount;
+
+    private List<Record<CurrencyTransfer>> records;
+
+    private String prevBlockHash;
+
+    private CurrencyTransfer minerReward;
+
+    private HashedBlock<CurrencyTransfer> block;
+
+    private byte[] hash;
+
+    @Setup
+    public void setUp() {
+        List<User> users = BenchmarkFixtures.newUsers(4);
+        records = BenchmarkFixtures.newUnsignedTransfers(users, recordCount);
+        minerReward = new CurrencyTransferReward(UserManager.SystemUser.id, 100, users.get(0).id);
+        prevBlockHash = Blockchain.generateBlockHash("0", List.of(), users.get(0).id, minerReward, 0, 0);
+
+        // A hash with exactly the required zeros, so the whole prefix is checked
+        String blockHash = "0".repeat(hashPrefixZeroCount) + Blockchain.generateBlockHash(
+                prevBlockHash, records, users.get(0).id, minerReward, 0, 0
+        ).substring(hashPrefixZeroCount);
+        hash = BlockHasher.decodeHash(blockHash);
+        MinerBlock<CurrencyTransfer> minerBlock = new MinerBlock<>(
+                2, prevBlockHash, hashPrefixZeroCount, records, users.get(0).id, minerReward
+        );
+        block = HashedBlock.fromMinerBlock(minerBlock, 0, 0, blockHash);
+    }
+
+    @Benchmark
+    public String generateBlockHash() {
+        return Blockchain.generateBlockHash(prevBlockHash, records, block.minerUserId, minerReward, 0, 42);
+    }
+
+    @Benchmark
+    public boolean blockHashMatchesPrefixZeroCount() {
+        return Blockchain.blockHashMatchesPrefixZeroCount(block);
+    }
+
+    @Benchmark
+    public boolean hashMatchesPrefixZeroCount() {
+        return Blockchain.hashMatchesPrefixZeroCount(hash, hashPrefixZeroCount);
+    }
+}
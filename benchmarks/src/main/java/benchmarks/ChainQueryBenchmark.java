@@ -0,0 +1,61 @@
+package benchmarks;
+
+import blockchain.CurrencyBlockchain;
+import dataentities.user.User;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks querying a blockchain against the length of the chain.
+ * The signatures are verified while the chain is built, so validating the chain finds them in the cache.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ChainQueryBenchmark {
+
+    /** The number of blocks in the chain */
+    @Param({ "1", "5", "15" })
+    public int chainLength;
+
+    /** The number of users, each adding one record to every block */
+    @Param({ "10" })
+    public int userCount;
+
+    private CurrencyBlockchain blockchain;
+
+    private User user;
+
+    @Setup
+    public void setUp() {
+        List<User> users = BenchmarkFixtures.newUsers(userCount);
+        user = users.get(0);
+        blockchain = BenchmarkFixtures.newZeroDifficultyBlockchain();
+        BenchmarkFixtures.addBlocks(blockchain, users, users.get(1), chainLength);
+    }
+
+    @Benchmark
+    public long getUserBalance() {
+        return blockchain.getUserBalance(user.id);
+    }
+
+    @Benchmark
+    public boolean blocksAreValid() {
+        return blockchain.blocksAreValid();
+    }
+}
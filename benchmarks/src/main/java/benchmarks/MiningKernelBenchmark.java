@@ -0,0 +1,64 @@
+package benchmarks;
+
+import functionality.BlockHasher;
+import functionality.MerkleTree;
+import functionality.MiningKernel;
+import functionality.MiningKernels;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks searching nonces with the scalar kernel and with the fastest available kernel,
+ * which is the vector kernel when the vector module is added. Each operation is one nonce.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class MiningKernelBenchmark {
+
+    /** The number of nonces searched by each invocation */
+    private static final int NONCE_COUNT = 4096;
+
+    /** The kernel, either the scalar kernel or the fastest available kernel */
+    @Param({ "scalar", "available" })
+    public String kernelType;
+
+    private MiningKernel kernel;
+
+    private long firstNonce;
+
+    @Setup
+    public void setUp() {
+        byte[] contentRoot = MerkleTree.root(List.of());
+        String prevBlockHash = BlockHasher.encodeHash(BlockHasher.hashHeader("0", contentRoot, 0, 0));
+        kernel = kernelType.equals("scalar")
+                ? new BlockHasher(prevBlockHash, contentRoot)
+                : MiningKernels.create(prevBlockHash, contentRoot);
+        kernel.setTimestamp(System.currentTimeMillis());
+    }
+
+    /** Searches with a difficulty that is never met, so every nonce is hashed */
+    @Benchmark
+    @OperationsPerInvocation(NONCE_COUNT)
+    public int findNonce() {
+        int match = kernel.findNonce(firstNonce, NONCE_COUNT, 64);
+        firstNonce += NONCE_COUNT;
+        return match;
+    }
+}
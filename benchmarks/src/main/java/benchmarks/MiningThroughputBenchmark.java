@@ -0,0 +1,119 @@
+package benchmarks;
+
+import blockchain.CurrencyBlockchain;
+import blockchain.Miner;
+import blockchain.MiningCoordinator;
+import dataentities.block.record.CurrencyTransfer;
+import dataentities.block.record.RecordCreator;
+import dataentities.user.User;
+import functionality.metrics.MetricsRegistry;
+import functionality.random.CurrencyTransferGenerator;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks mining a whole chain end to end with the miner threads, while record creators add records.
+ * The primary score is the time to fill the chain. The hashes per second of all the miners and the
+ * hashes wasted on stale templates are reported alongside it.
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 1)
+@Measurement(iterations = 5)
+@Fork(1)
+@State(Scope.Benchmark)
+public class MiningThroughputBenchmark {
+
+    /** The number of record creator threads */
+    private static final int RECORD_CREATOR_COUNT = 3;
+
+    /** The number of miner threads */
+    @Param({ "1", "2", "4", "8" })
+    public int minerCount;
+
+    /** The target time to mine each block, which sets the difficulty */
+    @Param({ "100" })
+    public int blockCalculationSpeedMs;
+
+    private CurrencyBlockchain blockchain;
+
+    private List<User> minerUsers;
+
+    private List<User> recordCreatorUsers;
+
+    /** The mining counters of one invocation */
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    @State(Scope.Thread)
+    public static class MiningCounters {
+
+        /** The hashes of all the miners per second */
+        public double hashesPerSecond;
+
+        /** The hashes wasted on templates that had already changed */
+        public long staleHashes;
+    }
+
+    @Setup(Level.Trial)
+    public void createUsers() {
+        minerUsers = BenchmarkFixtures.newUsers(minerCount);
+        recordCreatorUsers = BenchmarkFixtures.newUsers(RECORD_CREATOR_COUNT);
+    }
+
+    @Setup(Level.Invocation)
+    public void createBlockchain() {
+        blockchain = new CurrencyBlockchain(blockCalculationSpeedMs);
+    }
+
+    @Benchmark
+    public void mineChain(MiningCounters counters) throws InterruptedException {
+        long hashesBefore = sumMinerCounters(".hashes");
+        long staleHashesBefore = MetricsRegistry.getDefault().counter("miner.hashes.stale").get();
+        long start = System.nanoTime();
+
+        ExecutorService executorService = Executors.newFixedThreadPool(minerCount + RECORD_CREATOR_COUNT);
+        for (User user : recordCreatorUsers) {
+            executorService.submit(new RecordCreator<>(user, blockchain, new CurrencyTransferGenerator()));
+        }
+        MiningCoordinator coordinator = new MiningCoordinator();
+        List<Miner<CurrencyTransfer>> miners = new ArrayList<>(minerCount);
+        for (User user : minerUsers) {
+            miners.add(new Miner<>(user, blockchain, coordinator));
+        }
+        miners.forEach(executorService::submit);
+        executorService.shutdown();
+        executorService.awaitTermination(1, TimeUnit.MINUTES);
+
+        double elapsedSeconds = (System.nanoTime() - start) / 1e9;
+        counters.hashesPerSecond = (sumMinerCounters(".hashes") - hashesBefore) / elapsedSeconds;
+        counters.staleHashes = MetricsRegistry.getDefault().counter("miner.hashes.stale").get() - staleHashesBefore;
+    }
+
+    /** Sums the counters of every miner with the suffix */
+    private static long sumMinerCounters(String suffix) {
+        long sum = 0;
+        for (Map.Entry<String, Long> counter : MetricsRegistry.getDefault().getCounters().entrySet()) {
+            if (counter.getKey().startsWith("miner.") && counter.getKey().endsWith(suffix)) {
+                sum += counter.getValue();
+            }
+        }
+        return sum;
+    }
+}
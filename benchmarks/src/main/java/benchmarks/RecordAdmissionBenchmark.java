@@ -0,0 +1,83 @@
+package benchmarks;
+
+import blockchain.CurrencyBlockchain;
+import dataentities.block.record.CurrencyTransfer;
+import dataentities.block.record.Record;
+import dataentities.user.User;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks adding records from many threads at once. Each iteration adds a batch of pre-signed records per thread
+ * to a new blockchain, so the signatures are verified every iteration rather than found in the cache.
+ * Run with -t to change the number of threads.
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, batchSize = RecordAdmissionBenchmark.RECORDS_PER_THREAD)
+@Measurement(iterations = 10, batchSize = RecordAdmissionBenchmark.RECORDS_PER_THREAD)
+@Fork(1)
+@Threads(4)
+public class RecordAdmissionBenchmark {
+
+    /** The number of records each thread adds in an iteration */
+    static final int RECORDS_PER_THREAD = 1000;
+
+    /** The blockchain that the records are added to, which is replaced every iteration */
+    @State(Scope.Benchmark)
+    public static class ChainState {
+
+        CurrencyBlockchain blockchain;
+
+        @Setup(Level.Iteration)
+        public void setUp() {
+            blockchain = BenchmarkFixtures.newZeroDifficultyBlockchain();
+        }
+    }
+
+    /**
+     * The records of one thread, which go back and forth between two users of its own,
+     * so the threads only contend on the blockchain and the balances never run out
+     */
+    @State(Scope.Thread)
+    public static class ThreadRecords {
+
+        final List<Record<CurrencyTransfer>> records = new ArrayList<>(RECORDS_PER_THREAD);
+
+        int nextRecordPosition;
+
+        @Setup(Level.Trial)
+        public void createRecords() {
+            List<User> users = BenchmarkFixtures.newUsers(2);
+            for (int i = 0; i < RECORDS_PER_THREAD; i++) {
+                User from = users.get(i % 2);
+                User to = users.get((i + 1) % 2);
+                records.add(BenchmarkFixtures.newSignedTransfer(from, to, 1, i / 2 + 1));
+            }
+        }
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            nextRecordPosition = 0;
+        }
+    }
+
+    @Benchmark
+    public boolean tryAddRecord(ChainState chain, ThreadRecords threadRecords) {
+        return chain.blockchain.tryAddRecord(threadRecords.records.get(threadRecords.nextRecordPosition++));
+    }
+}
@@ -0,0 +1,63 @@
+package benchmarks;
+
+import dataentities.block.record.CurrencyTransfer;
+import dataentities.block.record.Record;
+import functionality.Encryption;
+import functionality.SignatureScheme;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.security.KeyPair;
+import java.util.concurrent.TimeUnit;
+
+/** Benchmarks signing records and verifying their signatures with each signature scheme */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class SignatureBenchmark {
+
+    /** The scheme that the keys and signatures use */
+    @Param({ "RSA", "ED25519", "ECDSA" })
+    public SignatureScheme signatureScheme;
+
+    private KeyPair keys;
+
+    private byte[] signatureData;
+
+    private byte[] signature;
+
+    @Setup
+    public void setUp() {
+        keys = signatureScheme.generateKeys();
+        CurrencyTransfer transfer = new CurrencyTransfer(1, 10, 2);
+        signatureData = Record.getSignatureData(1, transfer, 1);
+        signature = Encryption.sign(signatureData, keys.getPrivate());
+    }
+
+    @Benchmark
+    public byte[] sign() {
+        return Encryption.sign(signatureData, keys.getPrivate());
+    }
+
+    @Benchmark
+    public boolean signatureIsValid() {
+        return Encryption.signatureIsValid(signatureData, signature, keys.getPublic());
+    }
+
+    @Benchmark
+    public KeyPair generateKeys() {
+        return signatureScheme.generateKeys();
+    }
+}
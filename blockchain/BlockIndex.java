@@ -0,0 +1,190 @@
+package blockchain;
+
+import dataentities.block.BlockHeader;
+import dataentities.block.ValidatedBlock;
+import dataentities.block.record.RecordValue;
+import functionality.storage.BlockStore;
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Stream;
+
+/**
+ * Stores the blocks of the canonical chain in order, with constant-time lookups by ID and by hash.
+ * The header of every block is kept in memory, but only the newest blocks keep their records.
+ * The records of older blocks are left in the block store and the block is read back whenever it is needed.
+ * Blocks must be accessed within the blockchain's locks, except for the block count.
+ */
+class BlockIndex<T extends RecordValue> {
+
+    /** The location of a block that is not in a block store */
+    static final long NO_LOCATION = -1;
+
+    /** The entries of the blocks in the order they were added */
+    private final List<Entry<T>> entries = new ArrayList<>();
+
+    /** The entries of the blocks keyed by their hash */
+    private final Map<String, Entry<T>> entriesByHash = new HashMap<>();
+
+    /** The number of the newest blocks whose records are kept in memory */
+    private final int retainedBlockCount;
+
+    /** The store the evicted blocks are read back from, or null if no blocks are evicted */
+    private final BlockStore<T> blockStore;
+
+    /** The number of blocks, which can be read without locks */
+    private volatile int size = 0;
+
+    BlockIndex(int retainedBlockCount, BlockStore<T> blockStore) {
+        this.retainedBlockCount = retainedBlockCount;
+        this.blockStore = blockStore;
+    }
+
+    /** Adds the block after the last block, evicting the records of the block that leaves the retained blocks */
+    void add(ValidatedBlock<T> block, long location) {
+        addEntry(BlockHeader.fromValidatedBlock(block), location, block);
+
+        int evictedPosition = entries.size() - retainedBlockCount - 1;
+        if (evictedPosition >= 0) {
+            Entry<T> evictedEntry = entries.get(evictedPosition);
+            if (evictedEntry.location == NO_LOCATION) {
+                throw new IllegalStateException(
+                        String.format("Block %s is not stored so cannot be evicted", evictedEntry.header.id)
+                );
+            }
+            evictedEntry.block = null;
+        }
+    }
+
+    /** Adds the block after the last block from its header, leaving its records in the block store */
+    void addHeader(BlockHeader header, long location) {
+        addEntry(header, location, null);
+    }
+
+    private void addEntry(BlockHeader header, long location, ValidatedBlock<T> block) {
+        Entry<T> entry = new Entry<>(header, location, getCumulativeWork().add(header.getWork()), block);
+        entries.add(entry);
+        entriesByHash.put(header.hash, entry);
+        size = entries.size();
+    }
+
+    /** Removes the last block, returning it. The records of evicted blocks are not read back into memory. */
+    ValidatedBlock<T> removeTip() {
+        Entry<T> entry = entries.remove(entries.size() - 1);
+        entriesByHash.remove(entry.header.hash);
+        size = entries.size();
+        return getBlock(entry);
+    }
+
+    /** Gets the block at the position, starting from the first block */
+    ValidatedBlock<T> get(int position) {
+        return getBlock(entries.get(position));
+    }
+
+    /** Gets the header of the block at the position, starting from the first block */
+    BlockHeader getHeader(int position) {
+        return entries.get(position).header;
+    }
+
+    /** Gets the block with the ID, or null if there is no such block */
+    ValidatedBlock<T> getById(long id) {
+        Entry<T> entry = getEntryById(id);
+        return entry == null ? null : getBlock(entry);
+    }
+
+    /** Gets the header of the block with the ID, or null if there is no such block */
+    BlockHeader getHeaderById(long id) {
+        Entry<T> entry = getEntryById(id);
+        return entry == null ? null : entry.header;
+    }
+
+    /** Gets the block with the hash, or null if there is no such block */
+    ValidatedBlock<T> getByHash(String hash) {
+        Entry<T> entry = entriesByHash.get(hash);
+        return entry == null ? null : getBlock(entry);
+    }
+
+    /** Gets the header of the block with the hash, or null if there is no such block */
+    BlockHeader getHeaderByHash(String hash) {
+        Entry<T> entry = entriesByHash.get(hash);
+        return entry == null ? null : entry.header;
+    }
+
+    /** Gets the last block, or null if there are no blocks */
+    ValidatedBlock<T> getTip() {
+        return entries.isEmpty() ? null : get(entries.size() - 1);
+    }
+
+    /** Gets the header of the last block, or null if there are no blocks */
+    BlockHeader getTipHeader() {
+        return entries.isEmpty() ? null : entries.get(entries.size() - 1).header;
+    }
+
+    /** Gets the location of the block at the position in the block store, or NO_LOCATION if it is not stored */
+    long getLocation(int position) {
+        return entries.get(position).location;
+    }
+
+    /** Gets the location of the last block in the block store, or NO_LOCATION if it is not stored */
+    long getTipLocation() {
+        return entries.get(entries.size() - 1).location;
+    }
+
+    /** Gets the total work of the blocks up to and including the last block */
+    BigInteger getCumulativeWork() {
+        return entries.isEmpty() ? BigInteger.ZERO : entries.get(entries.size() - 1).cumulativeWork;
+    }
+
+    /** Gets the total work of the blocks up to and including the block with the ID, or null if there is none */
+    BigInteger getCumulativeWorkById(long id) {
+        Entry<T> entry = getEntryById(id);
+        return entry == null ? null : entry.cumulativeWork;
+    }
+
+    /** Returns the number of blocks */
+    int size() {
+        return size;
+    }
+
+    /** Streams the blocks in order, reading each evicted block only when the stream reaches it */
+    Stream<ValidatedBlock<T>> stream() {
+        return entries.stream().map(this::getBlock);
+    }
+
+    /** Gets the entry of the block with the ID. Block IDs follow each other, so the ID gives the position. */
+    private Entry<T> getEntryById(long id) {
+        if (entries.isEmpty()) return null;
+        long position = id - entries.get(0).header.id;
+        return position < 0 || position >= entries.size() ? null : entries.get((int) position);
+    }
+
+    /** Gets the block of the entry, reading it from the block store if its records were evicted */
+    private ValidatedBlock<T> getBlock(Entry<T> entry) {
+        ValidatedBlock<T> block = entry.block;
+        return block != null ? block : blockStore.read(entry.location);
+    }
+
+    /** The header of a block with its location in the block store, and the block itself if it is retained */
+    private static class Entry<T extends RecordValue> {
+
+        final BlockHeader header;
+
+        final long location;
+
+        /** The total work of the blocks up to and including this block */
+        final BigInteger cumulativeWork;
+
+        /** The block, or null if its records were evicted */
+        ValidatedBlock<T> block;
+
+        Entry(BlockHeader header, long location, BigInteger cumulativeWork, ValidatedBlock<T> block) {
+            this.header = header;
+            this.location = location;
+            this.cumulativeWork = cumulativeWork;
+            this.block = block;
+        }
+    }
+}
@@ -0,0 +1,35 @@
+package blockchain;
+
+/** The outcome of submitting a mined block to a blockchain */
+public enum BlockSubmitResult {
+
+    /** The block was added, becoming the tip of the canonical chain */
+    ACCEPTED,
+
+    /** The block was kept in a side branch, which does not have more work than the canonical chain */
+    SIDE_BRANCH,
+
+    /** The blockchain does not allow any more blocks */
+    CHAIN_FULL,
+
+    /** The block is already known, or is too far behind the tip to start a branch */
+    STALE,
+
+    /** The block's previous block is not known */
+    ORPHAN,
+
+    /** The block's hash is wrong, does not have enough leading zeros or does not follow the previous block */
+    INVALID_HASH,
+
+    /** The block's miner reward is not the reward the blockchain gives its miner */
+    INVALID_REWARD,
+
+    /** The block's timestamp is not after its previous block's, or is too far ahead of this node's clock */
+    INVALID_TIMESTAMP,
+
+    /** A record of the block has an invalid signature */
+    INVALID_SIGNATURE,
+
+    /** A record of the block is out of sequence or cannot be applied, e.g. its creator cannot afford it */
+    INVALID_RECORDS
+}
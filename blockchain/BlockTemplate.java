@@ -0,0 +1,27 @@
+package blockchain;
+
+import dataentities.block.MinerBlock;
+import dataentities.block.record.RecordValue;
+
+/** An immutable template of the next block for a miner, with the version it was taken from */
+public class BlockTemplate<T extends RecordValue> {
+
+    /** The version of the next block's template, which changes whenever its records or previous block change */
+    public final long version;
+
+    /** The block to mine */
+    public final MinerBlock<T> block;
+
+    /** The earliest timestamp the block may have, which is just after its previous block's, in epoch milliseconds */
+    public final long minTimestamp;
+
+    /** When the first of the block's records was added, in epoch milliseconds, or 0 if there are no records */
+    public final long firstRecordAddedWhenMs;
+
+    BlockTemplate(long version, MinerBlock<T> block, long minTimestamp, long firstRecordAddedWhenMs) {
+        this.version = version;
+        this.block = block;
+        this.minTimestamp = minTimestamp;
+        this.firstRecordAddedWhenMs = firstRecordAddedWhenMs;
+    }
+}
@@ -1,20 +1,40 @@
 package blockchain;
 
 import dataentities.block.BlockData;
+import dataentities.block.BlockHeader;
 import dataentities.block.HashedBlock;
 import dataentities.block.MinerBlock;
 import dataentities.block.ValidatedBlock;
+import dataentities.block.record.LocatedRecord;
 import dataentities.block.record.Record;
+import dataentities.block.record.RecordPage;
 import dataentities.block.record.RecordValue;
 import dataentities.concurrency.LockHandler;
+import dataentities.exception.BlockchainException;
+import functionality.BlockHasher;
+import functionality.MerkleProof;
+import functionality.MerkleTree;
+import dataentities.user.User;
+import functionality.metrics.Counter;
+import functionality.metrics.MetricsRegistry;
+import functionality.metrics.Timer;
+import functionality.storage.BlockStore;
+import functionality.storage.SnapshotStore;
 
-import java.nio.charset.StandardCharsets;
-import java.security.MessageDigest;
+import java.io.IOException;
+import java.math.BigInteger;
 import java.time.Instant;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumMap;
 import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
-import java.util.function.Predicate;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 public abstract class Blockchain<T extends RecordValue> {
 
@@ -27,6 +47,15 @@ public abstract class Blockchain<T extends RecordValue> {
      */
     private final String FIRST_BLOCK_PREV_HASH = "0";
 
+    /** The number of records whose signatures are verified together when checking all the blocks */
+    private static final int VERIFIED_RECORD_BATCH_SIZE = 4096;
+
+    /** How far ahead of this node's clock a block's timestamp may be, in milliseconds */
+    static final long MAX_CLOCK_DRIFT_MS = 10_000;
+
+    /** The number of records in each page read by the record streams */
+    public static final int DEFAULT_RECORD_PAGE_SIZE = 256;
+
     /**
      * The number of seconds each block should be calculated.
      * We change this to change the hashing difficulty
@@ -38,105 +67,362 @@ public abstract class Blockchain<T extends RecordValue> {
      */
     private final double blockCalculationSpeedUncertainty;
 
-    /** The lock to be used when accessing message or block data */
+    /**
+     * Separates adding records from adding blocks. Records are added under the read lock, concurrently with each other,
+     * and a block is added under the write lock, so no record is half-added when the next block is set up.
+     * Reading the state of the next block does not need this lock.
+     */
     private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
 
-    /** The block data of the next block */
-    protected volatile BlockData<T> nextBlockData = new BlockData<>(
-            FIRST_BLOCK_ID, FIRST_BLOCK_PREV_HASH,
-            0, List.of()
+    /** The handler of the read lock, which is reused for every acquire */
+    private final LockHandler readLock;
+
+    /** The handler of the write lock, which is reused for every acquire */
+    private final LockHandler writeLock;
+
+    /** The state of the chain before its first block, where the time is when the chain was created */
+    private final ChainState<T> emptyChainState = new ChainState<>(
+            new BlockData<>(FIRST_BLOCK_ID, FIRST_BLOCK_PREV_HASH, 0, List.of()),
+            Instant.now().toEpochMilli()
     );
 
-    /** The ID of the next message */
-    private volatile long nextRecordId = 1;
+    /** The state of the tip, which is replaced with compare-and-set when a block is added */
+    private final AtomicReference<ChainState<T>> chainState = new AtomicReference<>(emptyChainState);
 
-    /**
-     * Stores the time when the previous block was created.
-     * If this chain contains no blocks, then this is when the chain was created.
-     */
-    private Instant prevBlockCreatedWhen = Instant.now();
+    /** The records waiting to be added to the next block */
+    private final Mempool<T> mempool = new Mempool<>(chainState.get());
+
+    /** All the blocks in the canonical chain of this blockchain */
+    final BlockIndex<T> blocks;
+
+    /** The blocks of the branches competing with the canonical chain */
+    private final SideBranches<T> sideBranches = new SideBranches<>();
+
+    /** The records of the canonical chain indexed by the users they involve, replaced when a snapshot is restored */
+    private RecordIndex recordIndex = new RecordIndex();
+
+    /** Limits the number of blocks and the number of blocks whose records are kept in memory */
+    private final ChainLimits limits;
+
+    /** Verifies the signatures of the records in blocks */
+    private final SignatureVerifier signatureVerifier;
+
+    /** Persists the blocks of this blockchain, or null if the blocks are only kept in memory */
+    private final BlockStore<T> blockStore;
+
+    /** Persists snapshots of the state derived from the blocks, or null if no snapshots are taken */
+    private final SnapshotStore snapshotStore;
+
+    /** Counts the submitted blocks by their outcome */
+    private final Map<BlockSubmitResult, Counter> blockSubmitCounters = new EnumMap<>(BlockSubmitResult.class);
+
+    /** Counts the records that were added */
+    private final Counter acceptedRecordCounter;
+
+    /** Counts the records rejected because of their signature */
+    private final Counter invalidSignatureRecordCounter;
+
+    /** Counts the records rejected because their ID is not the creator's next record ID */
+    private final Counter outOfSequenceRecordCounter;
+
+    /** Counts the records rejected because their creator may not create their value, e.g. a transfer from another user */
+    private final Counter unauthorisedRecordCounter;
 
-    /** All the blocks in this blockchain */
-    protected final List<ValidatedBlock<T>> blocks = new ArrayList<>();
+    /** Counts the records rejected because their value cannot be applied, e.g. the creator cannot afford it */
+    private final Counter unappliableRecordCounter;
+
+    /** Times how long records wait in the mempool before their block is added */
+    private final Timer recordConfirmationTimer;
+
+    /** Counts the times a side branch became the canonical chain */
+    private final Counter reorgCounter;
+
+    /** Counts the blocks that left the canonical chain because of a reorg */
+    private final Counter revertedBlockCounter;
+
+    /** Listen to the records and blocks that are added */
+    private final List<ChainListener<T>> listeners = new CopyOnWriteArrayList<>();
 
     protected Blockchain(int blockCalculationSpeedMs) {
+        this(blockCalculationSpeedMs, Runtime.getRuntime().availableProcessors());
+    }
+
+    protected Blockchain(int blockCalculationSpeedMs, int signatureVerificationParallelism) {
+        this(blockCalculationSpeedMs, signatureVerificationParallelism, null);
+    }
+
+    protected Blockchain(int blockCalculationSpeedMs, int signatureVerificationParallelism, BlockStore<T> blockStore) {
+        this(blockCalculationSpeedMs, signatureVerificationParallelism, blockStore, null);
+    }
+
+    protected Blockchain(
+            int blockCalculationSpeedMs, int signatureVerificationParallelism,
+            BlockStore<T> blockStore, SnapshotStore snapshotStore
+    ) {
+        this(blockCalculationSpeedMs, signatureVerificationParallelism, blockStore, snapshotStore, ChainLimits.DEFAULT);
+    }
+
+    /**
+     * Creates a blockchain whose blocks are persisted in the block store,
+     * periodically taking snapshots of its derived state if there is a snapshot store.
+     * The records of blocks older than the retained blocks of the limits are evicted to the block store.
+     * Subclasses must call restoreBlocks once their own state is set up to add the stored blocks.
+     */
+    protected Blockchain(
+            int blockCalculationSpeedMs, int signatureVerificationParallelism,
+            BlockStore<T> blockStore, SnapshotStore snapshotStore, ChainLimits limits
+    ) {
+        if (limits.evictsBlocks() && blockStore == null) {
+            throw new IllegalArgumentException("Blocks can only be evicted to a block store");
+        }
+        if (snapshotStore != null && blockStore == null) {
+            throw new IllegalArgumentException("Snapshots can only be taken of the blocks of a block store");
+        }
+        this.blockStore = blockStore;
+        this.snapshotStore = snapshotStore;
+        this.limits = limits;
+        this.blocks = new BlockIndex<>(limits.retainedBlockCount, blockStore);
         this.blockCalculationSpeedMs = blockCalculationSpeedMs;
         this.blockCalculationSpeedUncertainty = blockCalculationSpeedMs * 0.1;
+        this.signatureVerifier = new SignatureVerifier(
+                signatureVerificationParallelism, SignatureVerifier.DEFAULT_CACHE_CAPACITY
+        );
+
+        // Locks are taken very often, so only a sample of the waits are timed
+        MetricsRegistry metrics = MetricsRegistry.getDefault();
+        this.readLock = LockHandler.forReadLock(lock, metrics.timer("lock.read.wait", 64));
+        this.writeLock = LockHandler.forWriteLock(lock, metrics.timer("lock.write.wait", 64));
+        for (BlockSubmitResult result : BlockSubmitResult.values()) {
+            boolean isKept = result == BlockSubmitResult.ACCEPTED || result == BlockSubmitResult.SIDE_BRANCH;
+            String name = isKept ? result.toString() : "rejected." + result;
+            blockSubmitCounters.put(result, metrics.counter("blocks." + name.toLowerCase(Locale.ROOT)));
+        }
+        this.acceptedRecordCounter = metrics.counter("records.accepted");
+        this.invalidSignatureRecordCounter = metrics.counter("records.rejected.invalid_signature");
+        this.outOfSequenceRecordCounter = metrics.counter("records.rejected.out_of_sequence");
+        this.unauthorisedRecordCounter = metrics.counter("records.rejected.unauthorised");
+        this.unappliableRecordCounter = metrics.counter("records.rejected.unappliable");
+        this.recordConfirmationTimer = metrics.timer("records.confirmation", 1);
+        this.reorgCounter = metrics.counter("chain.reorgs");
+        this.revertedBlockCounter = metrics.counter("chain.reorgs.reverted_blocks");
     }
 
     /** Generates a block hash using the given values */
-    public static <T extends RecordValue> String generateBlockHash(String prevBlockHash, List<Record<T>> messages, long nonce) {
-        return applySha256(String.format(
-            "%s%s%s",
-            prevBlockHash,
-            messages.stream().map(m -> m.value.toString()).reduce("", (result, message) -> result + message),
-            nonce
-        ));
+    public static <T extends RecordValue> String generateBlockHash(
+            String prevBlockHash, List<Record<T>> messages, long minerUserId, T minerReward, long timestamp, long nonce
+    ) {
+        return BlockHasher.encodeHash(
+                BlockHasher.hashHeader(prevBlockHash, messages, minerUserId, minerReward, timestamp, nonce)
+        );
     }
 
     /** Check whether the hash prefix matches the required zero count. */
     public static boolean blockHashMatchesPrefixZeroCount(HashedBlock<?> block) {
-        String prefix = block.hash.substring(0, block.hashPrefixZeroCount);
-        for (char c : prefix.toCharArray()) {
-            if (c != '0') {
+        if (block.hash.length() < block.hashPrefixZeroCount) {
+            return false;
+        }
+        for (int i = 0; i < block.hashPrefixZeroCount; i++) {
+            if (block.hash.charAt(i) != '0') {
                 return false;
             }
         }
         return true;
     }
 
-    /* Applies Sha256 to a string and returns a hash. */
-    private static String applySha256(String input){
-        try {
-            MessageDigest digest = MessageDigest.getInstance("SHA-256");
-            /* Applies sha256 to our input */
-            byte[] hash = digest.digest(input.getBytes(StandardCharsets.UTF_8));
-            StringBuilder hexString = new StringBuilder();
-            for (byte elem: hash) {
-                String hex = Integer.toHexString(0xff & elem);
-                if(hex.length() == 1) hexString.append('0');
-                hexString.append(hex);
-            }
-            return hexString.toString();
+    /**
+     * Check whether the raw hash starts with the required number of zero hexadecimal digits,
+     * i.e. whether it has at least four leading zero bits per digit.
+     */
+    public static boolean hashMatchesPrefixZeroCount(byte[] hash, int hashPrefixZeroCount) {
+        int zeroBits = hashPrefixZeroCount * 4;
+        if (zeroBits > hash.length * 8) {
+            return false;
         }
-        catch(Exception e) {
-            throw new RuntimeException(e);
+        int zeroBytes = zeroBits / 8;
+        for (int i = 0; i < zeroBytes; i++) {
+            if (hash[i] != 0) {
+                return false;
+            }
         }
+        int remainingBits = zeroBits % 8;
+        return remainingBits == 0 || (hash[zeroBytes] & 0xff) >>> (8 - remainingBits) == 0;
     }
 
     /** Adds a new record to the next block */
     public boolean tryAddRecord(Record<T> record) {
-        try (var ignored = LockHandler.ReadMode(lock)) {
-            if (record.id != nextRecordId || !canAddRecordValue(record.value)) return false;
+        return tryAddRecords(List.of(record)) == 1;
+    }
+
+    /**
+     * Adds the new records to the next block. Each record is accepted or rejected on its own.
+     * Signatures are verified before taking any lock and are remembered so blocks do not verify them again.
+     * Records are only added under a read lock, so many can be added concurrently.
+     * Returns the number of records that were added.
+     */
+    public int tryAddRecords(List<Record<T>> records) {
+        List<Record<T>> signedRecords = records.stream()
+                .filter(signatureVerifier::signatureIsValid)
+                .collect(Collectors.toList());
+        invalidSignatureRecordCounter.add(records.size() - signedRecords.size());
+
+        try (var ignored = readLock.acquire()) {
+            List<Record<T>> appliedRecords = new ArrayList<>(signedRecords.size());
+            for (Record<T> record : signedRecords) {
+                Counter rejectedRecordCounter = tryApplyRecordValueInSequence(record);
+                if (rejectedRecordCounter != null) {
+                    rejectedRecordCounter.increment();
+                } else {
+                    appliedRecords.add(record);
+                }
+            }
+
+            // The IDs are claimed as the records are appended, so each creator's records stay in ID order
+            List<Record<T>> rejectedRecords = new ArrayList<>();
+            List<Record<T>> acceptedRecords = mempool.tryClaimAndAppend(appliedRecords, rejectedRecords);
+            for (Record<T> record : rejectedRecords) {
+                // Another record of this creator claimed the ID first
+                revertRecordValue(record.value);
+                outOfSequenceRecordCounter.increment();
+            }
+            acceptedRecordCounter.add(acceptedRecords.size());
+            if (!acceptedRecords.isEmpty()) {
+                for (ChainListener<T> listener : listeners) {
+                    listener.onRecordsAdded(acceptedRecords);
+                }
+            }
+            return acceptedRecords.size();
         }
+    }
 
-        try (var ignored = LockHandler.WriteMode(lock)) {
-            if (record.id != nextRecordId || !canAddRecordValue(record.value)) return false;
+    /**
+     * Applies the record value if the record ID is its creator's next one, without claiming the ID.
+     * Returns the counter of the reason the record was rejected, or null if it was applied.
+     * Must be called within a lock.
+     */
+    private Counter tryApplyRecordValueInSequence(Record<T> record) {
+        // Cheap check first, the ID is claimed atomically later
+        if (record.id != mempool.getNextRecordId(record.creatorUserId)) {
+            return outOfSequenceRecordCounter;
+        }
 
-            nextBlockData = nextBlockData.WithNewRecord(record);
-            nextRecordId++;
-            return true;
+        if (!recordValueIsAuthorised(record.creatorUserId, record.value)) {
+            return unauthorisedRecordCounter;
         }
+
+        if (!tryApplyRecordValue(record.value)) {
+            return unappliableRecordCounter;
+        }
+        return null;
     }
 
-    /** A check stating whether this record can be added. This check is performed within locks. */
-    protected abstract boolean canAddRecordValue(T recordValue);
+    /**
+     * Applies the record value and claims the record ID if both are possible.
+     * Returns the counter of the reason the record was rejected, or null if it was applied.
+     * Must be called within a write lock, since the claimed record is not appended to the mempool here.
+     */
+    private Counter tryApplyRecord(Record<T> record) {
+        Counter rejectedRecordCounter = tryApplyRecordValueInSequence(record);
+        if (rejectedRecordCounter != null) {
+            return rejectedRecordCounter;
+        }
 
-    /** Retrieves the ID of the next message */
-    public long getNextRecordId() {
-        try (var ignored = LockHandler.ReadMode(lock)) {
-            return nextRecordId;
+        if (!mempool.tryClaimRecordId(record)) {
+            // Another record of this creator claimed the ID first
+            revertRecordValue(record.value);
+            return outOfSequenceRecordCounter;
         }
+        return null;
+    }
+
+    /**
+     * Applies the record value to the state of the next block if it can be added.
+     * This is called within a read lock, concurrently with other records, so it must be atomic.
+     * Records are added to the mempool in a different order to the one they were applied in, and blocks are applied
+     * again in their record order when a branch becomes canonical, so the applied values must not depend on each other.
+     * Returns a boolean stating whether the record value was applied.
+     */
+    protected abstract boolean tryApplyRecordValue(T recordValue);
+
+    /**
+     * States whether the creator may create a record with the value, e.g. whether the value only takes from the creator.
+     * The record's signature proves who created it, so this must reject values that act for any other user.
+     * This may be called without any locks.
+     */
+    protected abstract boolean recordValueIsAuthorised(long creatorUserId, T recordValue);
+
+    /** Checks whether the creator of every record may create its value */
+    private boolean recordsAreAuthorised(List<Record<T>> records) {
+        return records.stream().allMatch(record -> recordValueIsAuthorised(record.creatorUserId, record.value));
+    }
+
+    /**
+     * Reverts a record value that was applied but could not be added, or that is removed from the next block.
+     * This is called within a lock.
+     */
+    protected abstract void revertRecordValue(T recordValue);
+
+    /**
+     * Called when a block has been added to the canonical chain, with its records applied as the next block's.
+     * This is called within a write lock.
+     */
+    protected abstract void onBlockAdded(ValidatedBlock<T> block);
+
+    /**
+     * Called when the tip of the canonical chain is removed by a reorg, which must undo onBlockAdded.
+     * The next block has no records at that point. This is called within a write lock.
+     */
+    protected abstract void onBlockRemoved(ValidatedBlock<T> block);
+
+    /** Retrieves the ID that the user must use for their next record */
+    public long getNextRecordId(long userId) {
+        return mempool.getNextRecordId(userId);
     }
 
     /** Get the block data of the next block. */
     public MinerBlock<T> getNextBlockData(long minerUserId) {
-        try (var ignored = LockHandler.ReadMode(lock)) {
-            return MinerBlock.fromBlockData(nextBlockData, minerUserId, getMinerReward(minerUserId));
-        }
+        return getNextBlockTemplate(minerUserId).block;
     }
 
-    /** Gets a reward for the miner if they manage to mine a block. This is called within a read lock. */
+    /**
+     * Gets the template of the next block for the miner, with the version it was taken from.
+     * This does not take any locks, since the mempool's snapshot holds both the records and the state they build on.
+     */
+    public BlockTemplate<T> getNextBlockTemplate(long minerUserId) {
+        Mempool.Snapshot<T> snapshot = mempool.getSnapshot();
+        MinerBlock<T> block = MinerBlock.fromBlockData(
+                getNextBlockDataWithRecords(snapshot), minerUserId, getMinerReward(minerUserId)
+        );
+        return new BlockTemplate<>(
+                snapshot.version, block, snapshot.chainState.prevBlockCreatedWhenMs + 1, snapshot.firstRecordAddedWhenMs
+        );
+    }
+
+    /**
+     * Gets the version of the next block's template, which changes whenever its records or previous block change.
+     * This does not take any locks, so miners can check it on every attempt and only fetch a template when it changes.
+     */
+    public long getNextBlockTemplateVersion() {
+        return mempool.getSnapshot().version;
+    }
+
+    /**
+     * Waits until the next block's template is no longer the version or until the timeout passes.
+     * Returns the latest template version.
+     */
+    public long awaitNextBlockTemplateChange(long version, long timeoutMs) throws InterruptedException {
+        return mempool.awaitChange(version, timeoutMs);
+    }
+
+    /** Gets the block data of the next block with the records in the snapshot */
+    private BlockData<T> getNextBlockDataWithRecords(Mempool.Snapshot<T> snapshot) {
+        BlockData<T> nextBlockHeader = snapshot.chainState.nextBlockHeader;
+        return new BlockData<>(
+                nextBlockHeader.id, nextBlockHeader.prevBlockHash, nextBlockHeader.hashPrefixZeroCount,
+                snapshot.records, snapshot.recordsRoot
+        );
+    }
+
+    /** Gets a reward for the miner if they manage to mine a block. This may be called without any locks. */
     protected abstract T getMinerReward(long minerUserId);
 
     /**
@@ -144,81 +430,508 @@ public abstract class Blockchain<T extends RecordValue> {
      * Returns a boolean stating whether the addition was successful or not.
      */
     public boolean tryAddBlock(HashedBlock<T> block) {
-        Predicate<HashedBlock<T>> checkBlockValidity = innerBlock -> {
-            // Check if this blockchain can add any more blocks
-            if (!canAddNewBlock()) {
-                return false;
+        return submitBlock(block) == BlockSubmitResult.ACCEPTED;
+    }
+
+    /** Attempts to add the hash to the block chain, returning why it was not added if it was rejected */
+    public BlockSubmitResult submitBlock(HashedBlock<T> block) {
+        BlockSubmitResult result = addBlock(block);
+        blockSubmitCounters.get(result).increment();
+        return result;
+    }
+
+    /**
+     * Validates and adds the block, returning the outcome.
+     * The block's own properties are validated once without any locks.
+     * A block holding exactly the mempool's records on top of the tip is added straight away under the write lock,
+     * as long as the mempool has not changed since, since its records were checked when they were added.
+     * Any other block is linked into the tree of branches, which may make its branch the canonical chain.
+     */
+    private BlockSubmitResult addBlock(HashedBlock<T> block) {
+        // Check if this blockchain can add a block at that height
+        if (block.id - FIRST_BLOCK_ID >= limits.maxBlockCount) return BlockSubmitResult.CHAIN_FULL;
+
+        // Check whether the block info are the same as the one we need next
+        Mempool.Snapshot<T> snapshot = mempool.getSnapshot();
+        boolean isNextBlock = block.equalBlockData(getNextBlockDataWithRecords(snapshot));
+
+        // Check block properties are valid, the cheap properties first.
+        // The reward is checked here for the blocks of every branch, as the hash only proves the miner chose it.
+        // The previous block and the zero count are checked against the block's branch, so only the hash is checked.
+        if (!minerRewardIsValid(block)) return BlockSubmitResult.INVALID_REWARD;
+        if (block.timestamp > Instant.now().toEpochMilli() + MAX_CLOCK_DRIFT_MS) return BlockSubmitResult.INVALID_TIMESTAMP;
+        if (!blockHashIsCorrect(block)) return BlockSubmitResult.INVALID_HASH;
+        if (!signatureVerifier.allSignaturesValid(block.records)) return BlockSubmitResult.INVALID_SIGNATURE;
+        if (!recordsAreAuthorised(block.records)) return BlockSubmitResult.INVALID_RECORDS;
+
+        try (var ignored = writeLock.acquire()) {
+            // Records can be added and other blocks can be sealed while this block is validated,
+            // both of which publish a new snapshot
+            if (!isNextBlock || mempool.getSnapshot() != snapshot) {
+                return linkBlock(block);
             }
 
-            // Check that the block info are the same as the one we need
-            if (!innerBlock.equalBlockData(nextBlockData)) {
-                return false;
+            if (!timestampFollows(block, snapshot.chainState)) return BlockSubmitResult.INVALID_TIMESTAMP;
+
+            // All the checks are done. Block is good.
+            // The time it took to calculate the hash comes from the timestamps, so every node agrees on it.
+            ValidatedBlock<T> validatedBlock = ValidatedBlock.fromMinerBlock(
+                    block, getCalculationTimeMs(block, snapshot.chainState)
+            );
+
+            // Persist the block before adding it so the stored blocks never miss an added block.
+            // This is a memory copy since the store only forces its writes to disk every few blocks.
+            long location = blockStore != null ? blockStore.append(validatedBlock) : BlockIndex.NO_LOCATION;
+            mempool.recordConfirmationTimes(validatedBlock.records.size(), recordConfirmationTimer);
+            addValidatedBlock(validatedBlock, snapshot.chainState, location);
+
+            if (snapshotStore != null && snapshotStore.isSnapshotDue(validatedBlock.id)) {
+                takeSnapshot(validatedBlock);
             }
 
-            // Check block properties are valid
-            if (!blockIsValid(innerBlock)) {
-                return false;
+            sideBranches.prune(validatedBlock.id);
+            notifyBlocksAdded(List.of(validatedBlock));
+            return BlockSubmitResult.ACCEPTED;
+        }
+    }
+
+    /**
+     * Links the block to its previous block in the canonical chain or a side branch, keeping it in a side branch.
+     * If its branch then has more work than the canonical chain, the chain is reorganised onto it.
+     * Must be called within a write lock.
+     */
+    private BlockSubmitResult linkBlock(HashedBlock<T> block) {
+        if (blocks.getHeaderByHash(block.hash) != null || sideBranches.contains(block.hash)) {
+            return BlockSubmitResult.STALE;
+        }
+        BlockHeader tip = blocks.getTipHeader();
+        if (tip != null && block.id <= tip.id - SideBranches.MAX_FORK_DEPTH) {
+            return BlockSubmitResult.STALE;
+        }
+
+        // Find the previous block, which has the same height in every branch
+        BlockHeader prevBlock;
+        BigInteger prevCumulativeWork;
+        BlockHeader canonicalPrevBlock = blocks.getHeaderByHash(block.prevBlockHash);
+        SideBranches.SideBlock<T> sidePrevBlock = sideBranches.get(block.prevBlockHash);
+        if (canonicalPrevBlock != null) {
+            prevBlock = canonicalPrevBlock;
+            prevCumulativeWork = blocks.getCumulativeWorkById(prevBlock.id);
+        } else if (sidePrevBlock != null) {
+            prevBlock = BlockHeader.fromValidatedBlock(sidePrevBlock.block);
+            prevCumulativeWork = sidePrevBlock.cumulativeWork;
+        } else if (block.prevBlockHash.equals(FIRST_BLOCK_PREV_HASH)) {
+            prevBlock = null;
+            prevCumulativeWork = BigInteger.ZERO;
+        } else {
+            return BlockSubmitResult.ORPHAN;
+        }
+
+        // The block must follow its previous block with the zero count required after it
+        ChainState<T> prevState = getChainStateAfter(prevBlock);
+        if (block.id != prevState.nextBlockHeader.id
+                || block.hashPrefixZeroCount != prevState.nextBlockHeader.hashPrefixZeroCount
+        ) {
+            return BlockSubmitResult.INVALID_HASH;
+        }
+
+        if (!timestampFollows(block, prevState)) return BlockSubmitResult.INVALID_TIMESTAMP;
+
+        ValidatedBlock<T> validatedBlock = ValidatedBlock.fromMinerBlock(block, getCalculationTimeMs(block, prevState));
+        BigInteger cumulativeWork = prevCumulativeWork.add(BlockHeader.getWork(block.hashPrefixZeroCount));
+        sideBranches.add(validatedBlock, cumulativeWork);
+
+        // The first branch to reach an amount of work stays canonical
+        if (cumulativeWork.compareTo(blocks.getCumulativeWork()) <= 0) {
+            for (ChainListener<T> listener : listeners) {
+                listener.onSideBlockAdded(validatedBlock);
             }
+            return BlockSubmitResult.SIDE_BRANCH;
+        }
+        return reorganiseTo(validatedBlock) ? BlockSubmitResult.ACCEPTED : BlockSubmitResult.INVALID_RECORDS;
+    }
 
-            return true;
-        };
+    /**
+     * Makes the side branch ending with the block the canonical chain.
+     * Only the canonical blocks after the fork point are reverted, and only the branch's blocks are applied.
+     * The records of the reverted blocks and of the mempool are then added back to the mempool,
+     * except those the branch already holds. If the records of a branch block cannot be applied,
+     * the block and its descendants are dropped and the previous canonical chain is put back.
+     * Returns a boolean stating whether the branch became canonical. Must be called within a write lock.
+     */
+    private boolean reorganiseTo(ValidatedBlock<T> newTip) {
+        // Walk back along the side branch to the canonical chain
+        List<ValidatedBlock<T>> branch = new ArrayList<>();
+        for (SideBranches.SideBlock<T> sideBlock = sideBranches.get(newTip.hash);
+             sideBlock != null;
+             sideBlock = sideBranches.get(sideBlock.block.prevBlockHash)
+        ) {
+            branch.add(sideBlock.block);
+        }
+        Collections.reverse(branch);
+        long forkBlockId = branch.get(0).id - 1;
+
+        List<Record<T>> pendingRecords = takeMempoolRecords();
+        List<ValidatedBlock<T>> revertedBlocks = revertBlocksAfter(forkBlockId);
 
-        try (var ignored = LockHandler.ReadMode(lock)) {
-            if(!checkBlockValidity.test(block)) return false;
+        int appliedCount = 0;
+        while (appliedCount < branch.size() && tryApplyBlock(branch.get(appliedCount))) {
+            appliedCount++;
         }
 
-        try (var ignored = LockHandler.WriteMode(lock)) {
-            // Check the block's validity again just in case the blocks
-            // have changed since then
-            if(!checkBlockValidity.test(block)) return false;
+        if (appliedCount < branch.size()) {
+            // Put the previous canonical chain back, which was valid on top of the fork point
+            sideBranches.removeWithDescendants(branch.get(appliedCount).hash);
+            revertBlocksAfter(forkBlockId);
+            for (ValidatedBlock<T> block : revertedBlocks) {
+                if (!tryApplyBlock(block)) {
+                    throw new BlockchainException(
+                            String.format("Reverted block %s could not be applied again", block.id)
+                    );
+                }
+            }
+            returnRecordsToMempool(pendingRecords);
+            return false;
+        }
 
-            // All the checks are done. Block is good.
-            // Calculate the time it took to calculate the hash.
-            Instant now = Instant.now();
-            long timestamp = now.toEpochMilli();
-            long calculationTimeMs = timestamp - prevBlockCreatedWhen.toEpochMilli();
-
-            // Add the block
-            blocks.add(ValidatedBlock.fromMinerBlock(block, timestamp, calculationTimeMs));
-            prevBlockCreatedWhen = now;
-
-            // Set up the block data for the next block
-            int nextHashPrefixZeroCount;
-            if (calculationTimeMs < blockCalculationSpeedMs - blockCalculationSpeedUncertainty) {
-                nextHashPrefixZeroCount = block.hashPrefixZeroCount + 1;
-            } else if (calculationTimeMs > blockCalculationSpeedMs + blockCalculationSpeedUncertainty
-                    && block.hashPrefixZeroCount > 0
-            ) {
-                nextHashPrefixZeroCount = block.hashPrefixZeroCount - 1;
-            } else {
-                nextHashPrefixZeroCount = block.hashPrefixZeroCount;
+        if (!revertedBlocks.isEmpty()) {
+            reorgCounter.increment();
+            revertedBlockCounter.add(revertedBlocks.size());
+        }
+        List<Record<T>> returnedRecords = new ArrayList<>();
+        for (ValidatedBlock<T> block : revertedBlocks) {
+            returnedRecords.addAll(block.records);
+        }
+        returnedRecords.addAll(pendingRecords);
+        returnRecordsToMempool(returnedRecords);
+        sideBranches.prune(newTip.id);
+        notifyBlocksAdded(branch);
+        return true;
+    }
+
+    /**
+     * Removes all the records from the mempool, reverting their values and rewinding their IDs.
+     * Returns the removed records in the order they were added. Must be called within a write lock.
+     */
+    private List<Record<T>> takeMempoolRecords() {
+        List<Record<T>> records = mempool.getSnapshot().records;
+        for (int i = records.size() - 1; i >= 0; i--) {
+            revertRecordValue(records.get(i).value);
+            mempool.rewindRecordId(records.get(i));
+        }
+        mempool.clear(chainState.get());
+        return records;
+    }
+
+    /**
+     * Adds the records back to the mempool, dropping those that can no longer be added.
+     * Must be called within a write lock.
+     */
+    private void returnRecordsToMempool(List<Record<T>> records) {
+        List<Record<T>> acceptedRecords = new ArrayList<>(records.size());
+        for (Record<T> record : records) {
+            if (tryApplyRecord(record) == null) {
+                acceptedRecords.add(record);
             }
-            nextBlockData = new BlockData<T>(block.id + 1, block.hash, nextHashPrefixZeroCount, List.of());
+        }
+        mempool.append(acceptedRecords);
+    }
 
-            return true;
+    /**
+     * Reverts the canonical blocks after the block with the ID, keeping them in a side branch.
+     * Their blocks are removed from the block store. Returns the reverted blocks, oldest first.
+     * Must be called within a write lock with an empty mempool.
+     */
+    private List<ValidatedBlock<T>> revertBlocksAfter(long blockId) {
+        List<ValidatedBlock<T>> revertedBlocks = new ArrayList<>();
+        long oldestLocation = BlockIndex.NO_LOCATION;
+        while (blocks.size() > 0 && blocks.getTipHeader().id > blockId) {
+            BigInteger cumulativeWork = blocks.getCumulativeWork();
+            oldestLocation = blocks.getTipLocation();
+            ValidatedBlock<T> block = blocks.removeTip();
+            recordIndex.remove(block);
+            onBlockRemoved(block);
+            for (Record<T> record : block.records) {
+                mempool.rewindRecordId(record);
+            }
+            sideBranches.add(block, cumulativeWork);
+            revertedBlocks.add(block);
         }
+        Collections.reverse(revertedBlocks);
+
+        if (blockStore != null && oldestLocation != BlockIndex.NO_LOCATION) {
+            blockStore.truncate(oldestLocation);
+        }
+        ChainState<T> state = getChainStateAfter(blocks.getTipHeader());
+        chainState.set(state);
+        mempool.clear(state);
+        return revertedBlocks;
     }
 
-    /** Ensures the block is valid by ensuring all of its data and calculations match the blockchain. */
-    private boolean blockIsValid(HashedBlock<T> block) {
-        // Check every message in the block has valid signatures
-        if (!block.records.stream().allMatch(Record::hasValidSignature)) {
+    /**
+     * Applies the records of the side block on top of the tip and adds it to the canonical chain.
+     * Returns false, leaving the chain unchanged, if the block does not follow the tip or any of its records cannot be applied.
+     * Must be called within a write lock with an empty mempool.
+     */
+    private boolean tryApplyBlock(ValidatedBlock<T> block) {
+        // A branch whose blocks do not link up must not be applied, even when the heights line up
+        BlockHeader tip = blocks.getTipHeader();
+        String tipHash = tip != null ? tip.hash : FIRST_BLOCK_PREV_HASH;
+        long nextBlockId = tip != null ? tip.id + 1 : FIRST_BLOCK_ID;
+        if (block.id != nextBlockId || !block.prevBlockHash.equals(tipHash)) {
             return false;
         }
 
-        // Ensure the hash prefix starts with the required zeros
-        if (!blockHashMatchesPrefixZeroCount(block)) {
-            return false;
+        for (int i = 0; i < block.records.size(); i++) {
+            if (tryApplyRecord(block.records.get(i)) != null) {
+                for (int j = i - 1; j >= 0; j--) {
+                    revertRecordValue(block.records.get(j).value);
+                    mempool.rewindRecordId(block.records.get(j));
+                }
+                return false;
+            }
         }
 
-        // Get the hash of the previous block of that block
-        // No hash will be found if this block is the first block
-        String prevHash = null;
-        for (ValidatedBlock<T> prevBlock : blocks) {
-            if (prevBlock.id == block.id - 1) {
-                prevHash = prevBlock.hash;
+        sideBranches.remove(block.hash);
+        long location = blockStore != null ? blockStore.append(block) : BlockIndex.NO_LOCATION;
+        addValidatedBlock(block, chainState.get(), location);
+        if (snapshotStore != null && snapshotStore.isSnapshotDue(block.id)) {
+            takeSnapshot(block);
+        }
+        return true;
+    }
+
+    /**
+     * Adds the stored blocks to this blockchain.
+     * The state, the block headers and the record index are restored from the newest usable snapshot,
+     * so only the blocks after it are decoded, validated and replayed.
+     * The blocks are decoded one at a time, so the stored blocks do not need to fit in memory.
+     */
+    protected final void restoreBlocks() {
+        if (blockStore == null) return;
+
+        try (var ignored = writeLock.acquire()) {
+            ChainSnapshot snapshot = readNewestSnapshot();
+            if (snapshot == null) {
+                blockStore.forEachBlock(this::replayStoredBlock);
+                return;
+            }
+
+            // The blocks up to the snapshot were validated, applied and indexed before the snapshot was taken.
+            // Only the newest blocks are read back, the rest are read when they are needed.
+            int blockCount = snapshot.headers.size();
+            for (int i = 0; i < blockCount; i++) {
+                long location = snapshot.blockLocations[i];
+                if (i >= blockCount - limits.retainedBlockCount) {
+                    blocks.add(blockStore.read(location), location);
+                } else {
+                    blocks.addHeader(snapshot.headers.get(i), location);
+                }
+            }
+            recordIndex = snapshot.recordIndex;
+            restoreSnapshot(snapshot);
+            blockStore.forEachBlockAfter(snapshot.blockLocations[blockCount - 1], this::replayStoredBlock);
+        }
+    }
+
+    /** Validates the stored block against the tip and adds it. Must be called within a write lock. */
+    private void replayStoredBlock(ValidatedBlock<T> block, long location) {
+        // The creators were checked against the registered keys before the block was stored,
+        // but a new process only knows the users of the snapshot, so the later creators are registered again
+        for (Record<T> record : block.records) {
+            UserManager.restoreUser(record.creatorUserId, record.publicKey);
+        }
+
+        ChainState<T> state = chainState.get();
+        BlockData<T> nextBlockHeader = state.nextBlockHeader;
+        boolean isNextBlock = block.id == nextBlockHeader.id
+                && block.hashPrefixZeroCount == nextBlockHeader.hashPrefixZeroCount
+                && block.prevBlockHash.equals(nextBlockHeader.prevBlockHash)
+                && timestampFollows(block, state)
+                && block.calculationTimeMs == getCalculationTimeMs(block, state);
+        if (!isNextBlock || !blockIsValid(block)) {
+            throw new BlockchainException(String.format("Stored block %s is invalid", block.id));
+        }
+        addValidatedBlock(block, state, location);
+    }
+
+    /** Reads the newest snapshot that matches the stored blocks, or returns null if there is none */
+    private ChainSnapshot readNewestSnapshot() {
+        if (snapshotStore == null) return null;
+
+        for (long tipBlockId : snapshotStore.getSnapshotBlockIds()) {
+            byte[] data = snapshotStore.read(tipBlockId);
+            if (data == null) continue;
+
+            ChainSnapshot snapshot;
+            try {
+                snapshot = ChainSnapshot.decode(data, blockStore.getCodec());
+            } catch (IOException e) {
+                continue;
+            }
+
+            // The snapshot is only usable if it was taken from the same blocks.
+            // The tip's hash commits to every block before it, so those blocks are stored where the snapshot says.
+            if (snapshot != null && !snapshot.headers.isEmpty()) {
+                long tipLocation = snapshot.blockLocations[snapshot.blockLocations.length - 1];
+                if (blockStore.contains(tipLocation) && blockStore.read(tipLocation).hash.equals(snapshot.tipHash)) {
+                    return snapshot;
+                }
             }
         }
+        return null;
+    }
+
+    /** Restores the state from the snapshot. Must be called within a write lock. */
+    private void restoreSnapshot(ChainSnapshot snapshot) {
+        for (User user : snapshot.users) {
+            UserManager.restoreUser(user);
+        }
+        ChainState<T> restoredState = new ChainState<>(
+                new BlockData<>(snapshot.tipBlockId + 1, snapshot.tipHash, snapshot.nextHashPrefixZeroCount, List.of()),
+                snapshot.tipTimestamp
+        );
+        chainState.set(restoredState);
+        mempool.clear(restoredState);
+        mempool.restoreNextRecordIds(snapshot.nextRecordIdByUserId);
+        restoreSnapshotState(snapshot.subclassState);
+    }
+
+    /**
+     * Takes a snapshot of the state after the block and writes it in the background.
+     * Must be called within a write lock, straight after the block was added.
+     */
+    private void takeSnapshot(ValidatedBlock<T> block) {
+        // A snapshot must never include a block that could be lost
+        blockStore.sync();
+
+        List<BlockHeader> headers = new ArrayList<>(blocks.size());
+        long[] blockLocations = new long[blocks.size()];
+        for (int i = 0; i < blocks.size(); i++) {
+            headers.add(blocks.getHeader(i));
+            blockLocations[i] = blocks.getLocation(i);
+        }
+        ChainSnapshot snapshot = new ChainSnapshot(
+                block.id, block.hash, chainState.get().nextBlockHeader.hashPrefixZeroCount, block.timestamp,
+                mempool.getNextRecordIds(), UserManager.getUsersExcludingSystem(), getSnapshotState(),
+                headers, blockLocations, recordIndex
+        );
+        try {
+            snapshotStore.write(block.id, snapshot.encode(blockStore.getCodec()));
+        } catch (IOException e) {
+            throw new BlockchainException("Snapshot could not be encoded", e);
+        }
+    }
+
+    /** Encodes the state of the subclass for a snapshot. This is called within a write lock. */
+    protected abstract byte[] getSnapshotState();
+
+    /** Restores the state of the subclass from a snapshot. This is called within a write lock. */
+    protected abstract void restoreSnapshotState(byte[] state);
+
+    /**
+     * Adds the validated block on top of the expected chain state and sets up the next block.
+     * The location is where the block is in the block store, or NO_LOCATION if it is not stored.
+     * Must be called within a write lock.
+     */
+    private void addValidatedBlock(ValidatedBlock<T> block, ChainState<T> expectedState, long location) {
+        ChainState<T> nextState = getChainStateAfter(BlockHeader.fromValidatedBlock(block));
+
+        // Only blocks change the state and they are added within the write lock, so this always succeeds
+        if (!chainState.compareAndSet(expectedState, nextState)) {
+            throw new BlockchainException(String.format("Chain state changed while adding block %s", block.id));
+        }
+        blocks.add(block, location);
+        recordIndex.add(block);
+        mempool.clear(nextState);
+        for (Record<T> record : block.records) {
+            mempool.restoreRecordId(record);
+        }
+        onBlockAdded(block);
+    }
+
+    /**
+     * Tells the listeners the blocks became the tip of the canonical chain, oldest first.
+     * This is only called once the blocks are accepted, so a block undone by a failed reorg is never announced.
+     * Must be called within a write lock.
+     */
+    private void notifyBlocksAdded(List<ValidatedBlock<T>> addedBlocks) {
+        for (ValidatedBlock<T> block : addedBlocks) {
+            for (ChainListener<T> listener : listeners) {
+                listener.onBlockAdded(block);
+            }
+        }
+    }
+
+    /**
+     * Gets the state of the chain whose tip is the block, or the state of an empty chain if there is no block.
+     * The zero count only depends on the blocks' timestamps, so every node derives the same one.
+     */
+    private ChainState<T> getChainStateAfter(BlockHeader tip) {
+        if (tip == null) {
+            return emptyChainState;
+        }
+
+        // Set up the block data for the next block
+        return new ChainState<>(
+                new BlockData<>(tip.id + 1, tip.hash, getNextHashPrefixZeroCount(tip), List.of()), tip.timestamp
+        );
+    }
+
+    /**
+     * Gets the number of zeros that the hash of the block after the block must have as a prefix,
+     * or the zero count of the first block if there is no block.
+     * This only depends on the blocks' timestamps, so it can be checked along a chain of headers. It needs no locks.
+     */
+    public int getNextHashPrefixZeroCount(BlockHeader tip) {
+        if (tip == null) {
+            return emptyChainState.nextBlockHeader.hashPrefixZeroCount;
+        }
+
+        // The first block has no previous block to time it against, so it keeps the zero count
+        if (tip.id == FIRST_BLOCK_ID) {
+            return tip.hashPrefixZeroCount;
+        } else if (tip.calculationTimeMs < blockCalculationSpeedMs - blockCalculationSpeedUncertainty) {
+            return tip.hashPrefixZeroCount + 1;
+        } else if (tip.calculationTimeMs > blockCalculationSpeedMs + blockCalculationSpeedUncertainty
+                && tip.hashPrefixZeroCount > 0
+        ) {
+            return tip.hashPrefixZeroCount - 1;
+        }
+        return tip.hashPrefixZeroCount;
+    }
+
+    /** Ensures the block is valid by ensuring all of its data and calculations match the blockchain. */
+    private boolean blockIsValid(HashedBlock<T> block) {
+        // Check the cheap properties first so an invalid block is rejected before verifying any signatures
+        return minerRewardIsValid(block) && blockHashIsValid(block) && recordsAreAuthorised(block.records)
+                && signatureVerifier.allSignaturesValid(block.records);
+    }
+
+    /**
+     * Ensures the block's timestamp is after its previous block's, so the time between them is never negative.
+     * The first block has no previous block, so its timestamp is only checked against the clock.
+     */
+    private boolean timestampFollows(HashedBlock<T> block, ChainState<T> prevState) {
+        return block.id == FIRST_BLOCK_ID || block.timestamp > prevState.prevBlockCreatedWhenMs;
+    }
+
+    /** Gets how long the block took to calculate from its timestamp and its previous block's, or 0 for the first block */
+    private long getCalculationTimeMs(HashedBlock<T> block, ChainState<T> prevState) {
+        return block.id == FIRST_BLOCK_ID ? 0 : block.timestamp - prevState.prevBlockCreatedWhenMs;
+    }
+
+    /** Ensures the block rewards its miner with exactly the reward this blockchain gives, so no miner can mint more */
+    private boolean minerRewardIsValid(MinerBlock<T> block) {
+        return getMinerReward(block.minerUserId).equals(block.minerReward);
+    }
+
+    /** Ensures the block's hash is correct, meets the required zero count and follows the previous block's hash. */
+    private boolean blockHashIsValid(HashedBlock<T> block) {
+        // Get the hash of the previous block of that block
+        // No hash will be found if this block is the first block
+        BlockHeader prevBlock = blocks.getHeaderById(block.id - 1);
+        String prevHash = prevBlock == null ? null : prevBlock.hash;
 
         // Ensure the block's previous hash matches the previous block's hash
         if ((prevHash == null && !block.prevBlockHash.equals(FIRST_BLOCK_PREV_HASH))
@@ -227,39 +940,257 @@ public abstract class Blockchain<T extends RecordValue> {
             return false;
         }
 
-        // Ensure the hash calculation was correct
-        if (!block.hash.equals(generateBlockHash(block.prevBlockHash, block.records, block.nonce))) {
+        return blockHashIsCorrect(block);
+    }
+
+    /** Ensures the block's hash meets the required zero count and matches the block's data */
+    private boolean blockHashIsCorrect(HashedBlock<T> block) {
+        // Ensure the hash prefix starts with the required zeros
+        if (!blockHashMatchesPrefixZeroCount(block)) {
             return false;
         }
 
-        return true;
+        // Ensure the hash calculation was correct
+        return block.hash.equals(generateBlockHash(
+                block.prevBlockHash, block.records, block.minerUserId, block.minerReward, block.timestamp, block.nonce
+        ));
+    }
+
+    /**
+     * Builds the proof that the record at the position is in the block with the ID,
+     * which can be checked against the block's records root without the rest of the block.
+     * Returns null if there is no such record.
+     */
+    public MerkleProof getRecordProof(long blockId, int recordPosition) {
+        try (var ignored = readLock.acquire()) {
+            ValidatedBlock<T> block = blocks.getById(blockId);
+            if (block == null || recordPosition < 0 || recordPosition >= block.records.size()) {
+                return null;
+            }
+            return MerkleTree.proveMembership(block.records, recordPosition);
+        }
+    }
+
+    /**
+     * Gets the block with the hash from the canonical chain or a side branch.
+     * Returns null if the block is not known.
+     */
+    public ValidatedBlock<T> getBlockByHash(String hash) {
+        try (var ignored = readLock.acquire()) {
+            ValidatedBlock<T> block = blocks.getByHash(hash);
+            if (block != null) {
+                return block;
+            }
+            SideBranches.SideBlock<T> sideBlock = sideBranches.get(hash);
+            return sideBlock == null ? null : sideBlock.block;
+        }
+    }
+
+    /**
+     * Gets a page of the records the user created or is involved in, oldest first, starting at the cursor.
+     * The rewards of the blocks the user mined are not records, so they are not included,
+     * even though they change the user's balance.
+     * The user's records are looked up in the index, so this takes time proportional to the page size.
+     * Each page is read within the read lock, but a reorg between pages can change what the later pages hold,
+     * and can leave the cursor past the end of the records, which is rejected like a negative cursor.
+     */
+    public RecordPage<T> getUserRecordPage(long userId, long cursor, int pageSize) {
+        if (pageSize <= 0) {
+            throw new IllegalArgumentException("Page size must be positive");
+        }
+        try (var ignored = readLock.acquire()) {
+            int recordCount = recordIndex.getRecordCount(userId);
+            if (cursor < 0 || cursor > recordCount) {
+                throw new IllegalArgumentException(String.format("Cursor %s is not within the user's records", cursor));
+            }
+            int end = (int) Math.min(recordCount, cursor + pageSize);
+            List<LocatedRecord<T>> records = new ArrayList<>(Math.max(0, end - (int) cursor));
+            ValidatedBlock<T> block = null;
+            for (int i = (int) cursor; i < end; i++) {
+                long location = recordIndex.getRecordLocation(userId, i);
+                long blockId = RecordIndex.getBlockId(location);
+                int position = RecordIndex.getPosition(location);
+                // A user's records are in chain order, so records of the same block are next to each other
+                if (block == null || block.id != blockId) {
+                    block = blocks.getById(blockId);
+                }
+                records.add(new LocatedRecord<>(blockId, position, block.records.get(position)));
+            }
+            return new RecordPage<>(records, end < recordCount ? end : RecordPage.END_CURSOR);
+        }
+    }
+
+    /** Streams the records the user created or is involved in, oldest first, a page at a time, without rewards */
+    public Stream<LocatedRecord<T>> streamUserRecords(long userId) {
+        return RecordPage.stream(cursor -> getUserRecordPage(userId, cursor, DEFAULT_RECORD_PAGE_SIZE));
+    }
+
+    /**
+     * Gets a page of the records of the canonical blocks with IDs from the first to the last ID inclusive,
+     * in chain order, starting at the cursor. Blocks without records are skipped using their headers,
+     * so the records of evicted blocks are only read back if they are in the page.
+     * A negative cursor, or one outside the blocks, is rejected.
+     */
+    public RecordPage<T> getBlockRecordPage(long fromBlockId, long toBlockId, long cursor, int pageSize) {
+        if (pageSize <= 0) {
+            throw new IllegalArgumentException("Page size must be positive");
+        }
+        try (var ignored = readLock.acquire()) {
+            boolean isFirstPage = cursor == RecordPage.FIRST_CURSOR;
+            long blockId = isFirstPage ? Math.max(fromBlockId, FIRST_BLOCK_ID) : RecordIndex.getBlockId(cursor);
+            int position = isFirstPage ? 0 : RecordIndex.getPosition(cursor);
+            long lastBlockId = Math.min(toBlockId, getTipBlockId());
+            boolean cursorIsValid = isFirstPage || (cursor > 0
+                    && blockId >= Math.max(fromBlockId, FIRST_BLOCK_ID)
+                    && blockId <= lastBlockId
+                    && position <= blocks.getHeaderById(blockId).recordCount);
+            if (!cursorIsValid) {
+                throw new IllegalArgumentException(String.format("Cursor %s is not within the blocks", cursor));
+            }
+
+            List<LocatedRecord<T>> records = new ArrayList<>();
+            while (blockId <= lastBlockId && records.size() < pageSize) {
+                int recordCount = blocks.getHeaderById(blockId).recordCount;
+                if (position >= recordCount) {
+                    blockId++;
+                    position = 0;
+                    continue;
+                }
+                ValidatedBlock<T> block = blocks.getById(blockId);
+                for (; position < recordCount && records.size() < pageSize; position++) {
+                    records.add(new LocatedRecord<>(blockId, position, block.records.get(position)));
+                }
+            }
+            long nextCursor = blockId <= lastBlockId ? RecordIndex.getLocation(blockId, position) : RecordPage.END_CURSOR;
+            return new RecordPage<>(records, nextCursor);
+        }
+    }
+
+    /** Streams the records of the canonical blocks with IDs from the first to the last ID inclusive, a page at a time */
+    public Stream<LocatedRecord<T>> streamBlockRecords(long fromBlockId, long toBlockId) {
+        return RecordPage.stream(cursor -> getBlockRecordPage(fromBlockId, toBlockId, cursor, DEFAULT_RECORD_PAGE_SIZE));
+    }
+
+    /**
+     * Gets the record with the ID created by the user from the canonical chain,
+     * or returns null if it is not in a block. This takes constant time.
+     */
+    public LocatedRecord<T> getRecord(long creatorUserId, long recordId) {
+        try (var ignored = readLock.acquire()) {
+            long location = recordIndex.getCreatedRecordLocation(creatorUserId, recordId);
+            if (location == RecordIndex.NO_LOCATION) {
+                return null;
+            }
+            long blockId = RecordIndex.getBlockId(location);
+            int position = RecordIndex.getPosition(location);
+            return new LocatedRecord<>(blockId, position, blocks.getById(blockId).records.get(position));
+        }
+    }
+
+    /** Gets the header of the block with the hash from the canonical chain or a side branch, or null if it is not known */
+    public BlockHeader getHeaderByHash(String hash) {
+        try (var ignored = readLock.acquire()) {
+            BlockHeader header = blocks.getHeaderByHash(hash);
+            if (header != null) {
+                return header;
+            }
+            SideBranches.SideBlock<T> sideBlock = sideBranches.get(hash);
+            return sideBlock == null ? null : BlockHeader.fromValidatedBlock(sideBlock.block);
+        }
+    }
+
+    /** Checks whether the block with the hash is in the canonical chain or a side branch */
+    public boolean containsBlock(String hash) {
+        try (var ignored = readLock.acquire()) {
+            return blocks.getHeaderByHash(hash) != null || sideBranches.contains(hash);
+        }
+    }
+
+    /** Gets the ID of the tip of the canonical chain, or 0 if there are no blocks. This does not need any locks. */
+    public long getTipBlockId() {
+        return chainState.get().nextBlockHeader.id - 1;
+    }
+
+    /**
+     * Gets the headers of the canonical blocks starting with the block with the ID, oldest first.
+     * Fewer than the maximum count are returned if the chain ends first.
+     */
+    public List<BlockHeader> getHeaders(long fromBlockId, int maxCount) {
+        try (var ignored = readLock.acquire()) {
+            List<BlockHeader> headers = new ArrayList<>();
+            for (long id = Math.max(fromBlockId, FIRST_BLOCK_ID); headers.size() < maxCount; id++) {
+                BlockHeader header = blocks.getHeaderById(id);
+                if (header == null) break;
+                headers.add(header);
+            }
+            return headers;
+        }
+    }
+
+    /**
+     * Verifies the signatures of the records ahead of submitting their block, which can be done on many threads.
+     * Valid signatures are remembered, so submitting the block does not verify them again.
+     * Returns a boolean stating whether every signature is valid.
+     */
+    public boolean preverifySignatures(List<Record<T>> records) {
+        return signatureVerifier.allSignaturesValid(records);
+    }
+
+    /** Adds the listener, which is called for the records and blocks added from then on */
+    public void addListener(ChainListener<T> listener) {
+        listeners.add(listener);
+    }
+
+    /** Removes the listener */
+    public void removeListener(ChainListener<T> listener) {
+        listeners.remove(listener);
     }
 
     /** States whether this blockchain will allow the addition of a new block */
     public boolean canAddNewBlock() {
-        // Note that a lock is not needed here because once this is true,
-        // it is always true because the block size does not decrease
-        return blocks.size() < 15;
+        // Note that a lock is not needed here because once this is false,
+        // it is always false because the block size does not decrease
+        return blocks.size() < limits.maxBlockCount;
     }
 
-    /** Checks whether all the blocks are valid */
+    /**
+     * Checks whether all the blocks are valid.
+     * Evicted blocks are read back one at a time, so this does not need every block in memory.
+     */
     public boolean blocksAreValid() {
-        try (var ignored = LockHandler.ReadMode(lock)) {
-            return blocks.stream().allMatch(this::blockIsValid);
+        try (var ignored = readLock.acquire()) {
+            // Verify the signatures of many blocks together so the work is spread across their records
+            List<Record<T>> unverifiedRecords = new ArrayList<>();
+            for (int i = 0; i < blocks.size(); i++) {
+                ValidatedBlock<T> block = blocks.get(i);
+                if (!minerRewardIsValid(block) || !blockHashIsValid(block) || !recordsAreAuthorised(block.records)) {
+                    return false;
+                }
+
+                unverifiedRecords.addAll(block.records);
+                if (unverifiedRecords.size() >= VERIFIED_RECORD_BATCH_SIZE || i == blocks.size() - 1) {
+                    if (!signatureVerifier.allSignaturesValid(unverifiedRecords)) {
+                        return false;
+                    }
+                    unverifiedRecords.clear();
+                }
+            }
+            return true;
         }
     }
 
     @Override
     public String toString() {
-        try (var ignored = LockHandler.ReadMode(lock)) {
+        try (var ignored = readLock.acquire()) {
+            BlockData<T> nextBlockHeader = chainState.get().nextBlockHeader;
             StringBuilder builder = new StringBuilder();
             for (int i = 0; i < blocks.size(); i++) {
                 // Get the block and the next block's hash prefix zero count
                 ValidatedBlock<T> block = blocks.get(i);
 
                 int blockNextHashPrefixZeroCount = i == blocks.size() - 1
-                        ? nextBlockData.hashPrefixZeroCount
-                        : blocks.get(i + 1).hashPrefixZeroCount;
+                        ? nextBlockHeader.hashPrefixZeroCount
+                        : blocks.getHeader(i + 1).hashPrefixZeroCount;
 
                 builder.append(block.toString());
                 builder.append(
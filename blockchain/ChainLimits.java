@@ -0,0 +1,45 @@
+package blockchain;
+
+/**
+ * Limits how many blocks a blockchain accepts and how many of its newest blocks keep their records in memory.
+ * The records of older blocks are evicted to the block store and read back when they are needed,
+ * so memory stays flat however long the blockchain runs.
+ */
+public class ChainLimits {
+
+    /** The block count of a blockchain that never stops accepting blocks */
+    public static final long NO_BLOCK_LIMIT = Long.MAX_VALUE;
+
+    /** The retained block count that keeps the records of every block in memory */
+    public static final int RETAIN_ALL_BLOCKS = Integer.MAX_VALUE;
+
+    /** The limits of a short-lived blockchain, which stops at 15 blocks and keeps every block in memory */
+    public static final ChainLimits DEFAULT = new ChainLimits(15, RETAIN_ALL_BLOCKS);
+
+    /** The number of blocks after which no more blocks are accepted */
+    public final long maxBlockCount;
+
+    /** The number of the newest blocks whose records are kept in memory */
+    public final int retainedBlockCount;
+
+    public ChainLimits(long maxBlockCount, int retainedBlockCount) {
+        if (maxBlockCount < 0) {
+            throw new IllegalArgumentException("Max block count must not be negative");
+        }
+        if (retainedBlockCount < 1) {
+            throw new IllegalArgumentException("At least the newest block must be retained");
+        }
+        this.maxBlockCount = maxBlockCount;
+        this.retainedBlockCount = retainedBlockCount;
+    }
+
+    /** Creates limits for a blockchain that runs indefinitely, keeping the records of the newest blocks in memory */
+    public static ChainLimits unbounded(int retainedBlockCount) {
+        return new ChainLimits(NO_BLOCK_LIMIT, retainedBlockCount);
+    }
+
+    /** States whether the records of some blocks are evicted from memory */
+    boolean evictsBlocks() {
+        return retainedBlockCount != RETAIN_ALL_BLOCKS;
+    }
+}
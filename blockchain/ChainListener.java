@@ -0,0 +1,29 @@
+package blockchain;
+
+import dataentities.block.ValidatedBlock;
+import dataentities.block.record.Record;
+import dataentities.block.record.RecordValue;
+
+import java.util.List;
+
+/**
+ * Listens to the records and blocks added to a blockchain.
+ * Listeners are called within the blockchain's locks, so they must hand any slow work off and never block.
+ */
+public interface ChainListener<T extends RecordValue> {
+
+    /** Called with the new records that were added to the next block, in the order they were added */
+    default void onRecordsAdded(List<Record<T>> records) {
+    }
+
+    /**
+     * Called when the block becomes the tip of the canonical chain, whether it was mined or became canonical by a reorg.
+     * The blocks of a reorg are only passed once the whole branch was applied.
+     */
+    default void onBlockAdded(ValidatedBlock<T> block) {
+    }
+
+    /** Called when the block is kept in a side branch, which does not have more work than the canonical chain */
+    default void onSideBlockAdded(ValidatedBlock<T> block) {
+    }
+}
@@ -0,0 +1,166 @@
+package blockchain;
+
+import dataentities.block.BlockHeader;
+import dataentities.user.User;
+import functionality.SignatureScheme;
+import functionality.storage.BlockCodec;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The state derived from the blocks of a blockchain up to and including its last block.
+ * Users are kept without their private keys, which are only ever kept in a user key store.
+ * The headers and store locations of the blocks and the record index are kept too,
+ * so restoring from a snapshot does not decode any of the blocks it includes.
+ */
+class ChainSnapshot {
+
+    /** The version of the encoding, which changes whenever the encoding changes */
+    static final int ENCODING_VERSION = 1;
+
+    /** The ID of the last block included */
+    final long tipBlockId;
+
+    /** The hash of the last block included */
+    final String tipHash;
+
+    /** The number of zeros that the next block's hash must have as a prefix */
+    final int nextHashPrefixZeroCount;
+
+    /** When the last block included was created */
+    final long tipTimestamp;
+
+    /** The ID of the next record of each creator, keyed by the creator's user ID */
+    final Map<Long, Long> nextRecordIdByUserId;
+
+    /** The users at the time of the snapshot, excluding the system user, without their private keys */
+    final List<User> users;
+
+    /** The state of the blockchain's subclass, encoded by the subclass */
+    final byte[] subclassState;
+
+    /** The headers of the blocks up to and including the last block included, in chain order */
+    final List<BlockHeader> headers;
+
+    /** The location of each block in the block store, in the same order as the headers */
+    final long[] blockLocations;
+
+    /** The index of the records of the blocks included */
+    final RecordIndex recordIndex;
+
+    ChainSnapshot(
+            long tipBlockId, String tipHash, int nextHashPrefixZeroCount, long tipTimestamp,
+            Map<Long, Long> nextRecordIdByUserId, List<User> users, byte[] subclassState,
+            List<BlockHeader> headers, long[] blockLocations, RecordIndex recordIndex
+    ) {
+        this.tipBlockId = tipBlockId;
+        this.tipHash = tipHash;
+        this.nextHashPrefixZeroCount = nextHashPrefixZeroCount;
+        this.tipTimestamp = tipTimestamp;
+        this.nextRecordIdByUserId = nextRecordIdByUserId;
+        this.users = users;
+        this.subclassState = subclassState;
+        this.headers = headers;
+        this.blockLocations = blockLocations;
+        this.recordIndex = recordIndex;
+    }
+
+    /** Encodes this snapshot, writing the headers with the codec of the block store */
+    byte[] encode(BlockCodec<?> blockCodec) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream output = new DataOutputStream(bytes);
+        output.writeInt(ENCODING_VERSION);
+        output.writeLong(tipBlockId);
+        output.writeUTF(tipHash);
+        output.writeInt(nextHashPrefixZeroCount);
+        output.writeLong(tipTimestamp);
+
+        output.writeInt(nextRecordIdByUserId.size());
+        for (Map.Entry<Long, Long> nextRecordId : nextRecordIdByUserId.entrySet()) {
+            output.writeLong(nextRecordId.getKey());
+            output.writeLong(nextRecordId.getValue());
+        }
+
+        output.writeInt(users.size());
+        for (User user : users) {
+            output.writeLong(user.id);
+            output.writeUTF(user.name);
+            output.writeByte(user.signatureScheme.id);
+            writeBytes(user.publicKey.getEncoded(), output);
+        }
+
+        writeBytes(subclassState, output);
+
+        output.writeInt(headers.size());
+        for (int i = 0; i < headers.size(); i++) {
+            blockCodec.writeHeader(headers.get(i), output);
+            output.writeLong(blockLocations[i]);
+        }
+        recordIndex.write(output);
+        output.flush();
+        return bytes.toByteArray();
+    }
+
+    /** Decodes a snapshot, or returns null if it was encoded with a different version */
+    static ChainSnapshot decode(byte[] data, BlockCodec<?> blockCodec) throws IOException {
+        DataInputStream input = new DataInputStream(new ByteArrayInputStream(data));
+        if (input.readInt() != ENCODING_VERSION) {
+            return null;
+        }
+        long tipBlockId = input.readLong();
+        String tipHash = input.readUTF();
+        int nextHashPrefixZeroCount = input.readInt();
+        long tipTimestamp = input.readLong();
+
+        int creatorCount = input.readInt();
+        Map<Long, Long> nextRecordIdByUserId = new HashMap<>();
+        for (int i = 0; i < creatorCount; i++) {
+            nextRecordIdByUserId.put(input.readLong(), input.readLong());
+        }
+
+        int userCount = input.readInt();
+        List<User> users = new ArrayList<>(userCount);
+        for (int i = 0; i < userCount; i++) {
+            long id = input.readLong();
+            String name = input.readUTF();
+            SignatureScheme signatureScheme = SignatureScheme.fromId(input.readByte());
+            users.add(new User(id, name, signatureScheme.decodePublicKey(readBytes(input)), null));
+        }
+
+        byte[] subclassState = readBytes(input);
+
+        int blockCount = input.readInt();
+        List<BlockHeader> headers = new ArrayList<>(blockCount);
+        long[] blockLocations = new long[blockCount];
+        for (int i = 0; i < blockCount; i++) {
+            headers.add(blockCodec.readHeader(input));
+            blockLocations[i] = input.readLong();
+        }
+        RecordIndex recordIndex = RecordIndex.read(input);
+        return new ChainSnapshot(
+                tipBlockId, tipHash, nextHashPrefixZeroCount, tipTimestamp, nextRecordIdByUserId, users, subclassState,
+                headers, blockLocations, recordIndex
+        );
+    }
+
+    /** Writes the bytes prefixed with their length */
+    private static void writeBytes(byte[] bytes, DataOutputStream output) throws IOException {
+        output.writeInt(bytes.length);
+        output.write(bytes);
+    }
+
+    /** Reads bytes prefixed with their length */
+    private static byte[] readBytes(DataInputStream input) throws IOException {
+        byte[] bytes = new byte[input.readInt()];
+        input.readFully(bytes);
+        return bytes;
+    }
+}
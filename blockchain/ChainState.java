@@ -0,0 +1,25 @@
+package blockchain;
+
+import dataentities.block.BlockData;
+import dataentities.block.record.RecordValue;
+
+/**
+ * The state of a blockchain's tip. It is immutable, so the whole state is replaced when a block is added
+ * and readers always see a consistent tip, difficulty and creation time without taking any locks.
+ */
+class ChainState<T extends RecordValue> {
+
+    /** The block data of the next block, without its records which are held by the mempool */
+    final BlockData<T> nextBlockHeader;
+
+    /**
+     * When the previous block was created, in epoch milliseconds, as committed to by its hash.
+     * If the chain contains no blocks, then this is when the chain was created.
+     */
+    final long prevBlockCreatedWhenMs;
+
+    ChainState(BlockData<T> nextBlockHeader, long prevBlockCreatedWhenMs) {
+        this.nextBlockHeader = nextBlockHeader;
+        this.prevBlockCreatedWhenMs = prevBlockCreatedWhenMs;
+    }
+}
@@ -1,53 +1,134 @@
 package blockchain;
 
+import dataentities.block.ValidatedBlock;
 import dataentities.block.record.CurrencyTransfer;
 import dataentities.block.record.CurrencyTransferReward;
+import dataentities.block.record.Record;
+import functionality.storage.BlockStore;
+import functionality.storage.SnapshotStore;
 
-import java.util.stream.Stream;
+import java.nio.ByteBuffer;
+import java.util.Map;
 
 public class CurrencyBlockchain extends Blockchain<CurrencyTransfer> {
 
     /** The starting balance for each user */
     static final int STARTING_USER_BALANCE = 100;
 
+    /** The balance changes from the records and rewards of all the blocks in this blockchain */
+    private final CurrencyLedger confirmedLedger = new CurrencyLedger();
+
+    /**
+     * The amounts sent by the records of the next block. Currency received in the next block cannot be spent
+     * until the block is added, so the records are valid in any order, which lets them be added concurrently.
+     */
+    private final CurrencyLedger pendingLedger = new CurrencyLedger();
+
     public CurrencyBlockchain(int blockCalculationSpeedMs) {
         super(blockCalculationSpeedMs);
     }
 
+    public CurrencyBlockchain(int blockCalculationSpeedMs, int signatureVerificationParallelism) {
+        super(blockCalculationSpeedMs, signatureVerificationParallelism);
+    }
+
+    /** Creates a blockchain that persists its blocks in the block store, starting from the blocks already stored */
+    public CurrencyBlockchain(
+            int blockCalculationSpeedMs, int signatureVerificationParallelism, BlockStore<CurrencyTransfer> blockStore
+    ) {
+        this(blockCalculationSpeedMs, signatureVerificationParallelism, blockStore, null);
+    }
+
+    /**
+     * Creates a blockchain that persists its blocks in the block store and snapshots of its state in the
+     * snapshot store, starting from the newest snapshot and the blocks stored after it
+     */
+    public CurrencyBlockchain(
+            int blockCalculationSpeedMs, int signatureVerificationParallelism,
+            BlockStore<CurrencyTransfer> blockStore, SnapshotStore snapshotStore
+    ) {
+        this(blockCalculationSpeedMs, signatureVerificationParallelism, blockStore, snapshotStore, ChainLimits.DEFAULT);
+    }
+
+    /**
+     * Creates a blockchain that persists its blocks and snapshots like above, within the limits.
+     * The records of blocks older than the retained blocks are only kept in the block store.
+     */
+    public CurrencyBlockchain(
+            int blockCalculationSpeedMs, int signatureVerificationParallelism,
+            BlockStore<CurrencyTransfer> blockStore, SnapshotStore snapshotStore, ChainLimits limits
+    ) {
+        super(blockCalculationSpeedMs, signatureVerificationParallelism, blockStore, snapshotStore, limits);
+        restoreBlocks();
+    }
+
     @Override
-    protected boolean canAddRecordValue(CurrencyTransfer transfer) {
+    protected boolean tryApplyRecordValue(CurrencyTransfer transfer) {
         // The record value can be added if none of the users will have negative value afterwards
         // Therefore, we only need to check the user losing money.
-        // Note that if the money comes from the system, then we can accept because the system has infinite money.
-        if(transfer.fromUserId == UserManager.SystemUser.id) return true;
-        long userBalance = getUserBalance(transfer.fromUserId);
-        return userBalance - transfer.amount >= 0;
+        // The confirmed ledger only changes within a write lock, so only the pending change needs to be atomic
+        return pendingLedger.tryApplyDebit(transfer, -getUserBalance(transfer.fromUserId));
+    }
+
+    /** Gets the balance of the user from the blocks of this blockchain, excluding the records of the next block */
+    public long getUserBalance(long userId) {
+        return STARTING_USER_BALANCE + confirmedLedger.getBalanceChange(userId);
     }
 
     @Override
-    protected CurrencyTransfer getMinerReward(long minerUserId) {
-        return new CurrencyTransferReward(UserManager.SystemUser.id, 100, minerUserId);
+    protected void revertRecordValue(CurrencyTransfer transfer) {
+        pendingLedger.revertDebit(transfer);
+    }
+
+    @Override
+    protected void onBlockAdded(ValidatedBlock<CurrencyTransfer> block) {
+        // The block contains exactly the records of the next block, so they are now confirmed
+        for (Record<CurrencyTransfer> record : block.records) {
+            confirmedLedger.applyTransfer(record.value);
+        }
+        confirmedLedger.applyTransfer(block.minerReward);
+        pendingLedger.clear();
+    }
+
+    @Override
+    protected void onBlockRemoved(ValidatedBlock<CurrencyTransfer> block) {
+        // Only the removed block's changes are undone, the rest of the confirmed ledger is left as it is
+        confirmedLedger.revertTransfer(block.minerReward);
+        for (int i = block.records.size() - 1; i >= 0; i--) {
+            confirmedLedger.revertTransfer(block.records.get(i).value);
+        }
+    }
+
+    @Override
+    protected byte[] getSnapshotState() {
+        // The pending ledger is empty straight after a block is added, so only the confirmed ledger is needed
+        Map<Long, Long> balanceChanges = confirmedLedger.getBalanceChanges();
+        ByteBuffer state = ByteBuffer.allocate(Integer.BYTES + balanceChanges.size() * Long.BYTES * 2);
+        state.putInt(balanceChanges.size());
+        for (Map.Entry<Long, Long> balanceChange : balanceChanges.entrySet()) {
+            state.putLong(balanceChange.getKey());
+            state.putLong(balanceChange.getValue());
+        }
+        return state.array();
+    }
+
+    @Override
+    protected void restoreSnapshotState(byte[] state) {
+        ByteBuffer buffer = ByteBuffer.wrap(state);
+        int userCount = buffer.getInt();
+        for (int i = 0; i < userCount; i++) {
+            confirmedLedger.setBalanceChange(buffer.getLong(), buffer.getLong());
+        }
+    }
+
+    @Override
+    protected boolean recordValueIsAuthorised(long creatorUserId, CurrencyTransfer transfer) {
+        // Users can only send their own money. The system only sends money as the miner reward, which is not a record.
+        return transfer.fromUserId == creatorUserId && creatorUserId != UserManager.SystemUser.id;
     }
 
-    /** Gets the currency balance of the user. Must be called within locks. */
-    private long getUserBalance(long userId) {
-        long totalAmountToUser =
-                Stream.concat(
-                    blocks.stream()
-                        .filter(block -> block.minerUserId == userId)
-                        .map(block -> block.minerReward),
-                    blocks.stream()
-                        .flatMap(block -> block.records.stream().map(record -> record.value))
-                        .filter(record -> record.toUserId == userId)
-                ).mapToInt(transfer -> transfer.amount).sum();
-
-        long totalAmountFromUser =
-                blocks.stream()
-                    .flatMap(block -> block.records.stream().map(record -> record.value))
-                    .filter(record -> record.fromUserId == userId)
-                    .mapToInt(record -> record.amount)
-                    .sum();
-
-        return STARTING_USER_BALANCE + totalAmountToUser - totalAmountFromUser;
+    @Override
+    protected CurrencyTransfer getMinerReward(long minerUserId) {
+        return new CurrencyTransferReward(UserManager.SystemUser.id, 100, minerUserId);
     }
 }
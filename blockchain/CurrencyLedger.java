@@ -0,0 +1,65 @@
+package blockchain;
+
+import dataentities.block.record.CurrencyTransfer;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/** Tracks how much each user's currency balance has changed, keyed by their ID */
+class CurrencyLedger {
+
+    /** The change in balance of each user that has sent or received currency */
+    private final Map<Long, Long> balanceChangesByUserId = new ConcurrentHashMap<>();
+
+    /** Applies the transfer to the balances of both users */
+    void applyTransfer(CurrencyTransfer transfer) {
+        balanceChangesByUserId.merge(transfer.fromUserId, (long) -transfer.amount, Long::sum);
+        balanceChangesByUserId.merge(transfer.toUserId, (long) transfer.amount, Long::sum);
+    }
+
+    /**
+     * Atomically applies the transfer to the sending user only, if their balance change stays at or above the given
+     * minimum. Returns a boolean stating whether the transfer was applied.
+     */
+    boolean tryApplyDebit(CurrencyTransfer transfer, long minBalanceChange) {
+        boolean[] applied = new boolean[1];
+        balanceChangesByUserId.compute(transfer.fromUserId, (userId, balanceChange) -> {
+            long currentChange = balanceChange == null ? 0 : balanceChange;
+            applied[0] = currentChange - transfer.amount >= minBalanceChange;
+            return applied[0] ? currentChange - transfer.amount : currentChange;
+        });
+        return applied[0];
+    }
+
+    /** Reverts a transfer that was applied to the sending user only */
+    void revertDebit(CurrencyTransfer transfer) {
+        balanceChangesByUserId.merge(transfer.fromUserId, (long) transfer.amount, Long::sum);
+    }
+
+    /** Reverts a transfer that was applied to the balances of both users */
+    void revertTransfer(CurrencyTransfer transfer) {
+        balanceChangesByUserId.merge(transfer.fromUserId, (long) transfer.amount, Long::sum);
+        balanceChangesByUserId.merge(transfer.toUserId, (long) -transfer.amount, Long::sum);
+    }
+
+    /** Gets the change in balance of the user */
+    long getBalanceChange(long userId) {
+        return balanceChangesByUserId.getOrDefault(userId, 0L);
+    }
+
+    /** Gets a copy of the balance change of each user that has sent or received currency */
+    Map<Long, Long> getBalanceChanges() {
+        return new HashMap<>(balanceChangesByUserId);
+    }
+
+    /** Sets the balance change of the user */
+    void setBalanceChange(long userId, long balanceChange) {
+        balanceChangesByUserId.put(userId, balanceChange);
+    }
+
+    /** Removes all the balance changes */
+    void clear() {
+        balanceChangesByUserId.clear();
+    }
+}
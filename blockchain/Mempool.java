@@ -0,0 +1,276 @@
+package blockchain;
+
+import dataentities.block.record.Record;
+import dataentities.block.record.RecordValue;
+import functionality.MerkleTree;
+import functionality.metrics.Timer;
+
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.RandomAccess;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Holds the records waiting to be mined into the next block.
+ * Records can be added concurrently. Each creator numbers its own records,
+ * so creators do not compete with each other for a single global record ID.
+ */
+class Mempool<T extends RecordValue> {
+
+    /** The ID of the first record of each creator */
+    static final long FIRST_RECORD_ID = 1;
+
+    /** The initial capacity of the record array */
+    private static final int INITIAL_CAPACITY = 64;
+
+    /** The ID of the next record of each creator, keyed by the creator's user ID */
+    private final Map<Long, Long> nextRecordIdByUserId = new ConcurrentHashMap<>();
+
+    /**
+     * The records in the order they were added. Slots below the size are never changed,
+     * so snapshots can share this array. Guarded by this object.
+     */
+    private Object[] records = new Object[INITIAL_CAPACITY];
+
+    /** When each record was added, in nanoseconds, in the same order as the records. Guarded by this object. */
+    private long[] addedWhenNs = new long[INITIAL_CAPACITY];
+
+    /** The number of records. Guarded by this object. */
+    private int size = 0;
+
+    /** Calculates the Merkle root of the records as they are appended. Guarded by this object. */
+    private MerkleTree.Accumulator recordsRootAccumulator = new MerkleTree.Accumulator();
+
+    /** The version of the latest snapshot, which is never reused. Guarded by this object. */
+    private long version = 0;
+
+    /** When the first of the current records was added, in epoch milliseconds. Guarded by this object. */
+    private long firstRecordAddedWhenMs = 0;
+
+    /** The state of the chain that the current records are added on top of. Guarded by this object. */
+    private ChainState<T> chainState;
+
+    /** An immutable snapshot of the current records */
+    private volatile Snapshot<T> snapshot;
+
+    Mempool(ChainState<T> chainState) {
+        this.chainState = chainState;
+        this.snapshot = new Snapshot<>(version, chainState, List.of(), recordsRootAccumulator.root(), 0);
+    }
+
+    /** Gets the ID the creator must use for their next record */
+    long getNextRecordId(long userId) {
+        return nextRecordIdByUserId.getOrDefault(userId, FIRST_RECORD_ID);
+    }
+
+    /**
+     * Claims the record's ID for its creator if it is the creator's next record ID.
+     * Returns a boolean stating whether the ID was claimed.
+     */
+    boolean tryClaimRecordId(Record<T> record) {
+        boolean[] claimed = new boolean[1];
+        nextRecordIdByUserId.compute(record.creatorUserId, (userId, nextRecordId) -> {
+            long expectedRecordId = nextRecordId == null ? FIRST_RECORD_ID : nextRecordId;
+            claimed[0] = record.id == expectedRecordId;
+            return claimed[0] ? expectedRecordId + 1 : expectedRecordId;
+        });
+        return claimed[0];
+    }
+
+    /** Restores the creator's next record ID from a record that is already in the blockchain */
+    void restoreRecordId(Record<T> record) {
+        nextRecordIdByUserId.merge(record.creatorUserId, record.id + 1, Math::max);
+    }
+
+    /**
+     * Rewinds the creator's next record ID to the record's ID, since the record was removed from the mempool
+     * or from the blockchain. Records must be rewound from the newest, or all of a creator's newer records must be.
+     */
+    void rewindRecordId(Record<T> record) {
+        nextRecordIdByUserId.merge(record.creatorUserId, record.id, Math::min);
+    }
+
+    /** Gets a copy of the next record ID of each creator that has added a record */
+    Map<Long, Long> getNextRecordIds() {
+        return new HashMap<>(nextRecordIdByUserId);
+    }
+
+    /** Restores the next record ID of each creator from a snapshot */
+    void restoreNextRecordIds(Map<Long, Long> nextRecordIds) {
+        nextRecordIdByUserId.putAll(nextRecordIds);
+    }
+
+    /** Appends the records, whose IDs must already be claimed. Only safe while no records are added concurrently. */
+    void append(List<Record<T>> newRecords) {
+        if (newRecords.isEmpty()) return;
+
+        append(newRecords, getLeafHashes(newRecords));
+    }
+
+    /**
+     * Claims the ID of each record and appends the records whose IDs were claimed, as one step.
+     * No other records can be appended in between, so each creator's records are appended in the order of their IDs.
+     * The records whose IDs could not be claimed are added to the rejected records. Returns the appended records.
+     */
+    List<Record<T>> tryClaimAndAppend(List<Record<T>> newRecords, List<Record<T>> rejectedRecords) {
+        if (newRecords.isEmpty()) return List.of();
+
+        List<byte[]> leafHashes = getLeafHashes(newRecords);
+        synchronized (this) {
+            List<Record<T>> claimedRecords = new ArrayList<>(newRecords.size());
+            List<byte[]> claimedLeafHashes = new ArrayList<>(newRecords.size());
+            for (int i = 0; i < newRecords.size(); i++) {
+                if (tryClaimRecordId(newRecords.get(i))) {
+                    claimedRecords.add(newRecords.get(i));
+                    claimedLeafHashes.add(leafHashes.get(i));
+                } else {
+                    rejectedRecords.add(newRecords.get(i));
+                }
+            }
+            if (!claimedRecords.isEmpty()) {
+                append(claimedRecords, claimedLeafHashes);
+            }
+            return claimedRecords;
+        }
+    }
+
+    /** Hashes the leaves of the records, which is done before locking so only the tree's root is updated while locked */
+    private static List<byte[]> getLeafHashes(List<? extends Record<?>> records) {
+        List<byte[]> leafHashes = new ArrayList<>(records.size());
+        for (Record<?> record : records) {
+            leafHashes.add(MerkleTree.leafHash(record));
+        }
+        return leafHashes;
+    }
+
+    /** Appends the records with the hashes of their leaves */
+    private synchronized void append(List<Record<T>> newRecords, List<byte[]> leafHashes) {
+        if (size == 0) {
+            firstRecordAddedWhenMs = System.currentTimeMillis();
+        }
+        int newSize = size + newRecords.size();
+        if (newSize > records.length) {
+            // Copy into a new array so existing snapshots are left untouched
+            records = Arrays.copyOf(records, Math.max(newSize, records.length * 2));
+            addedWhenNs = Arrays.copyOf(addedWhenNs, records.length);
+        }
+        long now = System.nanoTime();
+        for (int i = 0; i < newRecords.size(); i++) {
+            addedWhenNs[size] = now;
+            records[size++] = newRecords.get(i);
+            recordsRootAccumulator.append(leafHashes.get(i));
+        }
+        publish(new RecordsView<>(records, size));
+    }
+
+    /** Gets an immutable snapshot of the records in the order they were added */
+    Snapshot<T> getSnapshot() {
+        return snapshot;
+    }
+
+    /** Records how long each of the first records has waited, since they are about to be added in a block */
+    synchronized void recordConfirmationTimes(int confirmedCount, Timer confirmationTimer) {
+        long now = System.nanoTime();
+        for (int i = 0; i < Math.min(confirmedCount, size); i++) {
+            confirmationTimer.record(now - addedWhenNs[i]);
+        }
+    }
+
+    /**
+     * Removes all the records, so records are added on top of the new chain state.
+     * The next record IDs of the creators are kept.
+     */
+    synchronized void clear(ChainState<T> newChainState) {
+        chainState = newChainState;
+        // Use a new array so existing snapshots are left untouched
+        records = new Object[INITIAL_CAPACITY];
+        addedWhenNs = new long[INITIAL_CAPACITY];
+        size = 0;
+        recordsRootAccumulator = new MerkleTree.Accumulator();
+        publish(List.of());
+    }
+
+    /** Publishes a new snapshot version with the records and wakes up the threads waiting for it */
+    private synchronized void publish(List<Record<T>> snapshotRecords) {
+        version++;
+        snapshot = new Snapshot<>(
+                version, chainState, snapshotRecords, recordsRootAccumulator.root(), firstRecordAddedWhenMs
+        );
+        notifyAll();
+    }
+
+    /**
+     * Waits until the snapshot is no longer the known version or until the timeout passes.
+     * Returns the latest snapshot version.
+     */
+    synchronized long awaitChange(long knownVersion, long timeoutMs) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + timeoutMs;
+        for (long remainingMs = timeoutMs; snapshot.version == knownVersion && remainingMs > 0;
+             remainingMs = deadline - System.currentTimeMillis()
+        ) {
+            wait(remainingMs);
+        }
+        return snapshot.version;
+    }
+
+    /** The records of the mempool at one point in time, with the Merkle root of the records */
+    static class Snapshot<T extends RecordValue> {
+
+        /** The version of this snapshot */
+        final long version;
+
+        /** The state of the chain that the records are added on top of */
+        final ChainState<T> chainState;
+
+        /** The records in the order they were added */
+        final List<Record<T>> records;
+
+        /** The root of the Merkle tree of the records */
+        final byte[] recordsRoot;
+
+        /** When the first of the records was added, in epoch milliseconds, or 0 if there are no records */
+        final long firstRecordAddedWhenMs;
+
+        Snapshot(
+                long version, ChainState<T> chainState, List<Record<T>> records,
+                byte[] recordsRoot, long firstRecordAddedWhenMs
+        ) {
+            this.version = version;
+            this.chainState = chainState;
+            this.records = records;
+            this.recordsRoot = recordsRoot;
+            this.firstRecordAddedWhenMs = records.isEmpty() ? 0 : firstRecordAddedWhenMs;
+        }
+    }
+
+    /** An immutable view of the first records of a record array */
+    private static class RecordsView<T extends RecordValue> extends AbstractList<Record<T>> implements RandomAccess {
+
+        private final Object[] records;
+
+        private final int size;
+
+        RecordsView(Object[] records, int size) {
+            this.records = records;
+            this.size = size;
+        }
+
+        @SuppressWarnings("unchecked")
+        @Override
+        public Record<T> get(int index) {
+            if (index < 0 || index >= size) {
+                throw new IndexOutOfBoundsException(index);
+            }
+            return (Record<T>) records[index];
+        }
+
+        @Override
+        public int size() {
+            return size;
+        }
+    }
+}
@@ -5,6 +5,11 @@ import dataentities.block.HashedBlock;
 import dataentities.block.MinerBlock;
 import dataentities.block.record.RecordValue;
 import dataentities.user.User;
+import functionality.BlockHasher;
+import functionality.MiningKernel;
+import functionality.MiningKernels;
+import functionality.metrics.Counter;
+import functionality.metrics.MetricsRegistry;
 
 public class Miner<T extends RecordValue> implements Runnable {
     /** The ID of this block */
@@ -13,50 +18,92 @@ public class Miner<T extends RecordValue> implements Runnable {
     /** The blockchain that this miner mines for */
     private final Blockchain<T> blockchain;
 
-    /** The nonce value to start with */
-    private final int startingNonce;
+    /** Hands out the ranges of nonces that this miner tries */
+    private final MiningCoordinator coordinator;
 
-    /** The amount the nonce value should increase after each attempt */
-    private final int nonceIncrementValue;
+    /** Counts the hashes of this miner */
+    private final Counter hashCounter;
 
-    public Miner(User user, Blockchain<T> blockchain, int startingNonce, int nonceIncrementValue) {
+    /** Counts the hashes of every miner that were wasted on a template which had already changed */
+    private final Counter staleHashCounter;
+
+    public Miner(User user, Blockchain<T> blockchain, MiningCoordinator coordinator) {
         this.user = user;
         this.blockchain = blockchain;
-        this.startingNonce = startingNonce;
-        this.nonceIncrementValue = nonceIncrementValue;
+        this.coordinator = coordinator;
+        this.hashCounter = MetricsRegistry.getDefault().counter("miner." + user.id + ".hashes");
+        this.staleHashCounter = MetricsRegistry.getDefault().counter("miner.hashes.stale");
     }
 
     @Override
     public void run() {
+        BlockTemplate<T> template = null;
         MinerBlock<T> minerBlock = null;
-        long nonce = startingNonce;
-        do {
-            // Get block data. If the block data has changed, then reset the nonce value
-            MinerBlock<T> newBlockData = blockchain.getNextBlockData(user.id);
-            if (minerBlock == null || !newBlockData.equalBlockData(minerBlock)) {
-                minerBlock = newBlockData;
-                nonce = startingNonce;
-            }
+        MiningKernel kernel = null;
+        MiningCoordinator.WorkUnit workUnit = null;
+        long timestamp = 0;
+        byte[] hash = new byte[BlockHasher.HASH_LENGTH];
+        int prevBatchCount = 0;
+        coordinator.register();
+        try {
+            do {
+                // Only get the block data when the template version has changed, then drop the work unit.
+                // Checking the version takes no locks, so stale work is dropped as soon as the template changes.
+                if (template == null || blockchain.getNextBlockTemplateVersion() != template.version) {
+                    // The previous batch was probably hashed after the template changed
+                    staleHashCounter.add(prevBatchCount);
+                    prevBatchCount = 0;
+                    template = blockchain.getNextBlockTemplate(user.id);
+                    minerBlock = template.block;
+                    kernel = MiningKernels.create(minerBlock.prevBlockHash, minerBlock.contentRoot);
+                    timestamp = 0;
+                    workUnit = null;
+                }
 
-            // Only mine if there are messages since that is the whole point of a blockchain.
-            // Usually, the miner would not get any incentive to mine a block with nothing in it
-            // because the whole point of mining is the making the inner data (i.e. messages) more secure
-            if (minerBlock.records.isEmpty()) {
-                continue;
-            }
+                // Only mine if there are messages since that is the whole point of a blockchain.
+                // Usually, the miner would not get any incentive to mine a block with nothing in it
+                // because the whole point of mining is the making the inner data (i.e. messages) more secure.
+                // Rather than spinning, park until the template changes or has waited long enough to be mined.
+                long fillWaitMs = coordinator.getFillWaitMs(template);
+                if (fillWaitMs > 0) {
+                    blockchain.awaitNextBlockTemplateChange(template.version, fillWaitMs);
+                    continue;
+                }
 
-            // Calculate the hash and the miner block
-            String hash = Blockchain.generateBlockHash(minerBlock.prevBlockHash, minerBlock.records, nonce);
-            HashedBlock<T> block = HashedBlock.fromMinerBlock(minerBlock, nonce, hash);
+                if (workUnit == null || workUnit.isFinished()) {
+                    workUnit = coordinator.nextWorkUnit(template.version);
+                }
+                // The hash commits to when the block was mined, so keep the timestamp current between batches.
+                // It must also be after the previous block's, even if the previous miner's clock was ahead.
+                long now = Math.max(System.currentTimeMillis(), template.minTimestamp);
+                if (now != timestamp) {
+                    timestamp = now;
+                    kernel.setTimestamp(timestamp);
+                }
 
-            // Add the block if the hash matches the zero count requirement
-            if (Blockchain.blockHashMatchesPrefixZeroCount(block)) {
-                // Try to add the block
-                blockchain.tryAddBlock(block);
-            }
+                // Search a batch of nonces, one for each lane of the kernel
+                long firstNonce = workUnit.getNextNonce();
+                int count = workUnit.takeNonces(kernel.getLaneCount());
+                int match = kernel.findNonce(firstNonce, count, minerBlock.hashPrefixZeroCount);
+                hashCounter.add(count);
+                prevBatchCount = count;
 
-            nonce += nonceIncrementValue;
+                // Only create and add the block if a hash matches the zero count requirement
+                if (match >= 0) {
+                    long nonce = firstNonce + match;
+                    kernel.hash(nonce, hash);
+                    if (blockchain.tryAddBlock(HashedBlock.fromMinerBlock(minerBlock, timestamp, nonce, BlockHasher.encodeHash(hash)))) {
+                        // The template changed because of this miner's own block
+                        prevBatchCount = 0;
+                    }
+                }
+            }
+            while (blockchain.canAddNewBlock());
+        } catch (InterruptedException e) {
+            // The miner is being shut down, so stop mining
+            Thread.currentThread().interrupt();
+        } finally {
+            coordinator.unregister(workUnit);
         }
-        while (blockchain.canAddNewBlock());
     }
 }
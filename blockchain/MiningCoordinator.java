@@ -0,0 +1,157 @@
+package blockchain;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Hands out contiguous ranges of nonces to the miners of a template, so no nonce is hashed twice.
+ * Miners can join at any time and simply claim the next range. A miner that leaves returns the rest of its range
+ * for another miner to finish. When the template changes, all outstanding ranges are cancelled.
+ * It also decides when a template has enough records to be worth mining.
+ */
+public class MiningCoordinator {
+
+    /** The default number of nonces in each work unit */
+    public static final long DEFAULT_WORK_UNIT_SIZE = 1 << 16;
+
+    /** How long an idle miner waits for new records before checking whether the blockchain is still open */
+    static final long IDLE_WAIT_MS = 100;
+
+    /** The number of nonces in each work unit */
+    private final long workUnitSize;
+
+    /** The number of records a template needs before it is mined straight away */
+    private final int minBlockFill;
+
+    /** How long a template with fewer records than the minimum waits before it is mined anyway */
+    private final long maxFillWaitMs;
+
+    /** The work of the latest template version */
+    private final AtomicReference<Round> round = new AtomicReference<>(new Round(-1));
+
+    /** The number of registered miners */
+    private final AtomicInteger workerCount = new AtomicInteger();
+
+    public MiningCoordinator() {
+        this(DEFAULT_WORK_UNIT_SIZE, 1, 0);
+    }
+
+    public MiningCoordinator(long workUnitSize, int minBlockFill, long maxFillWaitMs) {
+        this.workUnitSize = workUnitSize;
+        this.minBlockFill = Math.max(1, minBlockFill);
+        this.maxFillWaitMs = maxFillWaitMs;
+    }
+
+    /**
+     * Gets how long miners should wait for more records before mining the template, or 0 to mine it now.
+     * Templates without records are never mined, so miners wait for records to arrive.
+     */
+    public long getFillWaitMs(BlockTemplate<?> template) {
+        if (template.block.records.isEmpty()) {
+            return IDLE_WAIT_MS;
+        }
+        if (template.block.records.size() >= minBlockFill) {
+            return 0;
+        }
+        long waitMs = template.firstRecordAddedWhenMs + maxFillWaitMs - System.currentTimeMillis();
+        return Math.max(0, waitMs);
+    }
+
+    /** Registers a miner that will ask for work units */
+    public void register() {
+        workerCount.incrementAndGet();
+    }
+
+    /** Unregisters a miner, returning the rest of its unfinished work unit so another miner can finish it */
+    public void unregister(WorkUnit unfinishedWorkUnit) {
+        workerCount.decrementAndGet();
+        if (unfinishedWorkUnit != null && !unfinishedWorkUnit.isFinished() && !isCancelled(unfinishedWorkUnit)) {
+            round.get().returnedWorkUnits.add(
+                    new WorkUnit(unfinishedWorkUnit.templateVersion, unfinishedWorkUnit.nextNonce, unfinishedWorkUnit.end)
+            );
+        }
+    }
+
+    /** Returns the number of registered miners */
+    public int getWorkerCount() {
+        return workerCount.get();
+    }
+
+    /** Gets the next work unit for the template version, cancelling the work of any older version */
+    public WorkUnit nextWorkUnit(long templateVersion) {
+        Round currentRound = round.get();
+        while (currentRound.templateVersion < templateVersion) {
+            Round newRound = new Round(templateVersion);
+            currentRound = round.compareAndSet(currentRound, newRound) ? newRound : round.get();
+        }
+
+        WorkUnit returnedWorkUnit = currentRound.returnedWorkUnits.poll();
+        if (returnedWorkUnit != null && returnedWorkUnit.templateVersion == templateVersion) {
+            return returnedWorkUnit;
+        }
+
+        long start = currentRound.nextNonce.getAndAdd(workUnitSize);
+        return new WorkUnit(templateVersion, start, start + workUnitSize);
+    }
+
+    /** States whether the work unit belongs to a template that has been replaced */
+    public boolean isCancelled(WorkUnit workUnit) {
+        return workUnit.templateVersion != round.get().templateVersion;
+    }
+
+    /** The work handed out for one template version */
+    private static class Round {
+
+        /** The template version being mined */
+        final long templateVersion;
+
+        /** The first nonce that has not been handed out */
+        final AtomicLong nextNonce = new AtomicLong();
+
+        /** The unfinished work units returned by miners that left */
+        final Queue<WorkUnit> returnedWorkUnits = new ConcurrentLinkedQueue<>();
+
+        Round(long templateVersion) {
+            this.templateVersion = templateVersion;
+        }
+    }
+
+    /** A contiguous range of nonces to try for a template version. It is used by one miner at a time. */
+    public static class WorkUnit {
+
+        /** The template version that this work is for */
+        public final long templateVersion;
+
+        /** The nonce after the last nonce of this work unit */
+        public final long end;
+
+        /** The next nonce to try */
+        private long nextNonce;
+
+        WorkUnit(long templateVersion, long start, long end) {
+            this.templateVersion = templateVersion;
+            this.nextNonce = start;
+            this.end = end;
+        }
+
+        /** States whether every nonce has been taken */
+        public boolean isFinished() {
+            return nextNonce >= end;
+        }
+
+        /** Returns the next nonce to try */
+        public long getNextNonce() {
+            return nextNonce;
+        }
+
+        /** Takes up to the maximum count of the next nonces to try, returning how many were taken */
+        public int takeNonces(int maxCount) {
+            int count = (int) Math.min(maxCount, end - nextNonce);
+            nextNonce += count;
+            return count;
+        }
+    }
+}
@@ -0,0 +1,186 @@
+package blockchain;
+
+import dataentities.block.ValidatedBlock;
+import dataentities.block.record.Record;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Indexes the records of the canonical chain by the users they involve, so the records of a user are found
+ * without scanning the blocks. Each record is kept as its location, made of its block ID and its position in the block.
+ * Blocks are only ever added on top and removed from the top, so each user's locations stay in chain order.
+ * Miner rewards are not records and have no location, so they are not indexed.
+ * The index must be used within the blockchain's locks.
+ */
+class RecordIndex {
+
+    /** The location of a record that is not in the index */
+    static final long NO_LOCATION = -1;
+
+    /** The locations of the records of each user, keyed by the user ID */
+    private final Map<Long, UserRecords> recordsByUserId = new HashMap<>();
+
+    /** The ID of the newest indexed block, or 0 if there is none */
+    private long lastBlockId = 0;
+
+    /** Indexes the records of the block, which must follow the last indexed block. A block already indexed is ignored. */
+    void add(ValidatedBlock<?> block) {
+        if (block.id <= lastBlockId) return;
+
+        for (int position = 0; position < block.records.size(); position++) {
+            Record<?> record = block.records.get(position);
+            long location = getLocation(block.id, position);
+            UserRecords creatorRecords = recordsByUserId.computeIfAbsent(record.creatorUserId, id -> new UserRecords());
+            creatorRecords.records.add(location);
+            creatorRecords.createdRecords.add(location);
+            for (long userId : getOtherInvolvedUserIds(record)) {
+                recordsByUserId.computeIfAbsent(userId, id -> new UserRecords()).records.add(location);
+            }
+        }
+        lastBlockId = block.id;
+    }
+
+    /** Removes the records of the block, which must be the last indexed block */
+    void remove(ValidatedBlock<?> block) {
+        if (block.id != lastBlockId) {
+            throw new IllegalStateException(String.format("Block %s is not the last indexed block", block.id));
+        }
+
+        // The block's records are the last of each of their users, so they are removed in reverse
+        for (int position = block.records.size() - 1; position >= 0; position--) {
+            Record<?> record = block.records.get(position);
+            for (long userId : getOtherInvolvedUserIds(record)) {
+                recordsByUserId.get(userId).records.removeLast();
+            }
+            UserRecords creatorRecords = recordsByUserId.get(record.creatorUserId);
+            creatorRecords.records.removeLast();
+            creatorRecords.createdRecords.removeLast();
+        }
+        lastBlockId = block.id - 1;
+    }
+
+    /** Writes the index, so it can be read back without decoding the blocks it indexes */
+    void write(DataOutput output) throws IOException {
+        output.writeLong(lastBlockId);
+        output.writeInt(recordsByUserId.size());
+        for (Map.Entry<Long, UserRecords> userRecords : recordsByUserId.entrySet()) {
+            output.writeLong(userRecords.getKey());
+            userRecords.getValue().records.write(output);
+            userRecords.getValue().createdRecords.write(output);
+        }
+    }
+
+    /** Reads an index that was written by write */
+    static RecordIndex read(DataInput input) throws IOException {
+        RecordIndex index = new RecordIndex();
+        index.lastBlockId = input.readLong();
+        int userCount = input.readInt();
+        for (int i = 0; i < userCount; i++) {
+            long userId = input.readLong();
+            UserRecords userRecords = new UserRecords();
+            userRecords.records.read(input);
+            userRecords.createdRecords.read(input);
+            index.recordsByUserId.put(userId, userRecords);
+        }
+        return index;
+    }
+
+    /** Gets the IDs of the users the record involves apart from its creator, without repeats */
+    private static long[] getOtherInvolvedUserIds(Record<?> record) {
+        return Arrays.stream(record.value.getInvolvedUserIds())
+                .filter(userId -> userId != record.creatorUserId)
+                .distinct()
+                .toArray();
+    }
+
+    /** Gets the number of records the user created or is involved in */
+    int getRecordCount(long userId) {
+        UserRecords userRecords = recordsByUserId.get(userId);
+        return userRecords == null ? 0 : userRecords.records.size;
+    }
+
+    /** Gets the location of the user's record at the index, counting the records the user created or is involved in */
+    long getRecordLocation(long userId, int index) {
+        return recordsByUserId.get(userId).records.get(index);
+    }
+
+    /**
+     * Gets the location of the record with the ID created by the user, or NO_LOCATION if it is not in the chain.
+     * A creator's records are numbered in sequence from the first record ID, so the ID is the index of the record.
+     */
+    long getCreatedRecordLocation(long creatorUserId, long recordId) {
+        UserRecords userRecords = recordsByUserId.get(creatorUserId);
+        long index = recordId - Mempool.FIRST_RECORD_ID;
+        if (userRecords == null || index < 0 || index >= userRecords.createdRecords.size) {
+            return NO_LOCATION;
+        }
+        return userRecords.createdRecords.get((int) index);
+    }
+
+    /** Gets the location of the record at the position of the block */
+    static long getLocation(long blockId, int position) {
+        return blockId << Integer.SIZE | position;
+    }
+
+    static long getBlockId(long location) {
+        return location >>> Integer.SIZE;
+    }
+
+    static int getPosition(long location) {
+        return (int) location;
+    }
+
+    /** The locations of the records of a user, in chain order */
+    private static class UserRecords {
+
+        /** The records the user created or is involved in */
+        final LocationList records = new LocationList();
+
+        /** The records the user created, whose indexes are their record IDs less the first record ID */
+        final LocationList createdRecords = new LocationList();
+    }
+
+    /** A growable list of locations, which stores them without boxing */
+    private static class LocationList {
+
+        private long[] locations = new long[4];
+
+        private int size = 0;
+
+        void add(long location) {
+            if (size == locations.length) {
+                locations = Arrays.copyOf(locations, size * 2);
+            }
+            locations[size++] = location;
+        }
+
+        void removeLast() {
+            size--;
+        }
+
+        long get(int index) {
+            return locations[index];
+        }
+
+        void write(DataOutput output) throws IOException {
+            output.writeInt(size);
+            for (int i = 0; i < size; i++) {
+                output.writeLong(locations[i]);
+            }
+        }
+
+        /** Replaces the locations with those written by write */
+        void read(DataInput input) throws IOException {
+            size = input.readInt();
+            locations = new long[Math.max(size, 4)];
+            for (int i = 0; i < size; i++) {
+                locations[i] = input.readLong();
+            }
+        }
+    }
+}
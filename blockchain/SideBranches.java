@@ -0,0 +1,94 @@
+package blockchain;
+
+import dataentities.block.ValidatedBlock;
+import dataentities.block.record.RecordValue;
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Holds the validated blocks that are not in the canonical chain, keyed by their hash.
+ * Together with the canonical chain, they form a tree of competing branches.
+ * A branch becomes canonical once its total work is more than the canonical chain's.
+ * Blocks that fall too far behind the tip are dropped, so the side branches stay small.
+ */
+class SideBranches<T extends RecordValue> {
+
+    /** The number of blocks behind the tip that a side branch can start from */
+    static final int MAX_FORK_DEPTH = 100;
+
+    /** The side blocks keyed by their hash */
+    private final Map<String, SideBlock<T>> blocksByHash = new HashMap<>();
+
+    /** Adds the block with the total work of its branch up to and including the block */
+    void add(ValidatedBlock<T> block, BigInteger cumulativeWork) {
+        blocksByHash.put(block.hash, new SideBlock<>(block, cumulativeWork));
+    }
+
+    /** Gets the side block with the hash, or null if there is no such block */
+    SideBlock<T> get(String hash) {
+        return blocksByHash.get(hash);
+    }
+
+    /** States whether there is a side block with the hash */
+    boolean contains(String hash) {
+        return blocksByHash.containsKey(hash);
+    }
+
+    /** Removes the side block with the hash, e.g. because it joined the canonical chain */
+    void remove(String hash) {
+        blocksByHash.remove(hash);
+    }
+
+    /** Removes the side block with the hash and every block built on top of it */
+    void removeWithDescendants(String hash) {
+        List<String> removedHashes = new ArrayList<>(List.of(hash));
+        for (int i = 0; i < removedHashes.size(); i++) {
+            blocksByHash.remove(removedHashes.get(i));
+            for (SideBlock<T> sideBlock : blocksByHash.values()) {
+                if (sideBlock.block.prevBlockHash.equals(removedHashes.get(i))) {
+                    removedHashes.add(sideBlock.block.hash);
+                }
+            }
+        }
+    }
+
+    /**
+     * Removes the side branches that fork too far behind the tip with the ID, with every block built on top of them.
+     * A branch is judged by its first block, since a long branch from an old fork point can never be reorganised onto.
+     */
+    void prune(long tipBlockId) {
+        Map<String, List<String>> childHashesByHash = new HashMap<>();
+        List<String> removedHashes = new ArrayList<>();
+        for (SideBlock<T> sideBlock : blocksByHash.values()) {
+            String prevBlockHash = sideBlock.block.prevBlockHash;
+            if (blocksByHash.containsKey(prevBlockHash)) {
+                childHashesByHash.computeIfAbsent(prevBlockHash, hash -> new ArrayList<>()).add(sideBlock.block.hash);
+            } else if (sideBlock.block.id <= tipBlockId - MAX_FORK_DEPTH) {
+                removedHashes.add(sideBlock.block.hash);
+            }
+        }
+
+        for (int i = 0; i < removedHashes.size(); i++) {
+            blocksByHash.remove(removedHashes.get(i));
+            removedHashes.addAll(childHashesByHash.getOrDefault(removedHashes.get(i), List.of()));
+        }
+    }
+
+    /** A block of a side branch with the total work of its branch */
+    static class SideBlock<T extends RecordValue> {
+
+        final ValidatedBlock<T> block;
+
+        /** The total work of the branch up to and including this block */
+        final BigInteger cumulativeWork;
+
+        SideBlock(ValidatedBlock<T> block, BigInteger cumulativeWork) {
+            this.block = block;
+            this.cumulativeWork = cumulativeWork;
+        }
+    }
+}
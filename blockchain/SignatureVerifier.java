@@ -0,0 +1,82 @@
+package blockchain;
+
+import dataentities.block.record.Record;
+import dataentities.user.User;
+import functionality.metrics.Counter;
+import functionality.metrics.MetricsRegistry;
+import functionality.metrics.Timer;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Verifies the signatures of records in parallel, stopping at the first invalid signature.
+ * A signature is only valid if it was made with the registered key of the record's creator.
+ * Verified records are remembered, so each signature only needs to be verified once.
+ */
+class SignatureVerifier {
+
+    /** Lists smaller than this are verified on the calling thread since splitting them costs more than it saves */
+    static final int MIN_PARALLEL_RECORD_COUNT = 4;
+
+    /** The default number of verified records to remember */
+    static final int DEFAULT_CACHE_CAPACITY = 100_000;
+
+    /** The pool that the signatures are verified on */
+    private final ForkJoinPool pool;
+
+    /** The records that have already been verified */
+    private final VerifiedSignatureCache cache;
+
+    /** Times how long each signature takes to verify. Verifying costs far more than timing, so every one is timed. */
+    private final Timer verifyTimer = MetricsRegistry.getDefault().timer("signatures.verify", 1);
+
+    /** Counts the signatures that did not need verifying because they were already verified */
+    private final Counter cacheHitCounter = MetricsRegistry.getDefault().counter("signatures.cache.hits");
+
+    SignatureVerifier(int parallelism, int cacheCapacity) {
+        this.pool = new ForkJoinPool(parallelism);
+        this.cache = new VerifiedSignatureCache(cacheCapacity);
+    }
+
+    /** Checks whether every record has a valid signature */
+    boolean allSignaturesValid(List<? extends Record<?>> records) {
+        if (records.size() < MIN_PARALLEL_RECORD_COUNT) {
+            return records.stream().allMatch(this::signatureIsValid);
+        }
+
+        // Parallel streams run on the pool of the task that starts them,
+        // and allMatch stops splitting and verifying once a signature is invalid
+        return pool.submit(() -> records.parallelStream().allMatch(this::signatureIsValid)).join();
+    }
+
+    /** Checks whether the record has a valid signature, only verifying it if it has not been verified before */
+    boolean signatureIsValid(Record<?> record) {
+        if (!isSignedByCreator(record)) {
+            return false;
+        }
+        ByteBuffer key = VerifiedSignatureCache.getKey(record);
+        if (cache.contains(key)) {
+            cacheHitCounter.increment();
+            return true;
+        }
+        long start = verifyTimer.start();
+        boolean isValid = record.hasValidSignature();
+        verifyTimer.stop(start);
+        if (!isValid) {
+            return false;
+        }
+        cache.add(key);
+        return true;
+    }
+
+    /** Checks whether the record's key is the registered key of its creator, who cannot be the system */
+    private static boolean isSignedByCreator(Record<?> record) {
+        if (record.creatorUserId == UserManager.SystemUser.id) {
+            return false;
+        }
+        User creator = UserManager.getUser(record.creatorUserId);
+        return creator != null && creator.publicKey.equals(record.publicKey);
+    }
+}
@@ -1,14 +1,21 @@
 package blockchain;
 
-import dataentities.concurrency.LockHandler;
 import dataentities.user.User;
 import functionality.Encryption;
+import functionality.storage.UserKeyStore;
 
 import java.security.KeyPair;
-import java.util.HashMap;
-import java.util.Map;
-import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.security.PrivateKey;
+import java.security.PublicKey;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
 
+/**
+ * Creates and finds the users. Finding a user never locks, and keys are taken from a pool that is
+ * filled in the background, so creating users does not hold up anything else.
+ * With a key store, the private keys of new users are stored there so restored users can sign again.
+ */
 public class UserManager {
 
     /** The user of the system. This is not a user of any person. */
@@ -17,14 +24,14 @@ public class UserManager {
     /** The starting user ID */
     public static final int minUserId = 1;
 
-    /** The lock that handles the access of user data */
-    private static final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
-
     /** Contains all the users, keyed by their ID */
-    private static final Map<Long, User> usersById = new HashMap<>();
+    private static final UserRegistry users = new UserRegistry();
 
     /** Tracks the ID of the next user */
-    private static volatile long nextUserId = minUserId;
+    private static final AtomicLong nextUserId = new AtomicLong(minUserId);
+
+    /** Stores the private keys of the users, or null if they are only kept in memory */
+    private static volatile UserKeyStore keyStore;
 
     static {
         // Instantiate system user
@@ -32,35 +39,81 @@ public class UserManager {
         String name = "System";
         KeyPair keyPair = Encryption.generateKeys();
         SystemUser = new User(id, name, keyPair);
-        usersById.put(id, SystemUser);
+        users.put(SystemUser);
     }
 
     /** Generates a new user using random data */
     public static User generateNewUser() {
-        try (var ignored = LockHandler.WriteMode(lock)) {
-            long id = nextUserId;
-            String name = String.format("user%s", id);
-            KeyPair keyPair = Encryption.generateKeys();
-
-            User user = new User(id, name, keyPair);
-            usersById.put(user.id, user);
-
-            nextUserId++;
-            return user;
+        KeyPair keyPair = Encryption.generateKeys();
+        long id = nextUserId.getAndIncrement();
+        User user = new User(id, getUserName(id), keyPair);
+        UserKeyStore currentKeyStore = keyStore;
+        if (currentKeyStore != null) {
+            currentKeyStore.write(user);
         }
+        users.put(user);
+        return user;
+    }
+
+    /** Stores the private keys of the users generated from now on in the key store, and restores them from it */
+    public static void useKeyStore(UserKeyStore userKeyStore) {
+        keyStore = userKeyStore;
     }
 
     /** Gets the user with the given ID */
     public static User getUser(long userId) {
-        try (var ignored = LockHandler.ReadMode(lock)) {
-            return usersById.get(userId);
+        return users.get(userId);
+    }
+
+    /** Gets all the users, excluding the system user */
+    public static List<User> getUsersExcludingSystem() {
+        List<User> usersExcludingSystem = new ArrayList<>(users.size());
+        users.forEach(user -> {
+            if (user.id != SystemUser.id) {
+                usersExcludingSystem.add(user);
+            }
+        });
+        return usersExcludingSystem;
+    }
+
+    /**
+     * Restores a user that was generated before. Users must be restored before any new users are generated.
+     * A user restored without their private key gets it from the key store, if it holds it.
+     */
+    public static void restoreUser(User user) {
+        User existingUser = users.get(user.id);
+        if (user.privateKey == null && existingUser != null && existingUser.publicKey.equals(user.publicKey)) {
+            // The user is already held with their private key
+            return;
+        }
+        UserKeyStore currentKeyStore = keyStore;
+        if (user.privateKey == null && currentKeyStore != null) {
+            PrivateKey privateKey = currentKeyStore.read(user.id);
+            if (privateKey != null) {
+                user = new User(user.id, user.name, user.publicKey, privateKey);
+            }
+        }
+        users.put(user);
+        nextUserId.accumulateAndGet(user.id + 1, Math::max);
+    }
+
+    /**
+     * Restores a user that was generated before from the public key their records were signed with,
+     * unless the user is already known. Users must be restored before any new users are generated.
+     */
+    public static void restoreUser(long userId, PublicKey publicKey) {
+        if (users.get(userId) == null) {
+            restoreUser(new User(userId, getUserName(userId), publicKey, null));
         }
     }
 
     /** Returns the number of users */
     public static int getUserCountExcludingSystem() {
-        try (var ignored = LockHandler.ReadMode(lock)) {
-            return usersById.size() - 1;
-        }
+        return users.size() - 1;
+    }
+
+    /** Gets the name of the user with the ID */
+    private static String getUserName(long userId) {
+        return String.format("user%s", userId);
     }
 }
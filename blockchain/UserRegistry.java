@@ -0,0 +1,113 @@
+package blockchain;
+
+import dataentities.user.User;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.Consumer;
+
+/**
+ * Holds the users keyed by their ID. User IDs are handed out in sequence, so users are kept in fixed-size chunks
+ * indexed by the ID, which are looked up without locking or boxing the ID.
+ * Only adding a chunk takes a lock, and that happens once for every chunk of users.
+ * Users with IDs below zero, like the system user, are kept in a small map instead.
+ */
+class UserRegistry {
+
+    /** The number of bits of a user ID that index into its chunk */
+    private static final int CHUNK_BITS = 10;
+
+    /** The number of users in each chunk */
+    private static final int CHUNK_SIZE = 1 << CHUNK_BITS;
+
+    /** The chunks of users. The array is replaced when it grows, so readers never see it change. */
+    private volatile AtomicReferenceArray<User>[] chunks = newChunks(1);
+
+    /** The users whose IDs are below zero */
+    private final Map<Long, User> negativeIdUsers = new ConcurrentHashMap<>();
+
+    /** The number of users */
+    private final AtomicInteger size = new AtomicInteger();
+
+    /** Gets the user with the ID, or null if there is none */
+    User get(long userId) {
+        if (userId < 0) {
+            return negativeIdUsers.get(userId);
+        }
+        AtomicReferenceArray<User>[] currentChunks = chunks;
+        long chunkIndex = userId >>> CHUNK_BITS;
+        if (chunkIndex >= currentChunks.length) {
+            return null;
+        }
+        AtomicReferenceArray<User> chunk = currentChunks[(int) chunkIndex];
+        return chunk == null ? null : chunk.get((int) (userId & (CHUNK_SIZE - 1)));
+    }
+
+    /** Adds the user, replacing any user with the same ID */
+    void put(User user) {
+        User previous = user.id < 0
+                ? negativeIdUsers.put(user.id, user)
+                : getChunk(user.id).getAndSet((int) (user.id & (CHUNK_SIZE - 1)), user);
+        if (previous == null) {
+            size.incrementAndGet();
+        }
+    }
+
+    /** Returns the number of users */
+    int size() {
+        return size.get();
+    }
+
+    /** Passes every user to the action */
+    void forEach(Consumer<User> action) {
+        negativeIdUsers.values().forEach(action);
+        for (AtomicReferenceArray<User> chunk : chunks) {
+            if (chunk == null) continue;
+            for (int i = 0; i < chunk.length(); i++) {
+                User user = chunk.get(i);
+                if (user != null) {
+                    action.accept(user);
+                }
+            }
+        }
+    }
+
+    /** Gets the chunk that holds the user ID, adding it if it does not exist */
+    private AtomicReferenceArray<User> getChunk(long userId) {
+        long chunkIndex = userId >>> CHUNK_BITS;
+        if (chunkIndex >= Integer.MAX_VALUE) {
+            throw new IllegalArgumentException(String.format("User ID %s is too large", userId));
+        }
+        AtomicReferenceArray<User>[] currentChunks = chunks;
+        if (chunkIndex < currentChunks.length && currentChunks[(int) chunkIndex] != null) {
+            return currentChunks[(int) chunkIndex];
+        }
+        return addChunk((int) chunkIndex);
+    }
+
+    /** Adds the chunk with the index, growing the chunk array if needed */
+    private synchronized AtomicReferenceArray<User> addChunk(int chunkIndex) {
+        AtomicReferenceArray<User>[] currentChunks = chunks;
+        if (chunkIndex >= currentChunks.length) {
+            AtomicReferenceArray<User>[] grownChunks = newChunks(Math.max(chunkIndex + 1, currentChunks.length * 2));
+            System.arraycopy(currentChunks, 0, grownChunks, 0, currentChunks.length);
+            currentChunks = grownChunks;
+        }
+        if (currentChunks[chunkIndex] == null) {
+            // Chunks are only ever added, so the array is copied before publishing the new chunk in it
+            if (currentChunks == chunks) {
+                currentChunks = currentChunks.clone();
+            }
+            currentChunks[chunkIndex] = new AtomicReferenceArray<>(CHUNK_SIZE);
+        }
+        chunks = currentChunks;
+        return currentChunks[chunkIndex];
+    }
+
+    @SuppressWarnings("unchecked")
+    private static AtomicReferenceArray<User>[] newChunks(int length) {
+        return (AtomicReferenceArray<User>[]) new AtomicReferenceArray<?>[length];
+    }
+}
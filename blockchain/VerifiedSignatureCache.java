@@ -0,0 +1,79 @@
+package blockchain;
+
+import dataentities.block.record.Record;
+import dataentities.exception.BlockchainException;
+
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Remembers the records whose signatures have already been verified, keyed by a digest of the record.
+ * The cache is split into segments, each evicting its least recently used records once it is full.
+ */
+class VerifiedSignatureCache {
+
+    /** The number of segments, so threads checking different records rarely wait for each other */
+    static final int SEGMENT_COUNT = 16;
+
+    /** The algorithm used for the record digests */
+    final static String digestAlgorithm = "SHA-256";
+
+    /** The segments, each guarded by itself */
+    private final Map<ByteBuffer, Boolean>[] segments;
+
+    @SuppressWarnings("unchecked")
+    VerifiedSignatureCache(int capacity) {
+        int segmentCapacity = Math.max(1, capacity / SEGMENT_COUNT);
+        segments = (Map<ByteBuffer, Boolean>[]) new Map<?, ?>[SEGMENT_COUNT];
+        for (int i = 0; i < SEGMENT_COUNT; i++) {
+            segments[i] = new LinkedHashMap<>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<ByteBuffer, Boolean> eldest) {
+                    return size() > segmentCapacity;
+                }
+            };
+        }
+    }
+
+    /** Gets the key of the record, which covers everything its signature depends on */
+    static ByteBuffer getKey(Record<?> record) {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance(digestAlgorithm);
+        } catch (NoSuchAlgorithmException e) {
+            throw new BlockchainException("Invalid digest algorithm was found");
+        }
+        byte[] signatureData = Record.getSignatureData(record.creatorUserId, record.value, record.id);
+        digest.update(ByteBuffer.allocate(Integer.BYTES).putInt(signatureData.length).array());
+        digest.update(signatureData);
+        digest.update(ByteBuffer.allocate(Integer.BYTES).putInt(record.signature.length).array());
+        digest.update(record.signature);
+        digest.update(record.signatureScheme.id);
+        digest.update(record.publicKey.getEncoded());
+        return ByteBuffer.wrap(digest.digest());
+    }
+
+    /** States whether the record with the key has a verified signature */
+    boolean contains(ByteBuffer key) {
+        Map<ByteBuffer, Boolean> segment = getSegment(key);
+        synchronized (segment) {
+            return segment.get(key) != null;
+        }
+    }
+
+    /** Remembers that the record with the key has a verified signature */
+    void add(ByteBuffer key) {
+        Map<ByteBuffer, Boolean> segment = getSegment(key);
+        synchronized (segment) {
+            segment.put(key, Boolean.TRUE);
+        }
+    }
+
+    /** Gets the segment that holds the key */
+    private Map<ByteBuffer, Boolean> getSegment(ByteBuffer key) {
+        return segments[Math.floorMod(key.hashCode(), SEGMENT_COUNT)];
+    }
+}
@@ -2,8 +2,8 @@ package dataentities.block;
 
 import dataentities.block.record.Record;
 import dataentities.block.record.RecordValue;
+import functionality.MerkleTree;
 
-import java.util.ArrayList;
 import java.util.List;
 
 /** Stores information a blockchain block's inner data */
@@ -20,18 +20,21 @@ public class BlockData<T extends RecordValue> {
     /** The messages that should be stored in this block */
     public final List<Record<T>> records;
 
+    /** The root of the Merkle tree of the records */
+    public final byte[] recordsRoot;
+
     public BlockData(long id, String prevBlockHash, int hashPrefixZeroCount, List<Record<T>> records) {
+        this(id, prevBlockHash, hashPrefixZeroCount, records, MerkleTree.root(records));
+    }
+
+    public BlockData(long id, String prevBlockHash, int hashPrefixZeroCount, List<Record<T>> records,
+                     byte[] recordsRoot
+    ) {
         this.id = id;
         this.prevBlockHash = prevBlockHash;
         this.hashPrefixZeroCount = hashPrefixZeroCount;
         this.records = records;
-    }
-
-    /** Returns a new Block Data object with the record added to the record list */
-    public final BlockData<T> WithNewRecord(Record<T> record) {
-        List<Record<T>> newMessages = new ArrayList<>(records);
-        newMessages.add(record);
-        return new BlockData<T>(id, prevBlockHash, hashPrefixZeroCount, newMessages);
+        this.recordsRoot = recordsRoot;
     }
 
     /** Check whether this block data is equivalent to the other block's data */
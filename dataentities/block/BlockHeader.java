@@ -0,0 +1,80 @@
+package dataentities.block;
+
+import dataentities.block.record.RecordValue;
+
+import java.math.BigInteger;
+
+/**
+ * The data of a validated block without its records. A header is small enough to keep for every block,
+ * so a blockchain can check how its blocks link together after the records of old blocks are evicted.
+ */
+public class BlockHeader {
+
+    /** The ID of the block */
+    public final long id;
+
+    /** The hash of the previous block */
+    public final String prevBlockHash;
+
+    /** The number of zeros that the block's hash has as a prefix */
+    public final int hashPrefixZeroCount;
+
+    /** The root of the Merkle tree of the block's records */
+    public final byte[] recordsRoot;
+
+    /** The number of records in the block */
+    public final int recordCount;
+
+    /** The ID of the miner which created the block */
+    public final long minerUserId;
+
+    /** The reward to the miner for mining the block */
+    public final RecordValue minerReward;
+
+    /** The magic number used to generate the block's hash */
+    public final long nonce;
+
+    /** Hash value of the block */
+    public final String hash;
+
+    /** Defines when the block was created, as committed to by its hash */
+    public final long timestamp;
+
+    /** The time between the previous block's timestamp and this block's, in milliseconds, or 0 for the first block */
+    public final long calculationTimeMs;
+
+    public BlockHeader(
+            long id, String prevBlockHash, int hashPrefixZeroCount, byte[] recordsRoot, int recordCount,
+            long minerUserId, RecordValue minerReward, long nonce, String hash, long timestamp, long calculationTimeMs
+    ) {
+        this.id = id;
+        this.prevBlockHash = prevBlockHash;
+        this.hashPrefixZeroCount = hashPrefixZeroCount;
+        this.recordsRoot = recordsRoot;
+        this.recordCount = recordCount;
+        this.minerUserId = minerUserId;
+        this.minerReward = minerReward;
+        this.nonce = nonce;
+        this.hash = hash;
+        this.timestamp = timestamp;
+        this.calculationTimeMs = calculationTimeMs;
+    }
+
+    /** Gets the expected number of hashes needed to mine the block, which is the work its branch gains from it */
+    public BigInteger getWork() {
+        return getWork(hashPrefixZeroCount);
+    }
+
+    /** Gets the expected number of hashes needed to find a hash with the zero count, i.e. 16 to its power */
+    public static BigInteger getWork(int hashPrefixZeroCount) {
+        return BigInteger.ONE.shiftLeft(hashPrefixZeroCount * 4);
+    }
+
+    /** Creates the header of the validated block */
+    public static BlockHeader fromValidatedBlock(ValidatedBlock<?> block) {
+        return new BlockHeader(
+                block.id, block.prevBlockHash, block.hashPrefixZeroCount, block.recordsRoot, block.records.size(),
+                block.minerUserId, block.minerReward, block.nonce, block.hash, block.timestamp, block.calculationTimeMs
+        );
+    }
+}
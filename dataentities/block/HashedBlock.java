@@ -8,6 +8,9 @@ import java.util.List;
 /** The blockchain block with a calculated hash value */
 public class HashedBlock<T extends RecordValue> extends MinerBlock<T> {
 
+    /** When the miner created this block, in epoch milliseconds, which the hash commits to and the difficulty is set by */
+    public final long timestamp;
+
     /** The magic number used only for generating a particular hash */
     public final long nonce;
 
@@ -15,19 +18,20 @@ public class HashedBlock<T extends RecordValue> extends MinerBlock<T> {
     public final String hash;
 
     HashedBlock(long id, String prevBlockHash, int hashPrefixZeroCount, List<Record<T>> records,
-                long minerUserId, T minerReward, long nonce, String hash
+                byte[] recordsRoot, long minerUserId, T minerReward, long timestamp, long nonce, String hash
     ) {
-        super(id, prevBlockHash, hashPrefixZeroCount, records, minerUserId, minerReward);
+        super(id, prevBlockHash, hashPrefixZeroCount, records, recordsRoot, minerUserId, minerReward);
+        this.timestamp = timestamp;
         this.nonce = nonce;
         this.hash = hash;
     }
 
     public static <T extends RecordValue> HashedBlock<T> fromMinerBlock(
-            MinerBlock<T> minerBlock, long nonce, String hash
+            MinerBlock<T> minerBlock, long timestamp, long nonce, String hash
     ) {
         return new HashedBlock<>(
                 minerBlock.id, minerBlock.prevBlockHash, minerBlock.hashPrefixZeroCount, minerBlock.records,
-                minerBlock.minerUserId, minerBlock.minerReward, nonce, hash
+                minerBlock.recordsRoot, minerBlock.minerUserId, minerBlock.minerReward, timestamp, nonce, hash
         );
     }
 }
@@ -2,6 +2,7 @@ package dataentities.block;
 
 import dataentities.block.record.Record;
 import dataentities.block.record.RecordValue;
+import functionality.BlockHasher;
 
 import java.util.List;
 
@@ -14,12 +15,25 @@ public class MinerBlock<T extends RecordValue> extends BlockData<T> {
     /** The reward to the miner for mining this block */
     public final T minerReward;
 
+    /** The root that the hash commits to, covering the records root, the miner and the reward */
+    public final byte[] contentRoot;
+
     public MinerBlock(long id, String prevBlockHash, int hashPrefixZeroCount, List<Record<T>> records,
                       long minerUserId, T minerReward
     ) {
         super(id, prevBlockHash, hashPrefixZeroCount, records);
         this.minerUserId = minerUserId;
         this.minerReward = minerReward;
+        this.contentRoot = BlockHasher.contentRoot(recordsRoot, minerUserId, minerReward);
+    }
+
+    public MinerBlock(long id, String prevBlockHash, int hashPrefixZeroCount, List<Record<T>> records,
+                      byte[] recordsRoot, long minerUserId, T minerReward
+    ) {
+        super(id, prevBlockHash, hashPrefixZeroCount, records, recordsRoot);
+        this.minerUserId = minerUserId;
+        this.minerReward = minerReward;
+        this.contentRoot = BlockHasher.contentRoot(recordsRoot, minerUserId, minerReward);
     }
 
     public static <T extends RecordValue> MinerBlock<T> fromBlockData(
@@ -27,7 +41,7 @@ public class MinerBlock<T extends RecordValue> extends BlockData<T> {
     ) {
         return new MinerBlock<>(
                 blockData.id, blockData.prevBlockHash, blockData.hashPrefixZeroCount, blockData.records,
-                minerUserId, minerReward
+                blockData.recordsRoot, minerUserId, minerReward
         );
     }
 }
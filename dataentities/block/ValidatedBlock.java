@@ -9,28 +9,24 @@ import java.util.List;
 /** A valid blockchain block that has been successfully validated */
 public class ValidatedBlock<T extends RecordValue> extends HashedBlock<T> {
 
-    /** Defines when this block was created */
-    public final long timestamp;
-
-    /** The time it took to calculate the hash, in milliseconds */
+    /** The time between the previous block's timestamp and this block's, in milliseconds, or 0 for the first block */
     public final long calculationTimeMs;
 
     ValidatedBlock(
-            long id, String prevBlockHash, int hashPrefixZeroCount, List<Record<T>> records,
-            long minerId, T minerReward, long nonce, String hash, long timestamp, long calculationTimeMs
+            long id, String prevBlockHash, int hashPrefixZeroCount, List<Record<T>> records, byte[] recordsRoot,
+            long minerId, T minerReward, long timestamp, long nonce, String hash, long calculationTimeMs
     ) {
-        super(id, prevBlockHash, hashPrefixZeroCount, records, minerId, minerReward, nonce, hash);
-        this.timestamp = timestamp;
+        super(
+                id, prevBlockHash, hashPrefixZeroCount, records, recordsRoot, minerId, minerReward, timestamp, nonce, hash
+        );
         this.calculationTimeMs = calculationTimeMs;
     }
 
     /** Creates a validated block with a miner block */
-    public static <T extends RecordValue> ValidatedBlock<T> fromMinerBlock(
-            HashedBlock<T> block, long timestamp, long calculationTimeMs
-    ) {
+    public static <T extends RecordValue> ValidatedBlock<T> fromMinerBlock(HashedBlock<T> block, long calculationTimeMs) {
         return new ValidatedBlock<T>(
-                block.id, block.prevBlockHash, block.hashPrefixZeroCount, block.records,
-                block.minerUserId, block.minerReward, block.nonce, block.hash, timestamp, calculationTimeMs
+                block.id, block.prevBlockHash, block.hashPrefixZeroCount, block.records, block.recordsRoot,
+                block.minerUserId, block.minerReward, block.timestamp, block.nonce, block.hash, calculationTimeMs
         );
     }
 
@@ -3,9 +3,17 @@ package dataentities.block.record;
 import blockchain.UserManager;
 import dataentities.user.User;
 
+import java.nio.ByteBuffer;
+
 /** Wraps information on the transfer of currency */
 public class CurrencyTransfer extends RecordValue {
 
+    /** Marks the signing payload of a transfer between users */
+    static final byte TRANSFER_PAYLOAD_TYPE = 0;
+
+    /** The number of bytes in the signing payload: the type, both user IDs and the amount */
+    static final int SIGNING_PAYLOAD_LENGTH = 1 + Long.BYTES * 2 + Integer.BYTES;
+
     public final long fromUserId;
     public final int amount;
     public final long toUserId;
@@ -16,6 +24,29 @@ public class CurrencyTransfer extends RecordValue {
         this.toUserId = toUserId;
     }
 
+    /** Gets the type written first in the signing payload, so a transfer and a reward never share a payload */
+    byte getSigningPayloadType() {
+        return TRANSFER_PAYLOAD_TYPE;
+    }
+
+    @Override
+    public int getSigningPayloadLength() {
+        return SIGNING_PAYLOAD_LENGTH;
+    }
+
+    @Override
+    public void writeSigningPayload(ByteBuffer buffer) {
+        buffer.put(getSigningPayloadType())
+                .putLong(fromUserId)
+                .putInt(amount)
+                .putLong(toUserId);
+    }
+
+    @Override
+    public long[] getInvolvedUserIds() {
+        return new long[]{fromUserId, toUserId};
+    }
+
     @Override
     public String toString() {
         User fromUser = UserManager.getUser(fromUserId);
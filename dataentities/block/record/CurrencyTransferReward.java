@@ -6,10 +6,18 @@ import dataentities.user.User;
 /** The reward to the miner for mining a currency transfer block */
 public class CurrencyTransferReward extends CurrencyTransfer {
 
+    /** Marks the signing payload of a reward */
+    static final byte REWARD_PAYLOAD_TYPE = 1;
+
     public CurrencyTransferReward(long fromUserId, int amount, long toUserId) {
         super(fromUserId, amount, toUserId);
     }
 
+    @Override
+    byte getSigningPayloadType() {
+        return REWARD_PAYLOAD_TYPE;
+    }
+
     @Override
     public String toString() {
         User toUser = UserManager.getUser(toUserId);
@@ -0,0 +1,19 @@
+package dataentities.block.record;
+
+/** A record of the canonical chain with where it is: the ID of its block and its position in the block */
+public class LocatedRecord<T extends RecordValue> {
+
+    /** The ID of the block holding the record */
+    public final long blockId;
+
+    /** The position of the record in its block */
+    public final int position;
+
+    public final Record<T> record;
+
+    public LocatedRecord(long blockId, int position, Record<T> record) {
+        this.blockId = blockId;
+        this.position = position;
+        this.record = record;
+    }
+}
@@ -1,7 +1,8 @@
 package dataentities.block.record;
 
-import functionality.Encryption;
+import functionality.SignatureScheme;
 
+import java.nio.ByteBuffer;
 import java.security.PublicKey;
 import java.util.Arrays;
 import java.util.Objects;
@@ -9,7 +10,7 @@ import java.util.Objects;
 /** Wraps information regarding a record in a blockchain */
 public class Record<T extends RecordValue>  {
 
-    /** The unique identifier */
+    /** The identifier, unique among the records of the creator. Each creator numbers their records in sequence. */
     public final long id;
 
     /** The creator's ID */
@@ -18,28 +19,46 @@ public class Record<T extends RecordValue>  {
     /** The actual value of this record */
     public final T value;
 
+    /** The scheme that the signature was created with */
+    public final SignatureScheme signatureScheme;
+
     /** The signature created by the creator */
     public final byte[] signature;
 
     /** The public key from the creator used to verify the signature */
     public final PublicKey publicKey;
 
+    /** Creates a record whose signature was created with the scheme of the public key */
     public Record(long id, long creatorUserId, T value, byte[] signature, PublicKey publicKey) {
+        this(id, creatorUserId, value, SignatureScheme.forKey(publicKey), signature, publicKey);
+    }
+
+    public Record(long id, long creatorUserId, T value, SignatureScheme signatureScheme, byte[] signature,
+                  PublicKey publicKey
+    ) {
         this.id = id;
         this.creatorUserId = creatorUserId;
         this.value = value;
+        this.signatureScheme = signatureScheme;
         this.signature = signature;
         this.publicKey = publicKey;
     }
 
     /** Checks whether this has a valid signature */
     public boolean hasValidSignature() {
-        return Encryption.signatureIsValid(getSignatureData(value, id), signature, publicKey);
+        return signatureScheme.verify(getSignatureData(creatorUserId, value, id), signature, publicKey);
     }
 
-    /** Retrieves the string that should be used for signatures */
-    public static String getSignatureData(RecordValue recordValue, long messageId) {
-        return String.format("%s%s", recordValue, messageId);
+    /**
+     * Retrieves the bytes that should be used for signatures: the creator's ID, the record ID and then the value's payload.
+     * Record IDs are only unique per creator, so the creator is signed too and a record cannot be replayed as another's.
+     */
+    public static byte[] getSignatureData(long creatorUserId, RecordValue recordValue, long messageId) {
+        ByteBuffer buffer = ByteBuffer.allocate(Long.BYTES * 2 + recordValue.getSigningPayloadLength());
+        buffer.putLong(creatorUserId);
+        buffer.putLong(messageId);
+        recordValue.writeSigningPayload(buffer);
+        return buffer.array();
     }
 
     @Override
@@ -50,13 +69,14 @@ public class Record<T extends RecordValue>  {
         return id == record.id &&
                 creatorUserId == record.creatorUserId &&
                 Objects.equals(value, record.value) &&
+                signatureScheme == record.signatureScheme &&
                 Arrays.equals(signature, record.signature) &&
                 Objects.equals(publicKey, record.publicKey);
     }
 
     @Override
     public int hashCode() {
-        int result = Objects.hash(id, creatorUserId, value, publicKey);
+        int result = Objects.hash(id, creatorUserId, value, signatureScheme, publicKey);
         result = 31 * result + Arrays.hashCode(signature);
         return result;
     }
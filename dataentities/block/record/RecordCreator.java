@@ -32,10 +32,10 @@ public class RecordCreator<T extends RecordValue> implements Runnable {
     @Override
     public void run() {
         while(blockchain.canAddNewBlock()) {
-            T recordValue = recordGenerator.generate();
-            long messageId = blockchain.getNextRecordId();
+            T recordValue = recordGenerator.generate(user.id);
+            long messageId = blockchain.getNextRecordId(user.id);
             Record<T> record = new Record<>(
-                    messageId, user.id, recordValue, user.getSignature(recordValue, messageId),
+                    messageId, user.id, recordValue, user.signatureScheme, user.getSignature(recordValue, messageId),
                     user.publicKey
             );
             blockchain.tryAddRecord(record);
@@ -0,0 +1,72 @@
+package dataentities.block.record;
+
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.function.LongFunction;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * A page of the results of a record query, oldest first.
+ * The next page is read with the cursor of this page, which is an opaque position in the results.
+ */
+public class RecordPage<T extends RecordValue> {
+
+    /** The cursor of the first page */
+    public static final long FIRST_CURSOR = 0;
+
+    /** The cursor after the last page */
+    public static final long END_CURSOR = -1;
+
+    /** The records of this page */
+    public final List<LocatedRecord<T>> records;
+
+    /** The cursor of the next page, or END_CURSOR if this is the last page */
+    public final long nextCursor;
+
+    public RecordPage(List<LocatedRecord<T>> records, long nextCursor) {
+        this.records = records;
+        this.nextCursor = nextCursor;
+    }
+
+    /** States whether there are more records after this page */
+    public boolean hasNextPage() {
+        return nextCursor != END_CURSOR;
+    }
+
+    /**
+     * Streams the records of all the pages, only reading each page when the stream reaches it.
+     * The page reader is given the cursor of the page to read.
+     */
+    public static <T extends RecordValue> Stream<LocatedRecord<T>> stream(LongFunction<RecordPage<T>> pageReader) {
+        Iterator<LocatedRecord<T>> iterator = new Iterator<>() {
+            private Iterator<LocatedRecord<T>> pageRecords = List.<LocatedRecord<T>>of().iterator();
+            private long nextCursor = FIRST_CURSOR;
+
+            @Override
+            public boolean hasNext() {
+                // Pages may be empty, so keep reading until there is a record or there are no more pages
+                while (!pageRecords.hasNext() && nextCursor != END_CURSOR) {
+                    RecordPage<T> page = pageReader.apply(nextCursor);
+                    pageRecords = page.records.iterator();
+                    nextCursor = page.nextCursor;
+                }
+                return pageRecords.hasNext();
+            }
+
+            @Override
+            public LocatedRecord<T> next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                return pageRecords.next();
+            }
+        };
+        return StreamSupport.stream(
+                Spliterators.spliteratorUnknownSize(iterator, Spliterator.ORDERED | Spliterator.NONNULL), false
+        );
+    }
+}
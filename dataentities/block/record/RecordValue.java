@@ -1,8 +1,22 @@
 package dataentities.block.record;
 
+import java.nio.ByteBuffer;
+
 /** Wraps the main data that is stored in a blockchain record */
 public abstract class RecordValue {
 
+    /** Gets the number of bytes that writeSigningPayload writes */
+    public abstract int getSigningPayloadLength();
+
+    /**
+     * Writes this value in a fixed binary layout, which signatures and record hashes are computed over.
+     * It only uses the value's own fields, so signing and hashing never look up other data or format strings.
+     */
+    public abstract void writeSigningPayload(ByteBuffer buffer);
+
+    /** Gets the IDs of the users this value involves, e.g. the sender and receiver of a transfer, for their history */
+    public abstract long[] getInvolvedUserIds();
+
     @Override
     public abstract String toString();
 
@@ -1,26 +1,61 @@
 package dataentities.concurrency;
 
+import functionality.metrics.Timer;
+
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
 
-/** Handles locks by allowing the lock to automatically unlock */
+/**
+ * Handles locks by allowing the lock to automatically unlock.
+ * A handler holds no state of its own acquisitions, so one handler can be kept for a lock and shared by every thread,
+ * which avoids creating a handler on each acquire.
+ */
 public class LockHandler implements AutoCloseable {
 
     private final Lock lock;
 
+    /** Times how long threads wait for the lock, or null if the waits are not timed */
+    private final Timer waitTimer;
+
     LockHandler(Lock lock) {
-        lock.lock();
+        this(lock, null);
+    }
+
+    LockHandler(Lock lock, Timer waitTimer) {
         this.lock = lock;
+        this.waitTimer = waitTimer;
     }
 
     /** Gets a read lock */
     public static LockHandler ReadMode(ReentrantReadWriteLock lock) {
-        return new LockHandler(lock.readLock());
+        return new LockHandler(lock.readLock()).acquire();
     }
 
     /** Get a write lock */
     public static LockHandler WriteMode(ReentrantReadWriteLock lock) {
-        return new LockHandler(lock.writeLock());
+        return new LockHandler(lock.writeLock()).acquire();
+    }
+
+    /** Creates a reusable handler of the read lock, timing how long it takes to get */
+    public static LockHandler forReadLock(ReentrantReadWriteLock lock, Timer waitTimer) {
+        return new LockHandler(lock.readLock(), waitTimer);
+    }
+
+    /** Creates a reusable handler of the write lock, timing how long it takes to get */
+    public static LockHandler forWriteLock(ReentrantReadWriteLock lock, Timer waitTimer) {
+        return new LockHandler(lock.writeLock(), waitTimer);
+    }
+
+    /** Gets the lock, returning this handler so the lock is released when it is closed */
+    public LockHandler acquire() {
+        if (waitTimer == null) {
+            lock.lock();
+        } else {
+            long start = waitTimer.start();
+            lock.lock();
+            waitTimer.stop(start);
+        }
+        return this;
     }
 
     @Override
@@ -5,4 +5,8 @@ public class BlockchainException extends RuntimeException {
     public BlockchainException(String message) {
         super(message);
     }
+
+    public BlockchainException(String message, Throwable cause) {
+        super(message, cause);
+    }
 }
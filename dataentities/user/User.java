@@ -2,7 +2,8 @@ package dataentities.user;
 
 import dataentities.block.record.Record;
 import dataentities.block.record.RecordValue;
-import functionality.Encryption;
+import dataentities.exception.BlockchainException;
+import functionality.SignatureScheme;
 
 import java.security.KeyPair;
 import java.security.PrivateKey;
@@ -19,18 +20,29 @@ public class User {
     /** The encryption public key of this user */
     public final PublicKey publicKey;
 
-    /** An encryption private key of this user */
+    /** An encryption private key of this user, or null if it is not held locally */
     public final PrivateKey privateKey;
 
+    /** The scheme of this user's keys, which their signatures are created with */
+    public final SignatureScheme signatureScheme;
+
     public User(long id, String name, KeyPair encryptionKeyPair) {
+        this(id, name, encryptionKeyPair.getPublic(), encryptionKeyPair.getPrivate());
+    }
+
+    public User(long id, String name, PublicKey publicKey, PrivateKey privateKey) {
         this.id = id;
         this.name = name;
-        this.publicKey = encryptionKeyPair.getPublic();
-        this.privateKey = encryptionKeyPair.getPrivate();
+        this.publicKey = publicKey;
+        this.privateKey = privateKey;
+        this.signatureScheme = SignatureScheme.forKey(publicKey);
     }
 
     /** Generates a signature for the given data */
     public byte[] getSignature(RecordValue recordValue, long messageId) {
-        return Encryption.sign(Record.getSignatureData(recordValue, messageId), privateKey);
+        if (privateKey == null) {
+            throw new BlockchainException(String.format("Private key of user %s is not held locally", id));
+        }
+        return signatureScheme.sign(Record.getSignatureData(id, recordValue, messageId), privateKey);
     }
 }
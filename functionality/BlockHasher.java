@@ -0,0 +1,212 @@
+package functionality;
+
+import dataentities.block.record.Record;
+import dataentities.block.record.RecordValue;
+import dataentities.exception.BlockchainException;
+
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.List;
+
+/**
+ * Hashes blocks using their canonical binary header layout: the previous block hash (32 bytes),
+ * the content root (32 bytes), the nonce (8 bytes) and the timestamp (8 bytes).
+ * The content root commits to the Merkle root of the block's records, the miner's user ID and the miner's reward.
+ * The prefix fills exactly one SHA-256 block, so it is compressed once and each nonce and timestamp only compress
+ * the final block. An instance reuses its buffers and must only be used by one thread.
+ * It is also the scalar mining kernel, hashing one nonce at a time.
+ */
+public class BlockHasher implements MiningKernel {
+
+    /** The number of bytes in a hash */
+    public static final int HASH_LENGTH = 32;
+
+    /** The number of bytes in the header */
+    public static final int HEADER_LENGTH = HASH_LENGTH * 2 + Long.BYTES * 2;
+
+    /** The hash algorithm used for block hashes */
+    final static String hashAlgorithm = "SHA-256";
+
+    /** The hash state after compressing the previous block hash and the content root */
+    private final int[] midstate;
+
+    /** The timestamp of the header, in epoch milliseconds */
+    private long timestamp = 0;
+
+    /** The hash state used while finishing a nonce */
+    private final int[] state = new int[8];
+
+    /** The message schedule used while finishing a nonce */
+    private final int[] words = new int[64];
+
+    public BlockHasher(String prevBlockHash, byte[] contentRoot) {
+        midstate = computeMidstate(prevBlockHash, contentRoot);
+    }
+
+    public BlockHasher(String prevBlockHash, byte[] contentRoot, long timestamp) {
+        this(prevBlockHash, contentRoot);
+        this.timestamp = timestamp;
+    }
+
+    /** Computes the hash state after compressing the previous block hash and the content root */
+    static int[] computeMidstate(String prevBlockHash, byte[] contentRoot) {
+        byte[] prefix = new byte[Sha256.BLOCK_LENGTH];
+        System.arraycopy(decodeHash(prevBlockHash), 0, prefix, 0, HASH_LENGTH);
+        System.arraycopy(contentRoot, 0, prefix, HASH_LENGTH, HASH_LENGTH);
+
+        int[] midstate = Sha256.initialState();
+        int[] words = new int[64];
+        Sha256.readBlock(prefix, 0, words);
+        Sha256.compress(midstate, words);
+        return midstate;
+    }
+
+    /**
+     * Calculates the content root of a block, which commits to the root of its records, its miner and its reward.
+     * The reward is hashed over its signing payload, so it is committed to in the same layout as the records.
+     */
+    public static byte[] contentRoot(byte[] recordsRoot, long minerUserId, RecordValue minerReward) {
+        ByteBuffer buffer = ByteBuffer.allocate(
+                HASH_LENGTH + Long.BYTES + Integer.BYTES + minerReward.getSigningPayloadLength()
+        );
+        buffer.put(recordsRoot);
+        buffer.putLong(minerUserId);
+        buffer.putInt(minerReward.getSigningPayloadLength());
+        minerReward.writeSigningPayload(buffer);
+        return newDigest().digest(buffer.array());
+    }
+
+    @Override
+    public void setTimestamp(long timestamp) {
+        this.timestamp = timestamp;
+    }
+
+    /** Finishes the header hash with the given nonce */
+    public byte[] hash(long nonce) {
+        byte[] hash = new byte[HASH_LENGTH];
+        hash(nonce, hash);
+        return hash;
+    }
+
+    /** Finishes the header hash with the given nonce, writing it into the given buffer */
+    @Override
+    public void hash(long nonce, byte[] out) {
+        compressNonce(nonce);
+        Sha256.writeDigest(state, out);
+    }
+
+    @Override
+    public int getLaneCount() {
+        return 1;
+    }
+
+    @Override
+    public int findNonce(long firstNonce, int count, int hashPrefixZeroCount) {
+        for (int i = 0; i < count; i++) {
+            compressNonce(firstNonce + i);
+            if (stateMatchesPrefixZeroCount(state, hashPrefixZeroCount)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    @Override
+    public void hashLanes(long firstNonce, byte[][] out) {
+        hash(firstNonce, out[0]);
+    }
+
+    /** Finishes the header hash with the given nonce into the hash state, without writing the digest */
+    private void compressNonce(long nonce) {
+        System.arraycopy(midstate, 0, state, 0, state.length);
+        writeFinalBlock(words, nonce, timestamp);
+        Sha256.compress(state, words);
+    }
+
+    /**
+     * Check whether the hash held in the state words starts with the zero count of hexadecimal zeros.
+     * This matches checking the digest bytes, without writing them.
+     */
+    static boolean stateMatchesPrefixZeroCount(int[] state, int hashPrefixZeroCount) {
+        int zeroBits = hashPrefixZeroCount * 4;
+        if (zeroBits > HASH_LENGTH * 8) {
+            return false;
+        }
+        for (int i = 0; zeroBits > 0; i++, zeroBits -= Integer.SIZE) {
+            int word = state[i];
+            if (zeroBits >= Integer.SIZE ? word != 0 : word >>> (Integer.SIZE - zeroBits) != 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /** Writes the words of the final padded block, which only holds the nonce and the timestamp */
+    static void writeFinalBlock(int[] words, long nonce, long timestamp) {
+        words[0] = (int) (nonce >>> 32);
+        words[1] = (int) nonce;
+        words[2] = (int) (timestamp >>> 32);
+        words[3] = (int) timestamp;
+        words[4] = 0x80000000;
+        for (int i = 5; i < 15; i++) {
+            words[i] = 0;
+        }
+        words[15] = HEADER_LENGTH * 8;
+    }
+
+    /** Hashes the whole header in one pass. This is the reference for the hashes of the reusable state. */
+    public static byte[] hashHeader(
+            String prevBlockHash, List<? extends Record<?>> records, long minerUserId, RecordValue minerReward,
+            long timestamp, long nonce
+    ) {
+        return hashHeader(prevBlockHash, contentRoot(MerkleTree.root(records), minerUserId, minerReward), nonce, timestamp);
+    }
+
+    /** Hashes the whole header with the content root in one pass */
+    public static byte[] hashHeader(String prevBlockHash, byte[] contentRoot, long nonce, long timestamp) {
+        MessageDigest digest = newDigest();
+        digest.update(decodeHash(prevBlockHash));
+        digest.update(contentRoot);
+        digest.update(ByteBuffer.allocate(Long.BYTES * 2).putLong(nonce).putLong(timestamp).array());
+        return digest.digest();
+    }
+
+    /** Converts the hexadecimal hash into its bytes, left-padding it with zeros to the hash length */
+    public static byte[] decodeHash(String hash) {
+        if (hash.length() > HASH_LENGTH * 2) {
+            throw new BlockchainException("Hash is longer than the hash length");
+        }
+
+        byte[] bytes = new byte[HASH_LENGTH];
+        int offset = HASH_LENGTH * 2 - hash.length();
+        for (int i = 0; i < hash.length(); i++) {
+            int value = Character.digit(hash.charAt(i), 16);
+            if (value < 0) {
+                throw new BlockchainException("Hash is not hexadecimal");
+            }
+            int nibble = offset + i;
+            bytes[nibble / 2] |= nibble % 2 == 0 ? value << 4 : value;
+        }
+        return bytes;
+    }
+
+    /** Converts the hash bytes into a hexadecimal string */
+    public static String encodeHash(byte[] hash) {
+        StringBuilder hexString = new StringBuilder(hash.length * 2);
+        for (byte elem : hash) {
+            hexString.append(Character.forDigit((elem >> 4) & 0xf, 16));
+            hexString.append(Character.forDigit(elem & 0xf, 16));
+        }
+        return hexString.toString();
+    }
+
+    /** Creates a new message digest for the hash algorithm */
+    static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance(hashAlgorithm);
+        } catch (NoSuchAlgorithmException e) {
+            throw new BlockchainException("Invalid hash algorithm was found");
+        }
+    }
+}
@@ -0,0 +1,65 @@
+package functionality;
+
+import java.security.KeyPair;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Generates key pairs of a signature scheme in the background, so taking one rarely waits for key generation.
+ * A daemon thread keeps the pool full. When the pool is empty, the key pair is generated on the calling thread
+ * rather than waiting for the background thread.
+ */
+public class KeyPairPool {
+
+    /** The default number of key pairs generated ahead */
+    public static final int DEFAULT_CAPACITY = 32;
+
+    /** The shared pool of each scheme */
+    private static final Map<SignatureScheme, KeyPairPool> pools = new ConcurrentHashMap<>();
+
+    /** The scheme of the key pairs */
+    private final SignatureScheme signatureScheme;
+
+    /** The key pairs generated ahead */
+    private final BlockingQueue<KeyPair> keyPairs;
+
+    public KeyPairPool(SignatureScheme signatureScheme, int capacity) {
+        this.signatureScheme = signatureScheme;
+        this.keyPairs = new ArrayBlockingQueue<>(capacity);
+
+        Thread generator = new Thread(this::fill, "key-pair-pool-" + signatureScheme.name().toLowerCase());
+        generator.setDaemon(true);
+        generator.setPriority(Thread.MIN_PRIORITY);
+        generator.start();
+    }
+
+    /** Gets the shared pool of the scheme, starting it if it has not been used */
+    public static KeyPairPool forScheme(SignatureScheme signatureScheme) {
+        return pools.computeIfAbsent(signatureScheme, scheme -> new KeyPairPool(scheme, DEFAULT_CAPACITY));
+    }
+
+    /** Takes a key pair from the pool, or generates one if the pool is empty */
+    public KeyPair take() {
+        KeyPair keyPair = keyPairs.poll();
+        return keyPair != null ? keyPair : signatureScheme.generateKeys();
+    }
+
+    /** Returns the number of key pairs ready to be taken */
+    public int getAvailableCount() {
+        return keyPairs.size();
+    }
+
+    /** Keeps generating key pairs, waiting while the pool is full */
+    private void fill() {
+        try {
+            while (true) {
+                keyPairs.put(signatureScheme.generateKeys());
+            }
+        } catch (InterruptedException e) {
+            // The thread is a daemon, so it is only interrupted when the application stops
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,58 @@
+package functionality;
+
+import dataentities.block.record.Record;
+
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.List;
+
+/** Proves that a record is in a block using only the block's records root */
+public class MerkleProof {
+
+    /** The position of the record in the block */
+    public final int leafIndex;
+
+    /** The number of records in the block */
+    public final int treeSize;
+
+    /** The hashes needed to get from the record's leaf to the root, lowest first */
+    public final List<byte[]> path;
+
+    public MerkleProof(int leafIndex, int treeSize, List<byte[]> path) {
+        this.leafIndex = leafIndex;
+        this.treeSize = treeSize;
+        this.path = List.copyOf(path);
+    }
+
+    /** Checks whether the record is in the tree with the root */
+    public boolean verify(Record<?> record, byte[] recordsRoot) {
+        if (leafIndex < 0 || leafIndex >= treeSize) {
+            return false;
+        }
+
+        // Walk up from the leaf, where the index and the last index of each level
+        // tell whether the next hash is on the left or the right
+        MessageDigest digest = BlockHasher.newDigest();
+        byte[] hash = MerkleTree.leafHash(record);
+        long index = leafIndex;
+        long lastIndex = treeSize - 1;
+        for (byte[] sibling : path) {
+            if (lastIndex == 0) {
+                return false;
+            }
+            if ((index & 1) == 1 || index == lastIndex) {
+                hash = MerkleTree.nodeHash(digest, sibling, hash);
+                // A right-most node without a sibling is carried up unchanged
+                while ((index & 1) == 0 && index != 0) {
+                    index >>= 1;
+                    lastIndex >>= 1;
+                }
+            } else {
+                hash = MerkleTree.nodeHash(digest, hash, sibling);
+            }
+            index >>= 1;
+            lastIndex >>= 1;
+        }
+        return lastIndex == 0 && Arrays.equals(hash, recordsRoot);
+    }
+}
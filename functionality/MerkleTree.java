@@ -0,0 +1,134 @@
+package functionality;
+
+import dataentities.block.record.Record;
+
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Builds the Merkle tree that commits a block to its records, using the layout of RFC 6962:
+ * leaves are hashed with a 0x00 prefix, nodes with a 0x01 prefix,
+ * and the left subtree of each node holds the largest power of two of the leaves.
+ */
+public class MerkleTree {
+
+    /** Prefixes the data of a leaf */
+    static final byte LEAF_PREFIX = 0;
+
+    /** Prefixes the two child hashes of a node */
+    static final byte NODE_PREFIX = 1;
+
+    /** Calculates the hash of the leaf of the record */
+    public static byte[] leafHash(Record<?> record) {
+        // The signature data holds the creator's ID, the record ID and the value's binary payload
+        byte[] signatureData = Record.getSignatureData(record.creatorUserId, record.value, record.id);
+        MessageDigest digest = BlockHasher.newDigest();
+        digest.update(LEAF_PREFIX);
+        digest.update(ByteBuffer.allocate(Long.BYTES + 1 + Integer.BYTES * 2)
+                .putLong(record.creatorUserId)
+                .put(record.signatureScheme.id)
+                .putInt(signatureData.length)
+                .putInt(record.signature.length)
+                .array());
+        digest.update(signatureData);
+        digest.update(record.signature);
+        return digest.digest();
+    }
+
+    /** Calculates the hash of the node with the two child hashes */
+    static byte[] nodeHash(MessageDigest digest, byte[] left, byte[] right) {
+        digest.update(NODE_PREFIX);
+        digest.update(left);
+        digest.update(right);
+        return digest.digest();
+    }
+
+    /** Calculates the root of the tree of the records */
+    public static byte[] root(List<? extends Record<?>> records) {
+        Accumulator accumulator = new Accumulator();
+        for (Record<?> record : records) {
+            accumulator.append(leafHash(record));
+        }
+        return accumulator.root();
+    }
+
+    /** Builds the proof that the record at the index is in the tree of the records */
+    public static MerkleProof proveMembership(List<? extends Record<?>> records, int index) {
+        List<byte[]> leafHashes = new ArrayList<>(records.size());
+        for (Record<?> record : records) {
+            leafHashes.add(leafHash(record));
+        }
+        List<byte[]> path = new ArrayList<>();
+        addPath(BlockHasher.newDigest(), leafHashes, index, path);
+        return new MerkleProof(index, records.size(), path);
+    }
+
+    /** Adds the hashes needed to get from the leaf at the index to the root of the leaves, lowest first */
+    private static void addPath(MessageDigest digest, List<byte[]> leafHashes, int index, List<byte[]> path) {
+        if (leafHashes.size() <= 1) return;
+
+        int split = Integer.highestOneBit(leafHashes.size() - 1);
+        if (index < split) {
+            addPath(digest, leafHashes.subList(0, split), index, path);
+            path.add(subtreeRoot(digest, leafHashes.subList(split, leafHashes.size())));
+        } else {
+            addPath(digest, leafHashes.subList(split, leafHashes.size()), index - split, path);
+            path.add(subtreeRoot(digest, leafHashes.subList(0, split)));
+        }
+    }
+
+    /** Calculates the root of the subtree of the leaves */
+    private static byte[] subtreeRoot(MessageDigest digest, List<byte[]> leafHashes) {
+        if (leafHashes.size() == 1) return leafHashes.get(0);
+
+        int split = Integer.highestOneBit(leafHashes.size() - 1);
+        return nodeHash(
+                digest,
+                subtreeRoot(digest, leafHashes.subList(0, split)),
+                subtreeRoot(digest, leafHashes.subList(split, leafHashes.size()))
+        );
+    }
+
+    /**
+     * Calculates the root of a tree as leaves are appended, only keeping the roots of its perfect subtrees.
+     * Appending a leaf and calculating the root both take logarithmic time. This is not thread safe.
+     */
+    public static class Accumulator {
+
+        /** The roots of the perfect subtrees, largest first */
+        private final List<byte[]> subtreeRoots = new ArrayList<>();
+
+        /** The number of leaves */
+        private long size = 0;
+
+        /** The digest used for the node hashes */
+        private final MessageDigest digest = BlockHasher.newDigest();
+
+        /** Appends the leaf with the hash */
+        public void append(byte[] leafHash) {
+            // Merge the subtrees of the same size, like carrying when adding one to a binary number
+            byte[] node = leafHash;
+            for (long remaining = size; (remaining & 1) == 1; remaining >>= 1) {
+                node = nodeHash(digest, subtreeRoots.remove(subtreeRoots.size() - 1), node);
+            }
+            subtreeRoots.add(node);
+            size++;
+        }
+
+        /** Calculates the root of the leaves appended so far */
+        public byte[] root() {
+            if (subtreeRoots.isEmpty()) {
+                // The root of an empty tree is the hash of no data
+                return digest.digest();
+            }
+
+            byte[] root = subtreeRoots.get(subtreeRoots.size() - 1);
+            for (int i = subtreeRoots.size() - 2; i >= 0; i--) {
+                root = nodeHash(digest, subtreeRoots.get(i), root);
+            }
+            return root;
+        }
+    }
+}
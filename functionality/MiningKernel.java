@@ -0,0 +1,26 @@
+package functionality;
+
+/**
+ * Searches the nonces of one block header for a hash with enough leading zeros.
+ * An instance is built for one header and reuses its buffers, so it must only be used by one thread.
+ */
+public interface MiningKernel {
+
+    /** Returns the number of nonces that are hashed together, so callers can hand out nonces in matching batches */
+    int getLaneCount();
+
+    /** Sets the timestamp of the header, which can be changed between batches without hashing the prefix again */
+    void setTimestamp(long timestamp);
+
+    /**
+     * Finds the first of the consecutive nonces from the first nonce whose hash starts with the zero count of
+     * hexadecimal zeros. Returns its offset from the first nonce, or -1 if none of the nonces match.
+     */
+    int findNonce(long firstNonce, int count, int hashPrefixZeroCount);
+
+    /** Hashes the header with the nonce, writing the hash into the given buffer */
+    void hash(long nonce, byte[] out);
+
+    /** Hashes the header with one consecutive nonce per lane, writing each hash into the buffer of its lane */
+    void hashLanes(long firstNonce, byte[][] out);
+}
@@ -0,0 +1,113 @@
+package functionality;
+
+import dataentities.exception.BlockchainException;
+
+import java.lang.reflect.Constructor;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Creates the fastest mining kernel that is available.
+ * The vector kernel is used when the vector module can be loaded and it hashes exactly like
+ * {@link BlockHasher#hashHeader}, otherwise the scalar kernel is used.
+ * Setting the system property {@code blockchain.miningKernel} to {@code scalar} always uses the scalar kernel.
+ * The reason the vector kernel is not used is logged once, so a slow scalar fallback is not silent.
+ */
+public class MiningKernels {
+
+    /** The system property that chooses the kernel */
+    public static final String KERNEL_PROPERTY = "blockchain.miningKernel";
+
+    /** The class name of the vector kernel, which is loaded reflectively so it is optional */
+    private static final String VECTOR_KERNEL_CLASS = "functionality.VectorMiningKernel";
+
+    private static final System.Logger logger = System.getLogger(MiningKernels.class.getName());
+
+    /** The constructor of the vector kernel, or null if the scalar kernel is used */
+    private static final Constructor<? extends MiningKernel> vectorKernelConstructor = findVectorKernelConstructor();
+
+    /** Creates a kernel for the header with the previous block hash and the content root */
+    public static MiningKernel create(String prevBlockHash, byte[] contentRoot) {
+        if (vectorKernelConstructor != null) {
+            try {
+                return vectorKernelConstructor.newInstance(prevBlockHash, contentRoot);
+            } catch (ReflectiveOperationException e) {
+                // The constructor already worked during the self-check, so this is a bug rather than a fallback
+                throw new BlockchainException("The vector mining kernel could not be created", e);
+            }
+        }
+        return new BlockHasher(prevBlockHash, contentRoot);
+    }
+
+    /** States whether the kernels are vectorised */
+    public static boolean isVectorised() {
+        return vectorKernelConstructor != null;
+    }
+
+    /** Finds the constructor of the vector kernel if it can be loaded and passes the self-check */
+    private static Constructor<? extends MiningKernel> findVectorKernelConstructor() {
+        if ("scalar".equals(System.getProperty(KERNEL_PROPERTY))) {
+            return null;
+        }
+        try {
+            Constructor<? extends MiningKernel> constructor = Class.forName(VECTOR_KERNEL_CLASS)
+                    .asSubclass(MiningKernel.class)
+                    .getDeclaredConstructor(String.class, byte[].class);
+            if (!selfCheck(constructor)) {
+                logger.log(System.Logger.Level.WARNING,
+                        "Using the scalar mining kernel because the vector kernel failed its self-check");
+                return null;
+            }
+            return constructor;
+        } catch (Throwable e) {
+            // The vector module is not available, e.g. it was not added to the module graph
+            logger.log(System.Logger.Level.INFO,
+                    "Using the scalar mining kernel because the vector kernel could not be loaded: " + e);
+            return null;
+        }
+    }
+
+    /**
+     * Checks that the vector kernel matches the block hash of the blockchain, bit-for-bit, for every lane.
+     * The nonces include ones that carry into the high word, the timestamp uses both of its words,
+     * and the nonce search must match the scalar kernel.
+     */
+    private static boolean selfCheck(Constructor<? extends MiningKernel> constructor) throws ReflectiveOperationException {
+        byte[] contentRoot = MerkleTree.root(List.of());
+        long timestamp = 0x123456789abL;
+        String prevBlockHash = BlockHasher.encodeHash(BlockHasher.hashHeader("0", contentRoot, 0, timestamp));
+        MiningKernel kernel = constructor.newInstance(prevBlockHash, contentRoot);
+        BlockHasher scalarKernel = new BlockHasher(prevBlockHash, contentRoot);
+        kernel.setTimestamp(timestamp);
+        scalarKernel.setTimestamp(timestamp);
+
+        int lanes = kernel.getLaneCount();
+        byte[][] hashes = new byte[lanes][BlockHasher.HASH_LENGTH];
+        for (long firstNonce : new long[] { 0, 0xffffffffL - lanes / 2, Long.MAX_VALUE - lanes }) {
+            kernel.hashLanes(firstNonce, hashes);
+            for (int lane = 0; lane < lanes; lane++) {
+                String expected = BlockHasher.encodeHash(
+                        BlockHasher.hashHeader(prevBlockHash, contentRoot, firstNonce + lane, timestamp)
+                );
+                if (!expected.equals(BlockHasher.encodeHash(hashes[lane]))) {
+                    return false;
+                }
+            }
+        }
+
+        byte[] hash = new byte[BlockHasher.HASH_LENGTH];
+        kernel.hash(lanes + 1, hash);
+        if (!Arrays.equals(hash, scalarKernel.hash(lanes + 1))) {
+            return false;
+        }
+
+        // An uneven count checks that lanes past the count are ignored
+        int count = 4096 + lanes / 2;
+        for (int zeroCount = 0; zeroCount <= 3; zeroCount++) {
+            if (kernel.findNonce(1, count, zeroCount) != scalarKernel.findNonce(1, count, zeroCount)) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
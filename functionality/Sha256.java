@@ -0,0 +1,94 @@
+package functionality;
+
+/**
+ * The SHA-256 compression function over caller-owned buffers.
+ * This lets the hash state after a constant prefix be stored and reused without allocating.
+ */
+public class Sha256 {
+
+    /** The number of bytes in each block of the message */
+    public static final int BLOCK_LENGTH = 64;
+
+    /** The initial hash state */
+    static final int[] INITIAL_STATE = {
+            0x6a09e667, 0xbb67ae85, 0x3c6ef372, 0xa54ff53a, 0x510e527f, 0x9b05688c, 0x1f83d9ab, 0x5be0cd19
+    };
+
+    /** The round constants */
+    static final int[] K = {
+            0x428a2f98, 0x71374491, 0xb5c0fbcf, 0xe9b5dba5, 0x3956c25b, 0x59f111f1, 0x923f82a4, 0xab1c5ed5,
+            0xd807aa98, 0x12835b01, 0x243185be, 0x550c7dc3, 0x72be5d74, 0x80deb1fe, 0x9bdc06a7, 0xc19bf174,
+            0xe49b69c1, 0xefbe4786, 0x0fc19dc6, 0x240ca1cc, 0x2de92c6f, 0x4a7484aa, 0x5cb0a9dc, 0x76f988da,
+            0x983e5152, 0xa831c66d, 0xb00327c8, 0xbf597fc7, 0xc6e00bf3, 0xd5a79147, 0x06ca6351, 0x14292967,
+            0x27b70a85, 0x2e1b2138, 0x4d2c6dfc, 0x53380d13, 0x650a7354, 0x766a0abb, 0x81c2c92e, 0x92722c85,
+            0xa2bfe8a1, 0xa81a664b, 0xc24b8b70, 0xc76c51a3, 0xd192e819, 0xd6990624, 0xf40e3585, 0x106aa070,
+            0x19a4c116, 0x1e376c08, 0x2748774c, 0x34b0bcb5, 0x391c0cb3, 0x4ed8aa4a, 0x5b9cca4f, 0x682e6ff3,
+            0x748f82ee, 0x78a5636f, 0x84c87814, 0x8cc70208, 0x90befffa, 0xa4506ceb, 0xbef9a3f7, 0xc67178f2
+    };
+
+    /** Returns a copy of the initial hash state */
+    public static int[] initialState() {
+        return INITIAL_STATE.clone();
+    }
+
+    /** Reads the block at the offset into the first 16 message words */
+    public static void readBlock(byte[] block, int offset, int[] words) {
+        for (int i = 0; i < 16; i++) {
+            int j = offset + i * 4;
+            words[i] = (block[j] & 0xff) << 24 | (block[j + 1] & 0xff) << 16
+                    | (block[j + 2] & 0xff) << 8 | (block[j + 3] & 0xff);
+        }
+    }
+
+    /**
+     * Compresses one block into the state.
+     * The first 16 of the 64 words must hold the block, the rest are overwritten by the message schedule.
+     */
+    public static void compress(int[] state, int[] words) {
+        for (int i = 16; i < 64; i++) {
+            int w15 = words[i - 15];
+            int w2 = words[i - 2];
+            int s0 = Integer.rotateRight(w15, 7) ^ Integer.rotateRight(w15, 18) ^ (w15 >>> 3);
+            int s1 = Integer.rotateRight(w2, 17) ^ Integer.rotateRight(w2, 19) ^ (w2 >>> 10);
+            words[i] = words[i - 16] + s0 + words[i - 7] + s1;
+        }
+
+        int a = state[0], b = state[1], c = state[2], d = state[3];
+        int e = state[4], f = state[5], g = state[6], h = state[7];
+        for (int i = 0; i < 64; i++) {
+            int s1 = Integer.rotateRight(e, 6) ^ Integer.rotateRight(e, 11) ^ Integer.rotateRight(e, 25);
+            int ch = (e & f) ^ (~e & g);
+            int temp1 = h + s1 + ch + K[i] + words[i];
+            int s0 = Integer.rotateRight(a, 2) ^ Integer.rotateRight(a, 13) ^ Integer.rotateRight(a, 22);
+            int maj = (a & b) ^ (a & c) ^ (b & c);
+            int temp2 = s0 + maj;
+            h = g;
+            g = f;
+            f = e;
+            e = d + temp1;
+            d = c;
+            c = b;
+            b = a;
+            a = temp1 + temp2;
+        }
+
+        state[0] += a;
+        state[1] += b;
+        state[2] += c;
+        state[3] += d;
+        state[4] += e;
+        state[5] += f;
+        state[6] += g;
+        state[7] += h;
+    }
+
+    /** Writes the state as the big-endian digest */
+    public static void writeDigest(int[] state, byte[] out) {
+        for (int i = 0; i < 8; i++) {
+            out[i * 4] = (byte) (state[i] >>> 24);
+            out[i * 4 + 1] = (byte) (state[i] >>> 16);
+            out[i * 4 + 2] = (byte) (state[i] >>> 8);
+            out[i * 4 + 3] = (byte) state[i];
+        }
+    }
+}
@@ -0,0 +1,199 @@
+package functionality;
+
+import dataentities.exception.BlockchainException;
+
+import java.security.GeneralSecurityException;
+import java.security.InvalidKeyException;
+import java.security.Key;
+import java.security.KeyFactory;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.NoSuchAlgorithmException;
+import java.security.PrivateKey;
+import java.security.PublicKey;
+import java.security.Signature;
+import java.security.SignatureException;
+import java.security.spec.ECGenParameterSpec;
+import java.security.spec.InvalidKeySpecException;
+import java.security.spec.PKCS8EncodedKeySpec;
+import java.security.spec.X509EncodedKeySpec;
+
+/**
+ * The algorithms that records can be signed with. Each scheme has a fixed ID that is stored with signed records,
+ * so records signed with any scheme can still be verified after the default scheme changes.
+ * Creating signers, verifiers and key generators is expensive, so each thread reuses its own.
+ */
+public enum SignatureScheme {
+
+    /** 1024-bit RSA with SHA-512, which every record was signed with before schemes were added */
+    RSA((byte) 1, "RSA", "SHA512withRSA") {
+        @Override
+        void initialize(KeyPairGenerator keyGenerator) {
+            keyGenerator.initialize(1024);
+        }
+    },
+
+    /** Ed25519, which has smaller keys and signatures than RSA and generates keys much faster */
+    ED25519((byte) 2, "Ed25519", "Ed25519") {
+        @Override
+        void initialize(KeyPairGenerator keyGenerator) {
+            // The curve fixes every parameter
+        }
+    },
+
+    /** ECDSA over the P-256 curve with SHA-256 */
+    ECDSA((byte) 3, "EC", "SHA256withECDSA") {
+        @Override
+        void initialize(KeyPairGenerator keyGenerator) throws GeneralSecurityException {
+            keyGenerator.initialize(new ECGenParameterSpec("secp256r1"));
+        }
+    };
+
+    /** The system property that chooses the scheme of new keys */
+    public static final String DEFAULT_SCHEME_PROPERTY = "blockchain.signatureScheme";
+
+    /** The ID stored with records signed with this scheme */
+    public final byte id;
+
+    /** The algorithm of the keys */
+    private final String keyAlgorithm;
+
+    /** The algorithm of the signatures */
+    private final String signatureAlgorithm;
+
+    /** The signer of each thread */
+    private final ThreadLocal<Signature> signers;
+
+    /** The verifier of each thread */
+    private final ThreadLocal<Signature> verifiers;
+
+    /** The key generator of each thread */
+    private final ThreadLocal<KeyPairGenerator> keyGenerators;
+
+    /** The key factory of each thread */
+    private final ThreadLocal<KeyFactory> keyFactories;
+
+    SignatureScheme(byte id, String keyAlgorithm, String signatureAlgorithm) {
+        this.id = id;
+        this.keyAlgorithm = keyAlgorithm;
+        this.signatureAlgorithm = signatureAlgorithm;
+        this.signers = ThreadLocal.withInitial(this::newSignature);
+        this.verifiers = ThreadLocal.withInitial(this::newSignature);
+        this.keyGenerators = ThreadLocal.withInitial(this::newKeyGenerator);
+        this.keyFactories = ThreadLocal.withInitial(this::newKeyFactory);
+    }
+
+    /** Sets the parameters of a new key generator */
+    abstract void initialize(KeyPairGenerator keyGenerator) throws GeneralSecurityException;
+
+    /** Gets the scheme that new keys are generated with, which is RSA unless the system property is set */
+    public static SignatureScheme getDefault() {
+        return valueOf(System.getProperty(DEFAULT_SCHEME_PROPERTY, RSA.name()));
+    }
+
+    /** Gets the scheme with the ID */
+    public static SignatureScheme fromId(byte id) {
+        for (SignatureScheme scheme : values()) {
+            if (scheme.id == id) {
+                return scheme;
+            }
+        }
+        throw new BlockchainException(String.format("Unknown signature scheme %s", id));
+    }
+
+    /** Gets the scheme that the key belongs to */
+    public static SignatureScheme forKey(Key key) {
+        switch (key.getAlgorithm()) {
+            case "RSA":
+                return RSA;
+            case "EdDSA":
+            case "Ed25519":
+                return ED25519;
+            case "EC":
+                return ECDSA;
+            default:
+                throw new BlockchainException(String.format("Unsupported key algorithm %s", key.getAlgorithm()));
+        }
+    }
+
+    /** Generates a random set of keys */
+    public KeyPair generateKeys() {
+        return keyGenerators.get().generateKeyPair();
+    }
+
+    /** Writes a signature of the data using the private key */
+    public byte[] sign(byte[] data, PrivateKey key) {
+        Signature signer = signers.get();
+        try {
+            signer.initSign(key);
+            signer.update(data);
+            return signer.sign();
+        } catch (InvalidKeyException e) {
+            throw new BlockchainException("Invalid private key was provided");
+        } catch (SignatureException e) {
+            throw new BlockchainException("Signature was not initialised correctly");
+        }
+    }
+
+    /**
+     * Checks whether the signature of the data is valid for the public key.
+     * A key of another scheme or a malformed signature is not valid.
+     */
+    public boolean verify(byte[] data, byte[] signature, PublicKey key) {
+        Signature verifier = verifiers.get();
+        try {
+            verifier.initVerify(key);
+            verifier.update(data);
+            return verifier.verify(signature);
+        } catch (InvalidKeyException | SignatureException e) {
+            return false;
+        }
+    }
+
+    /** Decodes a public key from its standard encoding */
+    public PublicKey decodePublicKey(byte[] encodedKey) {
+        try {
+            return keyFactories.get().generatePublic(new X509EncodedKeySpec(encodedKey));
+        } catch (InvalidKeySpecException e) {
+            throw new BlockchainException("Invalid public key encoding was provided");
+        }
+    }
+
+    /** Decodes a private key from its standard encoding */
+    public PrivateKey decodePrivateKey(byte[] encodedKey) {
+        try {
+            return keyFactories.get().generatePrivate(new PKCS8EncodedKeySpec(encodedKey));
+        } catch (InvalidKeySpecException e) {
+            throw new BlockchainException("Invalid private key encoding was provided");
+        }
+    }
+
+    /** Creates a signer or verifier */
+    private Signature newSignature() {
+        try {
+            return Signature.getInstance(signatureAlgorithm);
+        } catch (NoSuchAlgorithmException e) {
+            throw new BlockchainException("Invalid signature algorithm was found");
+        }
+    }
+
+    /** Creates a key generator with the parameters of this scheme */
+    private KeyPairGenerator newKeyGenerator() {
+        try {
+            KeyPairGenerator keyGenerator = KeyPairGenerator.getInstance(keyAlgorithm);
+            initialize(keyGenerator);
+            return keyGenerator;
+        } catch (GeneralSecurityException e) {
+            throw new BlockchainException("Invalid encryption algorithm was found");
+        }
+    }
+
+    /** Creates a key factory */
+    private KeyFactory newKeyFactory() {
+        try {
+            return KeyFactory.getInstance(keyAlgorithm);
+        } catch (NoSuchAlgorithmException e) {
+            throw new BlockchainException("Invalid encryption algorithm was found");
+        }
+    }
+}
@@ -0,0 +1,178 @@
+package functionality;
+
+import jdk.incubator.vector.IntVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * Hashes one consecutive nonce per vector lane over the same header midstate, using the Vector API.
+ * Each lane runs the final SHA-256 compression of the scalar kernel, so the hashes are the same.
+ * This needs the incubating vector module, e.g. {@code --add-modules jdk.incubator.vector},
+ * and is only loaded through {@link MiningKernels}, which falls back to the scalar kernel without it.
+ */
+class VectorMiningKernel implements MiningKernel {
+
+    /** The preferred vector shape of the platform */
+    private static final VectorSpecies<Integer> SPECIES = IntVector.SPECIES_PREFERRED;
+
+    /** The number of nonces hashed together */
+    private static final int LANES = SPECIES.length();
+
+    /** The offset of each lane's nonce from the first nonce */
+    private static final int[] LANE_OFFSETS = new int[LANES];
+
+    static {
+        for (int i = 0; i < LANES; i++) {
+            LANE_OFFSETS[i] = i;
+        }
+    }
+
+    /** The hash state after compressing the previous block hash and the content root */
+    private final int[] midstate;
+
+    /** The message schedule of every lane, with the lanes of each word next to each other */
+    private final int[] words = new int[64 * LANES];
+
+    /** The final hash state of every lane, with the lanes of each word next to each other */
+    private final int[] state = new int[8 * LANES];
+
+    VectorMiningKernel(String prevBlockHash, byte[] contentRoot) {
+        midstate = BlockHasher.computeMidstate(prevBlockHash, contentRoot);
+
+        // Only the nonce and timestamp words change between batches, so the rest of the final block is written once
+        int[] finalBlock = new int[64];
+        BlockHasher.writeFinalBlock(finalBlock, 0, 0);
+        for (int i = 2; i < 16; i++) {
+            IntVector.broadcast(SPECIES, finalBlock[i]).intoArray(words, i * LANES);
+        }
+    }
+
+    @Override
+    public int getLaneCount() {
+        return LANES;
+    }
+
+    @Override
+    public void setTimestamp(long timestamp) {
+        IntVector.broadcast(SPECIES, (int) (timestamp >>> 32)).intoArray(words, 2 * LANES);
+        IntVector.broadcast(SPECIES, (int) timestamp).intoArray(words, 3 * LANES);
+    }
+
+    @Override
+    public int findNonce(long firstNonce, int count, int hashPrefixZeroCount) {
+        int zeroBits = hashPrefixZeroCount * 4;
+        if (zeroBits > BlockHasher.HASH_LENGTH * 8) {
+            return -1;
+        }
+
+        for (int offset = 0; offset < count; offset += LANES) {
+            compressLanes(firstNonce + offset);
+
+            VectorMask<Integer> matches = SPECIES.indexInRange(offset, count);
+            for (int i = 0, bits = zeroBits; bits > 0 && matches.anyTrue(); i++, bits -= Integer.SIZE) {
+                IntVector word = IntVector.fromArray(SPECIES, state, i * LANES);
+                if (bits < Integer.SIZE) {
+                    word = word.lanewise(VectorOperators.LSHR, Integer.SIZE - bits);
+                }
+                matches = matches.and(word.eq(0));
+            }
+
+            int lane = matches.firstTrue();
+            if (lane < LANES) {
+                return offset + lane;
+            }
+        }
+        return -1;
+    }
+
+    @Override
+    public void hash(long nonce, byte[] out) {
+        compressLanes(nonce);
+        writeDigest(0, out);
+    }
+
+    @Override
+    public void hashLanes(long firstNonce, byte[][] out) {
+        compressLanes(firstNonce);
+        for (int lane = 0; lane < LANES; lane++) {
+            writeDigest(lane, out[lane]);
+        }
+    }
+
+    /** Writes the big-endian digest of the lane */
+    private void writeDigest(int lane, byte[] out) {
+        for (int i = 0; i < 8; i++) {
+            int word = state[i * LANES + lane];
+            out[i * 4] = (byte) (word >>> 24);
+            out[i * 4 + 1] = (byte) (word >>> 16);
+            out[i * 4 + 2] = (byte) (word >>> 8);
+            out[i * 4 + 3] = (byte) word;
+        }
+    }
+
+    /** Compresses the final block of each lane's nonce into the hash state of the lanes */
+    private void compressLanes(long firstNonce) {
+        // The low words of the nonces may wrap around, which carries into the high words
+        int firstLow = (int) firstNonce;
+        IntVector low = IntVector.fromArray(SPECIES, LANE_OFFSETS, 0).add(firstLow);
+        VectorMask<Integer> carried = low.compare(VectorOperators.UNSIGNED_LT, firstLow);
+        IntVector high = IntVector.broadcast(SPECIES, (int) (firstNonce >>> 32)).add(1, carried);
+        high.intoArray(words, 0);
+        low.intoArray(words, LANES);
+
+        for (int i = 16; i < 64; i++) {
+            IntVector w15 = IntVector.fromArray(SPECIES, words, (i - 15) * LANES);
+            IntVector w2 = IntVector.fromArray(SPECIES, words, (i - 2) * LANES);
+            IntVector s0 = w15.lanewise(VectorOperators.ROR, 7)
+                    .lanewise(VectorOperators.XOR, w15.lanewise(VectorOperators.ROR, 18))
+                    .lanewise(VectorOperators.XOR, w15.lanewise(VectorOperators.LSHR, 3));
+            IntVector s1 = w2.lanewise(VectorOperators.ROR, 17)
+                    .lanewise(VectorOperators.XOR, w2.lanewise(VectorOperators.ROR, 19))
+                    .lanewise(VectorOperators.XOR, w2.lanewise(VectorOperators.LSHR, 10));
+            IntVector.fromArray(SPECIES, words, (i - 16) * LANES)
+                    .add(s0)
+                    .add(IntVector.fromArray(SPECIES, words, (i - 7) * LANES))
+                    .add(s1)
+                    .intoArray(words, i * LANES);
+        }
+
+        IntVector a = IntVector.broadcast(SPECIES, midstate[0]);
+        IntVector b = IntVector.broadcast(SPECIES, midstate[1]);
+        IntVector c = IntVector.broadcast(SPECIES, midstate[2]);
+        IntVector d = IntVector.broadcast(SPECIES, midstate[3]);
+        IntVector e = IntVector.broadcast(SPECIES, midstate[4]);
+        IntVector f = IntVector.broadcast(SPECIES, midstate[5]);
+        IntVector g = IntVector.broadcast(SPECIES, midstate[6]);
+        IntVector h = IntVector.broadcast(SPECIES, midstate[7]);
+        for (int i = 0; i < 64; i++) {
+            IntVector s1 = e.lanewise(VectorOperators.ROR, 6)
+                    .lanewise(VectorOperators.XOR, e.lanewise(VectorOperators.ROR, 11))
+                    .lanewise(VectorOperators.XOR, e.lanewise(VectorOperators.ROR, 25));
+            IntVector ch = e.and(f).lanewise(VectorOperators.XOR, e.not().and(g));
+            IntVector temp1 = h.add(s1).add(ch).add(Sha256.K[i]).add(IntVector.fromArray(SPECIES, words, i * LANES));
+            IntVector s0 = a.lanewise(VectorOperators.ROR, 2)
+                    .lanewise(VectorOperators.XOR, a.lanewise(VectorOperators.ROR, 13))
+                    .lanewise(VectorOperators.XOR, a.lanewise(VectorOperators.ROR, 22));
+            IntVector maj = a.and(b).lanewise(VectorOperators.XOR, a.and(c)).lanewise(VectorOperators.XOR, b.and(c));
+            IntVector temp2 = s0.add(maj);
+            h = g;
+            g = f;
+            f = e;
+            e = d.add(temp1);
+            d = c;
+            c = b;
+            b = a;
+            a = temp1.add(temp2);
+        }
+
+        a.add(midstate[0]).intoArray(state, 0);
+        b.add(midstate[1]).intoArray(state, LANES);
+        c.add(midstate[2]).intoArray(state, 2 * LANES);
+        d.add(midstate[3]).intoArray(state, 3 * LANES);
+        e.add(midstate[4]).intoArray(state, 4 * LANES);
+        f.add(midstate[5]).intoArray(state, 5 * LANES);
+        g.add(midstate[6]).intoArray(state, 6 * LANES);
+        h.add(midstate[7]).intoArray(state, 7 * LANES);
+    }
+}
@@ -0,0 +1,25 @@
+package functionality.metrics;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/** A count that many threads can increase without contending with each other */
+public class Counter {
+
+    /** The striped count */
+    private final LongAdder count = new LongAdder();
+
+    /** Increases the count by one */
+    public void increment() {
+        count.increment();
+    }
+
+    /** Increases the count by the amount */
+    public void add(long amount) {
+        count.add(amount);
+    }
+
+    /** Returns the current count */
+    public long get() {
+        return count.sum();
+    }
+}
@@ -0,0 +1,95 @@
+package functionality.metrics;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counts non-negative values in logarithmic buckets, with four linear sub-buckets for each power of two.
+ * Recording never allocates or locks, and percentiles are accurate to within an eighth of the value.
+ */
+public class Histogram {
+
+    /** The number of sub-buckets for each power of two, as a power of two */
+    private static final int SUB_BUCKET_BITS = 2;
+
+    /** The number of sub-buckets for each power of two */
+    private static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+
+    /** The number of buckets needed to hold any non-negative long */
+    private static final int BUCKET_COUNT = (Long.SIZE - SUB_BUCKET_BITS) * SUB_BUCKET_COUNT;
+
+    /** The number of values in each bucket */
+    private final AtomicLongArray bucketCounts = new AtomicLongArray(BUCKET_COUNT);
+
+    /** The number of recorded values */
+    private final LongAdder count = new LongAdder();
+
+    /** The sum of the recorded values */
+    private final LongAdder sum = new LongAdder();
+
+    /** The largest recorded value */
+    private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+    /** Records the value, treating negative values as zero */
+    public void record(long value) {
+        value = Math.max(0, value);
+        bucketCounts.incrementAndGet(getBucketIndex(value));
+        count.increment();
+        sum.add(value);
+        max.accumulate(value);
+    }
+
+    /** Takes a snapshot of the recorded values. Values recorded while it is taken may be partially included. */
+    public HistogramSnapshot getSnapshot() {
+        long[] counts = new long[BUCKET_COUNT];
+        long total = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            counts[i] = bucketCounts.get(i);
+            total += counts[i];
+        }
+        long largest = max.get();
+        return new HistogramSnapshot(
+                total,
+                total == 0 ? 0 : sum.sum() / (double) total,
+                getPercentile(counts, total, 0.5, largest),
+                getPercentile(counts, total, 0.9, largest),
+                getPercentile(counts, total, 0.99, largest),
+                largest
+        );
+    }
+
+    /** Gets the value below which the fraction of the values lie, using the middle of its bucket */
+    private static long getPercentile(long[] counts, long total, double fraction, long largest) {
+        long rank = (long) Math.ceil(total * fraction);
+        long seen = 0;
+        for (int i = 0; i < counts.length; i++) {
+            seen += counts[i];
+            if (seen >= rank && seen > 0) {
+                return Math.min(getBucketMiddle(i), largest);
+            }
+        }
+        return 0;
+    }
+
+    /** Gets the bucket that holds the value */
+    static int getBucketIndex(long value) {
+        if (value < SUB_BUCKET_COUNT) {
+            return (int) value;
+        }
+        int exponent = Long.SIZE - 1 - Long.numberOfLeadingZeros(value);
+        int subBucket = (int) (value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKET_COUNT - 1);
+        return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKET_COUNT + subBucket;
+    }
+
+    /** Gets the middle value of the bucket */
+    static long getBucketMiddle(int index) {
+        if (index < SUB_BUCKET_COUNT) {
+            return index;
+        }
+        int exponent = index / SUB_BUCKET_COUNT + SUB_BUCKET_BITS - 1;
+        long width = 1L << (exponent - SUB_BUCKET_BITS);
+        long lowest = (long) (SUB_BUCKET_COUNT + index % SUB_BUCKET_COUNT) << (exponent - SUB_BUCKET_BITS);
+        return lowest + width / 2;
+    }
+}
@@ -0,0 +1,59 @@
+package functionality.metrics;
+
+import java.beans.ConstructorProperties;
+
+/** The distribution of the values of a histogram at one point in time */
+public class HistogramSnapshot {
+
+    /** The number of values */
+    private final long count;
+
+    /** The mean of the values */
+    private final double mean;
+
+    /** The median of the values */
+    private final long p50;
+
+    /** The 90th percentile of the values */
+    private final long p90;
+
+    /** The 99th percentile of the values */
+    private final long p99;
+
+    /** The largest value */
+    private final long max;
+
+    @ConstructorProperties({ "count", "mean", "p50", "p90", "p99", "max" })
+    public HistogramSnapshot(long count, double mean, long p50, long p90, long p99, long max) {
+        this.count = count;
+        this.mean = mean;
+        this.p50 = p50;
+        this.p90 = p90;
+        this.p99 = p99;
+        this.max = max;
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    public double getMean() {
+        return mean;
+    }
+
+    public long getP50() {
+        return p50;
+    }
+
+    public long getP90() {
+        return p90;
+    }
+
+    public long getP99() {
+        return p99;
+    }
+
+    public long getMax() {
+        return max;
+    }
+}
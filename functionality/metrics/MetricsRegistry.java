@@ -0,0 +1,66 @@
+package functionality.metrics;
+
+import dataentities.exception.BlockchainException;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Holds the named counters and timers of the application.
+ * Looking up a metric by name is meant to be done once, with the metric kept in a field for the hot path.
+ */
+public class MetricsRegistry implements MetricsRegistryMXBean {
+
+    /** The name that the default registry is registered under with JMX */
+    public static final String OBJECT_NAME = "blockchain:type=Metrics";
+
+    /** The registry used by the blockchain, which is registered with the platform MBean server */
+    private static final MetricsRegistry defaultRegistry = new MetricsRegistry();
+
+    static {
+        try {
+            ManagementFactory.getPlatformMBeanServer().registerMBean(defaultRegistry, new ObjectName(OBJECT_NAME));
+        } catch (JMException e) {
+            throw new BlockchainException("Metrics could not be registered with JMX", e);
+        }
+    }
+
+    /** The counters, keyed by their name */
+    private final Map<String, Counter> counters = new ConcurrentHashMap<>();
+
+    /** The timers, keyed by their name */
+    private final Map<String, Timer> timers = new ConcurrentHashMap<>();
+
+    /** Gets the registry used by the blockchain */
+    public static MetricsRegistry getDefault() {
+        return defaultRegistry;
+    }
+
+    /** Gets the counter with the name, creating it if it does not exist */
+    public Counter counter(String name) {
+        return counters.computeIfAbsent(name, ignored -> new Counter());
+    }
+
+    /** Gets the timer with the name, creating it with the sample rate if it does not exist */
+    public Timer timer(String name, int sampleRate) {
+        return timers.computeIfAbsent(name, ignored -> new Timer(sampleRate));
+    }
+
+    @Override
+    public Map<String, Long> getCounters() {
+        Map<String, Long> values = new TreeMap<>();
+        counters.forEach((name, counter) -> values.put(name, counter.get()));
+        return values;
+    }
+
+    @Override
+    public Map<String, HistogramSnapshot> getTimers() {
+        Map<String, HistogramSnapshot> snapshots = new TreeMap<>();
+        timers.forEach((name, timer) -> snapshots.put(name, timer.getSnapshot()));
+        return snapshots;
+    }
+}
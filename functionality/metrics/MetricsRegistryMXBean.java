@@ -0,0 +1,13 @@
+package functionality.metrics;
+
+import java.util.Map;
+
+/** Exposes the metrics of a registry over JMX */
+public interface MetricsRegistryMXBean {
+
+    /** Gets the value of each counter, keyed by its name */
+    Map<String, Long> getCounters();
+
+    /** Gets the sampled durations of each timer in nanoseconds, keyed by its name */
+    Map<String, HistogramSnapshot> getTimers();
+}
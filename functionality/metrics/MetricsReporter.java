@@ -0,0 +1,69 @@
+package functionality.metrics;
+
+import java.io.PrintStream;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/** Periodically prints the metrics of a registry, with the rate of each counter since the previous report */
+public class MetricsReporter implements AutoCloseable {
+
+    /** The registry whose metrics are printed */
+    private final MetricsRegistry registry;
+
+    /** Where the reports are printed */
+    private final PrintStream out;
+
+    /** Runs the reports in the background */
+    private final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "metrics-reporter");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    /** The counter values of the previous report, keyed by their name */
+    private final Map<String, Long> previousCounters = new HashMap<>();
+
+    /** When the previous report was printed, in nanoseconds */
+    private long previousReportNs = System.nanoTime();
+
+    private MetricsReporter(MetricsRegistry registry, PrintStream out) {
+        this.registry = registry;
+        this.out = out;
+    }
+
+    /** Starts printing the metrics of the registry every period */
+    public static MetricsReporter start(MetricsRegistry registry, PrintStream out, long periodMs) {
+        MetricsReporter reporter = new MetricsReporter(registry, out);
+        reporter.executor.scheduleAtFixedRate(reporter::report, periodMs, periodMs, TimeUnit.MILLISECONDS);
+        return reporter;
+    }
+
+    /** Prints the current metrics */
+    public synchronized void report() {
+        long now = System.nanoTime();
+        double elapsedSeconds = Math.max(1, now - previousReportNs) / 1e9;
+        previousReportNs = now;
+
+        StringBuilder builder = new StringBuilder("Metrics:\n");
+        registry.getCounters().forEach((name, value) -> {
+            long previous = previousCounters.getOrDefault(name, 0L);
+            previousCounters.put(name, value);
+            builder.append(String.format("  %-40s %12d %12.1f/s%n", name, value, (value - previous) / elapsedSeconds));
+        });
+        registry.getTimers().forEach((name, snapshot) -> builder.append(String.format(
+                "  %-40s samples=%d mean=%.1fus p50=%.1fus p90=%.1fus p99=%.1fus max=%.1fus%n",
+                name, snapshot.getCount(), snapshot.getMean() / 1e3, snapshot.getP50() / 1e3,
+                snapshot.getP90() / 1e3, snapshot.getP99() / 1e3, snapshot.getMax() / 1e3
+        )));
+        out.print(builder);
+    }
+
+    /** Stops printing the metrics */
+    @Override
+    public void close() {
+        executor.shutdownNow();
+    }
+}
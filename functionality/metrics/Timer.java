@@ -0,0 +1,53 @@
+package functionality.metrics;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Times a sample of the calls to a piece of code in nanoseconds.
+ * Only one in every sample rate calls reads the clock, so timing hot code costs little more than a random number.
+ */
+public class Timer {
+
+    /** Returned instead of a start time when the call is not sampled */
+    private static final long NOT_SAMPLED = Long.MIN_VALUE;
+
+    /** Times one in this many calls */
+    private final int sampleRate;
+
+    /** The sampled durations in nanoseconds */
+    private final Histogram histogram = new Histogram();
+
+    Timer(int sampleRate) {
+        this.sampleRate = Math.max(1, sampleRate);
+    }
+
+    /** Starts timing the call if it is sampled, returning the value to pass to stop */
+    public long start() {
+        if (sampleRate > 1 && ThreadLocalRandom.current().nextInt(sampleRate) != 0) {
+            return NOT_SAMPLED;
+        }
+        return System.nanoTime();
+    }
+
+    /** Stops timing the call that was started */
+    public void stop(long start) {
+        if (start != NOT_SAMPLED) {
+            histogram.record(System.nanoTime() - start);
+        }
+    }
+
+    /** Records a duration in nanoseconds that was measured elsewhere. This is not sampled. */
+    public void record(long durationNs) {
+        histogram.record(durationNs);
+    }
+
+    /** Returns one in how many calls are timed */
+    public int getSampleRate() {
+        return sampleRate;
+    }
+
+    /** Takes a snapshot of the sampled durations in nanoseconds */
+    public HistogramSnapshot getSnapshot() {
+        return histogram.getSnapshot();
+    }
+}
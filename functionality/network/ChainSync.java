@@ -0,0 +1,577 @@
+package functionality.network;
+
+import blockchain.Blockchain;
+import blockchain.BlockSubmitResult;
+import dataentities.block.BlockHeader;
+import dataentities.block.HashedBlock;
+import dataentities.block.record.RecordValue;
+import functionality.BlockHasher;
+import functionality.metrics.Counter;
+import functionality.metrics.MetricsRegistry;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Downloads the canonical chain of the peers that are ahead of the blockchain, headers first.
+ * The headers are fetched from the peer with the highest tip and checked cheaply: they must link to each other,
+ * each zero count must be the one derived from the timestamps of the headers before it, and each hash must match
+ * its header and have those zeros, which proves the work without the records.
+ * The blocks are then downloaded in parallel from every peer that has them, a window at a time, and go through
+ * a pipeline: their signatures are verified on many threads as they arrive, and they are submitted to the blockchain
+ * in order on one thread, so downloading, verifying and applying the blocks overlap.
+ * Apart from its pipeline threads, a sync must only be used on the node's handler thread.
+ */
+class ChainSync<T extends RecordValue> implements AutoCloseable {
+
+    /** The most headers a peer is asked for at once */
+    static final int MAX_HEADERS_PER_REQUEST = 2000;
+
+    /** The number of blocks before the tip that headers are asked for from, to find where the peer's chain forks */
+    static final int HEADER_OVERLAP = 100;
+
+    /** The number of blocks that may be downloading from each peer at once */
+    static final int MAX_IN_FLIGHT_BLOCKS_PER_PEER = 16;
+
+    /** How far ahead of the last applied block the blocks are downloaded, which bounds the memory they use */
+    static final int MAX_DOWNLOAD_WINDOW = 1024;
+
+    /** How long a peer has to answer a request before it is asked of another peer */
+    static final long REQUEST_TIMEOUT_MS = 10_000;
+
+    /** The node whose peers the chain is downloaded from */
+    private final Node<T> node;
+
+    /** The blockchain the downloaded blocks are submitted to */
+    private final Blockchain<T> blockchain;
+
+    /** Writes the requests */
+    private final MessageCodec<T> codec;
+
+    /** Verifies the signatures of the downloaded blocks, many blocks at once */
+    private final ExecutorService verifier;
+
+    /** Submits the verified blocks to the blockchain in order */
+    private final ExecutorService applier;
+
+    /** The thread of the applier, which is set once it starts */
+    private volatile Thread applierThread;
+
+    /** The peers that are ahead of the blockchain */
+    private final List<Peer> peers = new ArrayList<>();
+
+    /** The number of blocks being downloaded from each peer */
+    private final Map<Peer, Integer> inFlightBlockCounts = new HashMap<>();
+
+    /**
+     * The number of requests each peer let time out, less the blocks it delivered since.
+     * Each one halves the number of blocks the peer may be downloading at once, so a slow peer is asked for less.
+     */
+    private final Map<Peer, Integer> timedOutCounts = new HashMap<>();
+
+    /** The checked headers whose blocks have not been asked for yet, keyed by their block ID */
+    private final TreeMap<Long, BlockHeader> unrequestedHeaders = new TreeMap<>();
+
+    /** The blocks being downloaded, keyed by their hash */
+    private final Map<String, Download> downloads = new HashMap<>();
+
+    /** The downloaded blocks waiting for the blocks before them, keyed by their ID */
+    private final Map<Long, DownloadedBlock<T>> downloadedBlocks = new HashMap<>();
+
+    /** Counts the headers that were checked */
+    private final Counter headerCounter;
+
+    /** Counts the blocks that were downloaded */
+    private final Counter downloadedBlockCounter;
+
+    /** Counts the requests that timed out and were asked of another peer */
+    private final Counter timedOutRequestCounter;
+
+    /** Counts the syncs that stopped because a downloaded block could not be applied, e.g. as a signature is invalid */
+    private final Counter failedSyncCounter;
+
+    /** Increases whenever the sync starts or stops, so the pipeline can tell when its blocks are out of date */
+    private volatile int generation = 0;
+
+    private boolean isActive = false;
+
+    /** The peer the headers were asked of, or null if no headers are being downloaded */
+    private Peer headerPeer;
+
+    /** When the headers were asked for */
+    private long headerRequestedAtMs;
+
+    /** States whether the header peer had no more headers to give */
+    private boolean headersComplete;
+
+    /** The block ID the next headers are asked for from */
+    private long nextHeaderId;
+
+    /** The newest checked header that is not in the blockchain, or null if there is none yet */
+    private BlockHeader lastHeader;
+
+    /** The ID of the next downloaded block to hand to the applier */
+    private long nextQueuedBlockId;
+
+    /** The ID of the newest block that was applied */
+    private long appliedBlockId;
+
+    /** Completes with a boolean stating whether every block handed to the applier so far was applied */
+    private CompletableFuture<Boolean> lastApplied;
+
+    ChainSync(Node<T> node, Blockchain<T> blockchain, MessageCodec<T> codec, String threadNamePrefix) {
+        this.node = node;
+        this.blockchain = blockchain;
+        this.codec = codec;
+        int verifierCount = Runtime.getRuntime().availableProcessors();
+        this.verifier = Executors.newFixedThreadPool(verifierCount, runnable -> {
+            Thread thread = new Thread(runnable, threadNamePrefix + "-sync-verifier");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.applier = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, threadNamePrefix + "-sync-applier");
+            thread.setDaemon(true);
+            applierThread = thread;
+            return thread;
+        });
+
+        MetricsRegistry metrics = MetricsRegistry.getDefault();
+        this.headerCounter = metrics.counter("network.sync.headers");
+        this.downloadedBlockCounter = metrics.counter("network.sync.blocks");
+        this.timedOutRequestCounter = metrics.counter("network.sync.timed_out_requests");
+        this.failedSyncCounter = metrics.counter("network.sync.failed");
+    }
+
+    /** States whether the chain is being downloaded */
+    boolean isActive() {
+        return isActive;
+    }
+
+    /** States whether the calling thread is the one applying the downloaded blocks. This may be called from any thread. */
+    boolean isApplierThread() {
+        return Thread.currentThread() == applierThread;
+    }
+
+    /** Notes the tip the peer has, downloading its chain if it is ahead of the blockchain */
+    void onPeerTip(Peer peer, long tipBlockId) {
+        if (tipBlockId <= peer.remoteTipBlockId && peers.contains(peer)) return;
+
+        peer.remoteTipBlockId = Math.max(peer.remoteTipBlockId, tipBlockId);
+        if (tipBlockId <= blockchain.getTipBlockId()) return;
+
+        if (!peers.contains(peer)) {
+            peers.add(peer);
+        }
+        if (!isActive) {
+            start();
+            return;
+        }
+        if (headersComplete && lastHeader != null && tipBlockId > lastHeader.id) {
+            // The peer has mined past the headers, so ask for the rest
+            headersComplete = false;
+        }
+        if (!headersComplete && headerPeer == null) {
+            requestHeaders();
+        }
+        scheduleDownloads();
+    }
+
+    private void start() {
+        isActive = true;
+        generation++;
+        long tipBlockId = blockchain.getTipBlockId();
+        headersComplete = false;
+        nextHeaderId = Math.max(1, tipBlockId - HEADER_OVERLAP + 1);
+        lastHeader = null;
+        appliedBlockId = tipBlockId;
+        lastApplied = CompletableFuture.completedFuture(true);
+        requestHeaders();
+    }
+
+    /** Stops downloading the chain, dropping everything that was not applied */
+    private void stop() {
+        isActive = false;
+        generation++;
+        peers.clear();
+        inFlightBlockCounts.clear();
+        timedOutCounts.clear();
+        unrequestedHeaders.clear();
+        downloads.clear();
+        downloadedBlocks.clear();
+        headerPeer = null;
+        lastHeader = null;
+    }
+
+    /** Asks the peer with the highest tip for the next headers */
+    private void requestHeaders() {
+        Peer bestPeer = null;
+        for (Peer peer : peers) {
+            if (bestPeer == null || peer.remoteTipBlockId > bestPeer.remoteTipBlockId) {
+                bestPeer = peer;
+            }
+        }
+        if (bestPeer == null) {
+            stop();
+            return;
+        }
+        headerPeer = bestPeer;
+        headerRequestedAtMs = System.currentTimeMillis();
+        node.send(bestPeer, codec.encodeGetHeaders(nextHeaderId, MAX_HEADERS_PER_REQUEST));
+    }
+
+    /** Checks the headers from the peer and queues their blocks to be downloaded */
+    void onHeaders(Peer peer, List<BlockHeader> headers) {
+        if (!isActive || peer != headerPeer) return;
+
+        headerPeer = null;
+        for (BlockHeader header : headers) {
+            if (!headerHashIsValid(header)) {
+                misbehaved(peer);
+                return;
+            }
+            BlockHeader prevHeader = lastHeader;
+            if (prevHeader == null) {
+                // The headers overlap the blockchain, so skip the blocks it already has up to the fork point
+                if (blockchain.containsBlock(header.hash)) continue;
+                if (header.id != 1) {
+                    prevHeader = blockchain.getHeaderByHash(header.prevBlockHash);
+                    if (prevHeader == null) {
+                        // The peer's chain forks before the overlap, which is further back than the blockchain allows
+                        removePeer(peer);
+                        return;
+                    }
+                }
+                nextQueuedBlockId = header.id;
+            }
+            if (!headerFollows(header, prevHeader)) {
+                misbehaved(peer);
+                return;
+            }
+            unrequestedHeaders.put(header.id, header);
+            lastHeader = header;
+        }
+        headerCounter.add(headers.size());
+
+        if (!headers.isEmpty()) {
+            nextHeaderId = headers.get(headers.size() - 1).id + 1;
+            peer.remoteTipBlockId = Math.max(peer.remoteTipBlockId, nextHeaderId - 1);
+        }
+        headersComplete = headers.size() < MAX_HEADERS_PER_REQUEST;
+        if (!headersComplete) {
+            requestHeaders();
+        }
+        scheduleDownloads();
+        stopIfDone();
+    }
+
+    /**
+     * Ensures the header's hash is recomputed from everything it commits to, including the records root, miner,
+     * reward and timestamp, and has the zeros it claims.
+     * The zero count itself is checked by headerFollows, since it depends on the headers before it.
+     */
+    static boolean headerHashIsValid(BlockHeader header) {
+        byte[] contentRoot = BlockHasher.contentRoot(header.recordsRoot, header.minerUserId, header.minerReward);
+        byte[] hash = BlockHasher.hashHeader(header.prevBlockHash, contentRoot, header.nonce, header.timestamp);
+        return Blockchain.hashMatchesPrefixZeroCount(hash, header.hashPrefixZeroCount)
+                && BlockHasher.encodeHash(hash).equals(header.hash);
+    }
+
+    /**
+     * Ensures the header follows the header before it, which is null for the first block.
+     * Its calculation time must be the time since the header before it, and its zero count must be the one
+     * the blockchain derives from the header before it, so a peer cannot send headers that cost less work to mine.
+     */
+    private boolean headerFollows(BlockHeader header, BlockHeader prevHeader) {
+        if (prevHeader == null) {
+            return header.id == 1
+                    && header.calculationTimeMs == 0
+                    && header.hashPrefixZeroCount == blockchain.getNextHashPrefixZeroCount(null);
+        }
+        return header.id == prevHeader.id + 1
+                && header.prevBlockHash.equals(prevHeader.hash)
+                && header.timestamp > prevHeader.timestamp
+                && header.calculationTimeMs == header.timestamp - prevHeader.timestamp
+                && header.hashPrefixZeroCount == blockchain.getNextHashPrefixZeroCount(prevHeader);
+    }
+
+    /** Asks the least busy peers for the blocks of the next headers, up to the download window */
+    private void scheduleDownloads() {
+        long now = System.currentTimeMillis();
+        while (!unrequestedHeaders.isEmpty()) {
+            BlockHeader header = unrequestedHeaders.firstEntry().getValue();
+            if (header.id > appliedBlockId + MAX_DOWNLOAD_WINDOW) break;
+
+            Peer peer = getLeastBusyPeer(header.id, null);
+            if (peer == null) break;
+
+            unrequestedHeaders.pollFirstEntry();
+            downloads.put(header.hash, new Download(header, peer, now));
+            inFlightBlockCounts.merge(peer, 1, Integer::sum);
+            node.send(peer, codec.encodeGetBlock(header.hash));
+        }
+    }
+
+    /**
+     * Gets the peer with the fewest blocks downloading that has the block with the ID, apart from the excluded peer,
+     * or null if all are busy. The excluded peer may be null.
+     */
+    private Peer getLeastBusyPeer(long blockId, Peer excludedPeer) {
+        Peer leastBusyPeer = null;
+        int leastInFlightCount = Integer.MAX_VALUE;
+        for (Peer peer : peers) {
+            int inFlightCount = inFlightBlockCounts.getOrDefault(peer, 0);
+            if (peer != excludedPeer
+                    && peer.remoteTipBlockId >= blockId
+                    && inFlightCount < getMaxInFlightBlocks(peer)
+                    && inFlightCount < leastInFlightCount
+            ) {
+                leastBusyPeer = peer;
+                leastInFlightCount = inFlightCount;
+            }
+        }
+        return leastBusyPeer;
+    }
+
+    /** Gets the number of blocks that may be downloading from the peer at once, which is lower for a slow peer */
+    private int getMaxInFlightBlocks(Peer peer) {
+        int timedOutCount = Math.min(timedOutCounts.getOrDefault(peer, 0), Integer.SIZE - 1);
+        return Math.max(1, MAX_IN_FLIGHT_BLOCKS_PER_PEER >> timedOutCount);
+    }
+
+    /**
+     * Takes the block if it was downloaded by the sync, starting to verify its signatures.
+     * Returns a boolean stating whether the block belonged to the sync.
+     */
+    boolean onBlock(Peer peer, HashedBlock<T> block) {
+        Download download = downloads.get(block.hash);
+        if (download == null || download.peer != peer) return false;
+
+        downloads.remove(block.hash);
+        inFlightBlockCounts.merge(peer, -1, Integer::sum);
+        if (!blockMatchesHeader(block, download.header)) {
+            unrequestedHeaders.put(download.header.id, download.header);
+            misbehaved(peer);
+            return true;
+        }
+        downloadedBlockCounter.increment();
+        timedOutCounts.computeIfPresent(peer, (ignored, count) -> count > 1 ? count - 1 : null);
+
+        downloadedBlocks.put(block.id, new DownloadedBlock<>(peer, CompletableFuture.supplyAsync(
+                () -> blockchain.preverifySignatures(block.records) ? block : null, verifier
+        )));
+        queueDownloadedBlocks();
+        scheduleDownloads();
+        return true;
+    }
+
+    /**
+     * Checks the block is the one of the header, comparing everything the header's hash commits to.
+     * The block's hash is recomputed from its own records, miner, reward and timestamp, so a block that only
+     * claims the header's hash does not match.
+     */
+    static boolean blockMatchesHeader(HashedBlock<?> block, BlockHeader header) {
+        byte[] hash = BlockHasher.hashHeader(block.prevBlockHash, block.contentRoot, block.nonce, block.timestamp);
+        return block.id == header.id
+                && block.prevBlockHash.equals(header.prevBlockHash)
+                && block.hashPrefixZeroCount == header.hashPrefixZeroCount
+                && block.nonce == header.nonce
+                && block.timestamp == header.timestamp
+                && block.minerUserId == header.minerUserId
+                && block.minerReward.equals(header.minerReward)
+                && block.records.size() == header.recordCount
+                && Arrays.equals(block.recordsRoot, header.recordsRoot)
+                && block.hash.equals(header.hash)
+                && BlockHasher.encodeHash(hash).equals(header.hash);
+    }
+
+    /**
+     * Hands the downloaded blocks that follow the queued blocks to the applier, which applies them once verified.
+     * A block that fails to verify or apply, even by throwing, stops the blocks after it from being applied.
+     */
+    private void queueDownloadedBlocks() {
+        while (downloadedBlocks.containsKey(nextQueuedBlockId)) {
+            long blockId = nextQueuedBlockId++;
+            DownloadedBlock<T> downloadedBlock = downloadedBlocks.remove(blockId);
+            Peer peer = downloadedBlock.peer;
+            int queuedGeneration = generation;
+            lastApplied = lastApplied
+                    .thenCombineAsync(
+                            downloadedBlock.verifiedBlock,
+                            (isApplied, block) -> isApplied && applyBlock(queuedGeneration, blockId, block, peer),
+                            applier
+                    )
+                    .exceptionally(e -> {
+                        node.runOnHandler(() -> onBlockApplied(queuedGeneration, blockId, peer, false));
+                        return false;
+                    });
+        }
+    }
+
+    /**
+     * Submits the verified block from the peer to the blockchain on the applier thread,
+     * which is null if a signature was invalid.
+     * Returns a boolean stating whether the block was applied.
+     */
+    private boolean applyBlock(int queuedGeneration, long blockId, HashedBlock<T> block, Peer peer) {
+        if (queuedGeneration != generation) return false;
+
+        boolean isApplied = false;
+        if (block != null) {
+            BlockSubmitResult result = blockchain.submitBlock(block);
+            isApplied = result == BlockSubmitResult.ACCEPTED
+                    || result == BlockSubmitResult.SIDE_BRANCH
+                    || result == BlockSubmitResult.STALE;
+        }
+        boolean wasApplied = isApplied;
+        node.runOnHandler(() -> onBlockApplied(queuedGeneration, blockId, peer, wasApplied));
+        return isApplied;
+    }
+
+    /**
+     * Moves the download window on once the block is applied.
+     * If it could not be, the peer that sent it is disconnected and the sync starts again with the other peers.
+     */
+    private void onBlockApplied(int appliedGeneration, long blockId, Peer peer, boolean isApplied) {
+        if (appliedGeneration != generation) return;
+
+        if (!isApplied) {
+            failedSyncCounter.increment();
+            node.disconnectLater(peer);
+            List<Peer> otherPeers = new ArrayList<>(peers);
+            otherPeers.remove(peer);
+            stop();
+            for (Peer otherPeer : otherPeers) {
+                onPeerTip(otherPeer, otherPeer.remoteTipBlockId);
+            }
+            return;
+        }
+        appliedBlockId = blockId;
+        scheduleDownloads();
+        stopIfDone();
+    }
+
+    /** Stops the sync once every header was downloaded and applied */
+    private void stopIfDone() {
+        boolean isDone = headersComplete && headerPeer == null
+                && unrequestedHeaders.isEmpty() && downloads.isEmpty() && downloadedBlocks.isEmpty()
+                && (lastHeader == null || appliedBlockId >= lastHeader.id);
+        if (isActive && isDone) {
+            stop();
+        }
+    }
+
+    /** Disconnects from the peer, which sent something that is invalid */
+    private void misbehaved(Peer peer) {
+        node.disconnectLater(peer);
+        removePeer(peer);
+    }
+
+    /** Stops downloading from the peer, asking the other peers for what it was downloading */
+    void removePeer(Peer peer) {
+        if (!peers.remove(peer)) return;
+
+        inFlightBlockCounts.remove(peer);
+        timedOutCounts.remove(peer);
+        downloads.values().removeIf(download -> {
+            if (download.peer != peer) return false;
+            unrequestedHeaders.put(download.header.id, download.header);
+            return true;
+        });
+        if (headerPeer == peer) {
+            headerPeer = null;
+            headersComplete = false;
+        }
+        if (!headersComplete && headerPeer == null) {
+            requestHeaders();
+        }
+        if (isActive) {
+            scheduleDownloads();
+        }
+    }
+
+    /**
+     * Asks other peers for what was asked of peers that did not answer in time.
+     * Each timed out block is asked of a different peer where one has it, and the slow peer is asked for fewer blocks.
+     */
+    void retryTimedOutRequests() {
+        if (!isActive) return;
+
+        long now = System.currentTimeMillis();
+        if (headerPeer != null && now - headerRequestedAtMs > REQUEST_TIMEOUT_MS) {
+            timedOutRequestCounter.increment();
+            removePeer(headerPeer);
+        }
+
+        List<Download> timedOutDownloads = new ArrayList<>();
+        downloads.values().removeIf(download -> {
+            if (now - download.requestedAtMs <= REQUEST_TIMEOUT_MS) return false;
+            timedOutDownloads.add(download);
+            return true;
+        });
+        for (Download download : timedOutDownloads) {
+            timedOutRequestCounter.increment();
+            inFlightBlockCounts.merge(download.peer, -1, Integer::sum);
+            timedOutCounts.merge(download.peer, 1, Integer::sum);
+        }
+        for (Download download : timedOutDownloads) {
+            Peer retryPeer = getLeastBusyPeer(download.header.id, download.peer);
+            if (retryPeer == null) {
+                // No other peer can take it yet, so it is scheduled with the other blocks
+                unrequestedHeaders.put(download.header.id, download.header);
+                continue;
+            }
+            downloads.put(download.header.hash, new Download(download.header, retryPeer, now));
+            inFlightBlockCounts.merge(retryPeer, 1, Integer::sum);
+            node.send(retryPeer, codec.encodeGetBlock(download.header.hash));
+        }
+        if (isActive) {
+            scheduleDownloads();
+        }
+    }
+
+    @Override
+    public void close() {
+        generation++;
+        verifier.shutdownNow();
+        applier.shutdownNow();
+    }
+
+    /** A downloaded block with the peer it came from */
+    private static class DownloadedBlock<T extends RecordValue> {
+
+        final Peer peer;
+
+        /** Completes with the block once its signatures are verified, or with null if a signature is invalid */
+        final CompletableFuture<HashedBlock<T>> verifiedBlock;
+
+        DownloadedBlock(Peer peer, CompletableFuture<HashedBlock<T>> verifiedBlock) {
+            this.peer = peer;
+            this.verifiedBlock = verifiedBlock;
+        }
+    }
+
+    /** A block being downloaded from a peer */
+    private static class Download {
+
+        final BlockHeader header;
+
+        final Peer peer;
+
+        /** When the block was asked for */
+        final long requestedAtMs;
+
+        Download(BlockHeader header, Peer peer, long requestedAtMs) {
+            this.header = header;
+            this.peer = peer;
+            this.requestedAtMs = requestedAtMs;
+        }
+    }
+}
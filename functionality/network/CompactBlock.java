@@ -0,0 +1,78 @@
+package functionality.network;
+
+import dataentities.block.HashedBlock;
+import dataentities.block.MinerBlock;
+import dataentities.block.record.Record;
+import dataentities.block.record.RecordValue;
+import functionality.MerkleTree;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+
+/**
+ * A block whose records are replaced by their short IDs.
+ * Peers usually already hold the records of a new block since they were gossiped before it was mined,
+ * so only the records a peer is missing need to be sent.
+ */
+class CompactBlock<T extends RecordValue> {
+
+    final long id;
+
+    final String prevBlockHash;
+
+    final int hashPrefixZeroCount;
+
+    final long minerUserId;
+
+    final T minerReward;
+
+    final long timestamp;
+
+    final long nonce;
+
+    final String hash;
+
+    /** The short IDs of the block's records, in the block's order */
+    final long[] shortIds;
+
+    CompactBlock(long id, String prevBlockHash, int hashPrefixZeroCount, long minerUserId, T minerReward,
+                 long timestamp, long nonce, String hash, long[] shortIds
+    ) {
+        this.id = id;
+        this.prevBlockHash = prevBlockHash;
+        this.hashPrefixZeroCount = hashPrefixZeroCount;
+        this.minerUserId = minerUserId;
+        this.minerReward = minerReward;
+        this.timestamp = timestamp;
+        this.nonce = nonce;
+        this.hash = hash;
+        this.shortIds = shortIds;
+    }
+
+    static <T extends RecordValue> CompactBlock<T> fromBlock(HashedBlock<T> block) {
+        long[] shortIds = new long[block.records.size()];
+        for (int i = 0; i < shortIds.length; i++) {
+            shortIds[i] = getShortId(block.records.get(i));
+        }
+        return new CompactBlock<>(
+                block.id, block.prevBlockHash, block.hashPrefixZeroCount, block.minerUserId, block.minerReward,
+                block.timestamp, block.nonce, block.hash, shortIds
+        );
+    }
+
+    /** Rebuilds the block from its records, which must be in the block's order */
+    HashedBlock<T> toBlock(List<Record<T>> records) {
+        MinerBlock<T> minerBlock = new MinerBlock<>(
+                id, prevBlockHash, hashPrefixZeroCount, List.copyOf(records), minerUserId, minerReward
+        );
+        return HashedBlock.fromMinerBlock(minerBlock, timestamp, nonce, hash);
+    }
+
+    /**
+     * Gets the short ID of the record, which is the first 8 bytes of its leaf hash in the records' Merkle tree.
+     * A collision only makes the rebuilt block's hash wrong, in which case the whole block is fetched instead.
+     */
+    static long getShortId(Record<?> record) {
+        return ByteBuffer.wrap(MerkleTree.leafHash(record)).getLong();
+    }
+}
@@ -0,0 +1,289 @@
+package functionality.network;
+
+import dataentities.block.BlockHeader;
+import dataentities.block.HashedBlock;
+import dataentities.block.MinerBlock;
+import dataentities.block.record.Record;
+import dataentities.block.record.RecordValue;
+import dataentities.exception.BlockchainException;
+import functionality.BlockHasher;
+import functionality.storage.BlockCodec;
+import functionality.storage.RecordValueCodec;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Writes and reads the messages between nodes.
+ * Each message is a frame made of its length, its type and then its payload.
+ * The length counts the type and the payload but not itself.
+ */
+class MessageCodec<T extends RecordValue> {
+
+    /** The number of bytes of the length before each frame */
+    static final int LENGTH_PREFIX_SIZE = Integer.BYTES;
+
+    /** The largest frame a peer may send, which bounds the memory used to read one */
+    static final int MAX_FRAME_LENGTH = 16 * 1024 * 1024;
+
+    /** Writes and reads the records */
+    private final BlockCodec<T> blockCodec;
+
+    /** Writes and reads the miner rewards */
+    private final RecordValueCodec<T> valueCodec;
+
+    MessageCodec(RecordValueCodec<T> valueCodec) {
+        this.blockCodec = new BlockCodec<>(valueCodec);
+        this.valueCodec = valueCodec;
+    }
+
+    ByteBuffer encodeHello(long nodeId, long tipBlockId) {
+        return encode(MessageType.HELLO, output -> {
+            output.writeLong(nodeId);
+            output.writeLong(tipBlockId);
+        });
+    }
+
+    ByteBuffer encodeRecords(List<Record<T>> records) {
+        return encode(MessageType.RECORDS, output -> writeRecords(records, output));
+    }
+
+    ByteBuffer encodeCompactBlock(CompactBlock<T> block) {
+        return encode(MessageType.COMPACT_BLOCK, output -> {
+            output.writeLong(block.id);
+            output.writeUTF(block.prevBlockHash);
+            output.writeInt(block.hashPrefixZeroCount);
+            output.writeLong(block.minerUserId);
+            valueCodec.write(block.minerReward, output);
+            output.writeLong(block.timestamp);
+            output.writeLong(block.nonce);
+            output.writeUTF(block.hash);
+            output.writeInt(block.shortIds.length);
+            for (long shortId : block.shortIds) {
+                output.writeLong(shortId);
+            }
+        });
+    }
+
+    ByteBuffer encodeGetBlockRecords(String blockHash, int[] positions) {
+        return encode(MessageType.GET_BLOCK_RECORDS, output -> {
+            output.writeUTF(blockHash);
+            output.writeInt(positions.length);
+            for (int position : positions) {
+                output.writeInt(position);
+            }
+        });
+    }
+
+    ByteBuffer encodeBlockRecords(String blockHash, List<Record<T>> records) {
+        return encode(MessageType.BLOCK_RECORDS, output -> {
+            output.writeUTF(blockHash);
+            writeRecords(records, output);
+        });
+    }
+
+    ByteBuffer encodeGetBlock(String blockHash) {
+        return encode(MessageType.GET_BLOCK, output -> output.writeUTF(blockHash));
+    }
+
+    ByteBuffer encodeBlock(HashedBlock<T> block) {
+        return encode(MessageType.BLOCK, output -> {
+            output.writeLong(block.id);
+            output.writeUTF(block.prevBlockHash);
+            output.writeInt(block.hashPrefixZeroCount);
+            output.writeLong(block.minerUserId);
+            valueCodec.write(block.minerReward, output);
+            output.writeLong(block.timestamp);
+            output.writeLong(block.nonce);
+            output.writeUTF(block.hash);
+            writeRecords(block.records, output);
+        });
+    }
+
+    Hello readHello(DataInput input) throws IOException {
+        return new Hello(input.readLong(), input.readLong());
+    }
+
+    List<Record<T>> readRecords(DataInput input) throws IOException {
+        int recordCount = readCount(input);
+        List<Record<T>> records = new ArrayList<>(recordCount);
+        for (int i = 0; i < recordCount; i++) {
+            records.add(blockCodec.readRecord(input));
+        }
+        return records;
+    }
+
+    CompactBlock<T> readCompactBlock(DataInput input) throws IOException {
+        long id = input.readLong();
+        String prevBlockHash = input.readUTF();
+        int hashPrefixZeroCount = input.readInt();
+        long minerUserId = input.readLong();
+        T minerReward = valueCodec.read(input);
+        long timestamp = input.readLong();
+        long nonce = input.readLong();
+        String hash = input.readUTF();
+        long[] shortIds = new long[readCount(input)];
+        for (int i = 0; i < shortIds.length; i++) {
+            shortIds[i] = input.readLong();
+        }
+        return new CompactBlock<>(
+                id, prevBlockHash, hashPrefixZeroCount, minerUserId, minerReward, timestamp, nonce, hash, shortIds
+        );
+    }
+
+    /** Reads the positions asked for by a GET_BLOCK_RECORDS message, after its block hash */
+    int[] readPositions(DataInput input) throws IOException {
+        int[] positions = new int[readCount(input)];
+        for (int i = 0; i < positions.length; i++) {
+            positions[i] = input.readInt();
+        }
+        return positions;
+    }
+
+    /** Reads the block hash at the start of the GET_BLOCK_RECORDS, BLOCK_RECORDS and GET_BLOCK messages */
+    String readBlockHash(DataInput input) throws IOException {
+        return input.readUTF();
+    }
+
+    HashedBlock<T> readBlock(DataInput input) throws IOException {
+        long id = input.readLong();
+        String prevBlockHash = input.readUTF();
+        int hashPrefixZeroCount = input.readInt();
+        long minerUserId = input.readLong();
+        T minerReward = valueCodec.read(input);
+        long timestamp = input.readLong();
+        long nonce = input.readLong();
+        String hash = input.readUTF();
+        List<Record<T>> records = readRecords(input);
+        MinerBlock<T> minerBlock = new MinerBlock<>(
+                id, prevBlockHash, hashPrefixZeroCount, List.copyOf(records), minerUserId, minerReward
+        );
+        return HashedBlock.fromMinerBlock(minerBlock, timestamp, nonce, hash);
+    }
+
+    ByteBuffer encodeGetHeaders(long fromBlockId, int maxCount) {
+        return encode(MessageType.GET_HEADERS, output -> {
+            output.writeLong(fromBlockId);
+            output.writeInt(maxCount);
+        });
+    }
+
+    /** Encodes the headers with everything their hashes commit to, so each header's hash can be checked on its own */
+    ByteBuffer encodeHeaders(List<BlockHeader> headers) {
+        return encode(MessageType.HEADERS, output -> {
+            output.writeInt(headers.size());
+            for (BlockHeader header : headers) {
+                output.writeLong(header.id);
+                output.writeUTF(header.prevBlockHash);
+                output.writeInt(header.hashPrefixZeroCount);
+                output.write(header.recordsRoot);
+                output.writeInt(header.recordCount);
+                output.writeLong(header.minerUserId);
+                valueCodec.write(getMinerReward(header), output);
+                output.writeLong(header.nonce);
+                output.writeUTF(header.hash);
+                output.writeLong(header.timestamp);
+                output.writeLong(header.calculationTimeMs);
+            }
+        });
+    }
+
+    /** Reads the block ID a GET_HEADERS message starts from */
+    long readFromBlockId(DataInput input) throws IOException {
+        return input.readLong();
+    }
+
+    /** Reads the number of headers a GET_HEADERS message asks for, after its block ID */
+    int readMaxCount(DataInput input) throws IOException {
+        return readCount(input);
+    }
+
+    List<BlockHeader> readHeaders(DataInput input) throws IOException {
+        int headerCount = readCount(input);
+        List<BlockHeader> headers = new ArrayList<>(headerCount);
+        for (int i = 0; i < headerCount; i++) {
+            long id = input.readLong();
+            String prevBlockHash = input.readUTF();
+            int hashPrefixZeroCount = input.readInt();
+            byte[] recordsRoot = new byte[BlockHasher.HASH_LENGTH];
+            input.readFully(recordsRoot);
+            int recordCount = input.readInt();
+            long minerUserId = input.readLong();
+            T minerReward = valueCodec.read(input);
+            long nonce = input.readLong();
+            String hash = input.readUTF();
+            long timestamp = input.readLong();
+            long calculationTimeMs = input.readLong();
+            headers.add(new BlockHeader(
+                    id, prevBlockHash, hashPrefixZeroCount, recordsRoot, recordCount, minerUserId, minerReward, nonce,
+                    hash, timestamp, calculationTimeMs
+            ));
+        }
+        return headers;
+    }
+
+    /** Gets the miner reward of the header, which comes from a blockchain of this codec's record values */
+    @SuppressWarnings("unchecked")
+    private T getMinerReward(BlockHeader header) {
+        return (T) header.minerReward;
+    }
+
+    private void writeRecords(List<Record<T>> records, DataOutput output) throws IOException {
+        output.writeInt(records.size());
+        for (Record<T> record : records) {
+            blockCodec.writeRecord(record, output);
+        }
+    }
+
+    /** Reads a count, rejecting one that cannot fit in a frame so a bad peer cannot make a huge allocation */
+    private static int readCount(DataInput input) throws IOException {
+        int count = input.readInt();
+        if (count < 0 || count > MAX_FRAME_LENGTH / Long.BYTES) {
+            throw new IOException(String.format("Invalid count %s", count));
+        }
+        return count;
+    }
+
+    /** Encodes the frame of the message, ready to be written */
+    private static ByteBuffer encode(MessageType type, PayloadWriter payloadWriter) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream output = new DataOutputStream(bytes);
+        try {
+            // The length is filled in once the payload is written
+            output.writeInt(0);
+            output.writeByte(type.id);
+            payloadWriter.write(output);
+            output.flush();
+        } catch (IOException e) {
+            throw new BlockchainException(String.format("%s message could not be encoded", type), e);
+        }
+        ByteBuffer frame = ByteBuffer.wrap(bytes.toByteArray());
+        frame.putInt(0, frame.remaining() - LENGTH_PREFIX_SIZE);
+        return frame;
+    }
+
+    /** Writes the payload of a message */
+    private interface PayloadWriter {
+        void write(DataOutput output) throws IOException;
+    }
+
+    /** The contents of a HELLO message */
+    static class Hello {
+
+        final long nodeId;
+
+        /** The ID of the tip of the node's canonical chain, or 0 if it has no blocks */
+        final long tipBlockId;
+
+        Hello(long nodeId, long tipBlockId) {
+            this.nodeId = nodeId;
+            this.tipBlockId = tipBlockId;
+        }
+    }
+}
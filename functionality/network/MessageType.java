@@ -0,0 +1,49 @@
+package functionality.network;
+
+/** The type of a message between nodes, which is the first byte of each frame */
+public enum MessageType {
+
+    /** Introduces a node and the ID of its tip to a peer when they connect */
+    HELLO((byte) 1),
+
+    /** New records for the next block */
+    RECORDS((byte) 2),
+
+    /** A new block with the short IDs of its records instead of the records themselves */
+    COMPACT_BLOCK((byte) 3),
+
+    /** Asks for the records at the given positions of a block, which were missing from its compact block */
+    GET_BLOCK_RECORDS((byte) 4),
+
+    /** The records that were asked for by GET_BLOCK_RECORDS */
+    BLOCK_RECORDS((byte) 5),
+
+    /** Asks for the whole block with the given hash */
+    GET_BLOCK((byte) 6),
+
+    /** A whole block with all of its records */
+    BLOCK((byte) 7),
+
+    /** Asks for the headers of the canonical blocks starting with the given block ID */
+    GET_HEADERS((byte) 8),
+
+    /** The headers that were asked for by GET_HEADERS, oldest first */
+    HEADERS((byte) 9);
+
+    /** The ID written at the start of the frame */
+    public final byte id;
+
+    MessageType(byte id) {
+        this.id = id;
+    }
+
+    /** Gets the message type with the ID, or returns null if there is none */
+    public static MessageType fromId(byte id) {
+        for (MessageType type : values()) {
+            if (type.id == id) {
+                return type;
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,598 @@
+package functionality.network;
+
+import blockchain.Blockchain;
+import blockchain.BlockSubmitResult;
+import blockchain.ChainListener;
+import dataentities.block.HashedBlock;
+import dataentities.block.ValidatedBlock;
+import dataentities.block.record.Record;
+import dataentities.block.record.RecordValue;
+import dataentities.exception.BlockchainException;
+import functionality.metrics.Counter;
+import functionality.metrics.MetricsRegistry;
+import functionality.storage.RecordValueCodec;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A peer-to-peer node that gossips the records and blocks of a blockchain with other nodes,
+ * and downloads the chain of peers that are ahead of it.
+ * One selector thread does all the socket reads and writes without blocking, and a single handler thread
+ * decodes the messages and passes them to the blockchain, so slow validation never holds up the sockets.
+ * Records accepted by the blockchain are relayed to every peer apart from the one they came from,
+ * and blocks are relayed as compact blocks, so a peer only fetches the records it does not already hold.
+ */
+public class Node<T extends RecordValue> implements AutoCloseable {
+
+    /** The default number of bytes that may be queued for a peer before gossip to it is dropped */
+    public static final int DEFAULT_MAX_QUEUED_BYTES = 4 * 1024 * 1024;
+
+    /** The number of records remembered by their short ID to rebuild compact blocks */
+    static final int MAX_KNOWN_RECORDS = 100_000;
+
+    /** The number of compact blocks that may wait for their missing records */
+    static final int MAX_PENDING_BLOCKS = 64;
+
+    /** The number of blocks that may wait for their previous block */
+    static final int MAX_ORPHAN_BLOCKS = 64;
+
+    /** How often requests of the sync that were not answered in time are retried */
+    static final long SYNC_RETRY_PERIOD_MS = 1000;
+
+    /** The blockchain whose records and blocks are gossiped */
+    private final Blockchain<T> blockchain;
+
+    /** Writes and reads the messages */
+    private final MessageCodec<T> codec;
+
+    /** Identifies this node, so it can tell when it has connected to itself */
+    private final long nodeId = ThreadLocalRandom.current().nextLong();
+
+    /** The number of bytes that may be queued for each peer */
+    private final int maxQueuedBytes;
+
+    private final Selector selector;
+
+    private final ServerSocketChannel serverChannel;
+
+    /** Runs the selector loop */
+    private final Thread selectorThread;
+
+    /** Handles the messages in the order they were read and relays what the blockchain adds */
+    private final ScheduledThreadPoolExecutor handler;
+
+    /** Downloads the chain of peers that are ahead. Only used on the handler thread. */
+    private final ChainSync<T> sync;
+
+    /** The work other threads hand to the selector thread, since only it may touch the peers' sockets */
+    private final Queue<Runnable> selectorTasks = new ConcurrentLinkedQueue<>();
+
+    /** The connected peers */
+    private final Set<Peer> peers = ConcurrentHashMap.newKeySet();
+
+    /** The peer whose message is being handled, so what it sent is not relayed back to it */
+    private final ThreadLocal<Peer> relaySource = new ThreadLocal<>();
+
+    /** Relays the records and blocks the blockchain adds */
+    private final ChainListener<T> relayListener = new RelayListener();
+
+    /** The records that were added or seen in blocks, keyed by their short ID. Only used on the handler thread. */
+    private final Map<Long, Record<T>> knownRecords = new LinkedHashMap<>() {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Long, Record<T>> eldest) {
+            return size() > MAX_KNOWN_RECORDS;
+        }
+    };
+
+    /** The compact blocks waiting for their missing records, keyed by their hash. Only used on the handler thread. */
+    private final Map<String, PendingBlock<T>> pendingBlocks = new LinkedHashMap<>() {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, PendingBlock<T>> eldest) {
+            return size() > MAX_PENDING_BLOCKS;
+        }
+    };
+
+    /** The blocks waiting for their previous block, keyed by its hash. Only used on the handler thread. */
+    private final Map<String, HashedBlock<T>> orphanBlocks = new LinkedHashMap<>() {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, HashedBlock<T>> eldest) {
+            return size() > MAX_ORPHAN_BLOCKS;
+        }
+    };
+
+    private final Counter receivedFrameCounter;
+
+    private final Counter receivedByteCounter;
+
+    private final Counter sentByteCounter;
+
+    /** Counts the gossip frames dropped because a peer was not reading them fast enough */
+    private final Counter droppedFrameCounter;
+
+    /** Counts the compact blocks that were rebuilt without fetching any records */
+    private final Counter reconstructedBlockCounter;
+
+    /** Counts the records that were fetched because they were missing from a compact block */
+    private final Counter missingRecordCounter;
+
+    private volatile boolean isClosed = false;
+
+    private Node(Blockchain<T> blockchain, RecordValueCodec<T> valueCodec, int port, int maxQueuedBytes)
+            throws IOException {
+        this.blockchain = blockchain;
+        this.codec = new MessageCodec<>(valueCodec);
+        this.maxQueuedBytes = maxQueuedBytes;
+        this.selector = Selector.open();
+        this.serverChannel = ServerSocketChannel.open();
+        serverChannel.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), port));
+        serverChannel.configureBlocking(false);
+        serverChannel.register(selector, SelectionKey.OP_ACCEPT);
+
+        String name = "node-" + getPort();
+        this.selectorThread = new Thread(this::runSelector, name + "-selector");
+        selectorThread.setDaemon(true);
+        // Messages are dropped once the node is closed rather than failing the blockchain's threads
+        this.handler = new ScheduledThreadPoolExecutor(1, runnable -> {
+            Thread thread = new Thread(runnable, name + "-handler");
+            thread.setDaemon(true);
+            return thread;
+        }, new ThreadPoolExecutor.DiscardPolicy());
+        this.sync = new ChainSync<>(this, blockchain, codec, name);
+        handler.scheduleWithFixedDelay(
+                sync::retryTimedOutRequests, SYNC_RETRY_PERIOD_MS, SYNC_RETRY_PERIOD_MS, TimeUnit.MILLISECONDS
+        );
+
+        MetricsRegistry metrics = MetricsRegistry.getDefault();
+        this.receivedFrameCounter = metrics.counter("network.frames.received");
+        this.receivedByteCounter = metrics.counter("network.bytes.received");
+        this.sentByteCounter = metrics.counter("network.bytes.sent");
+        this.droppedFrameCounter = metrics.counter("network.frames.dropped");
+        this.reconstructedBlockCounter = metrics.counter("network.compact_blocks.reconstructed");
+        this.missingRecordCounter = metrics.counter("network.compact_blocks.missing_records");
+    }
+
+    /** Starts a node listening on the loopback port, or on any free port if the port is 0 */
+    public static <T extends RecordValue> Node<T> start(
+            Blockchain<T> blockchain, RecordValueCodec<T> valueCodec, int port
+    ) {
+        return start(blockchain, valueCodec, port, DEFAULT_MAX_QUEUED_BYTES);
+    }
+
+    /** Starts a node listening on the loopback port, queuing at most the number of bytes for each peer */
+    public static <T extends RecordValue> Node<T> start(
+            Blockchain<T> blockchain, RecordValueCodec<T> valueCodec, int port, int maxQueuedBytes
+    ) {
+        Node<T> node;
+        try {
+            node = new Node<>(blockchain, valueCodec, port, maxQueuedBytes);
+        } catch (IOException e) {
+            throw new BlockchainException("Node could not be started", e);
+        }
+        blockchain.addListener(node.relayListener);
+        node.selectorThread.start();
+        return node;
+    }
+
+    /** Gets the port this node listens on */
+    public int getPort() {
+        return serverChannel.socket().getLocalPort();
+    }
+
+    /** Gets the address other nodes can connect to */
+    public InetSocketAddress getAddress() {
+        return new InetSocketAddress(InetAddress.getLoopbackAddress(), getPort());
+    }
+
+    /** Gets the number of peers that have introduced themselves */
+    public int getPeerCount() {
+        return (int) peers.stream().filter(peer -> peer.remoteNodeId != null).count();
+    }
+
+    /** Connects to the node at the address in the background */
+    public void connect(InetSocketAddress address) {
+        SocketChannel channel;
+        try {
+            channel = SocketChannel.open();
+            channel.configureBlocking(false);
+            channel.connect(address);
+        } catch (IOException e) {
+            throw new BlockchainException(String.format("Could not connect to %s", address), e);
+        }
+        runOnSelector(() -> {
+            try {
+                channel.register(selector, SelectionKey.OP_CONNECT);
+            } catch (IOException e) {
+                closeQuietly(channel);
+            }
+        });
+    }
+
+    /** Stops the node and disconnects from all of its peers */
+    @Override
+    public void close() {
+        isClosed = true;
+        blockchain.removeListener(relayListener);
+        selector.wakeup();
+        try {
+            selectorThread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        handler.shutdownNow();
+        sync.close();
+        for (Peer peer : peers) {
+            closeQuietly(peer.channel);
+        }
+        peers.clear();
+        closeQuietly(serverChannel);
+        closeQuietly(selector);
+    }
+
+    /** Runs the selector loop until the node is closed */
+    private void runSelector() {
+        while (!isClosed) {
+            try {
+                selector.select();
+            } catch (IOException e) {
+                throw new BlockchainException("Selector failed", e);
+            }
+
+            for (Runnable task = selectorTasks.poll(); task != null; task = selectorTasks.poll()) {
+                task.run();
+            }
+
+            Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+            while (keys.hasNext()) {
+                SelectionKey key = keys.next();
+                keys.remove();
+                try {
+                    if (key.isValid() && key.isAcceptable()) {
+                        accept();
+                    }
+                    if (key.isValid() && key.isConnectable()) {
+                        finishConnect(key);
+                    }
+                    if (key.isValid() && key.isReadable()) {
+                        read((Peer) key.attachment());
+                    }
+                    if (key.isValid() && key.isWritable()) {
+                        sentByteCounter.add(((Peer) key.attachment()).flush());
+                    }
+                } catch (IOException e) {
+                    if (key.attachment() != null) {
+                        disconnect((Peer) key.attachment());
+                    } else {
+                        key.cancel();
+                        closeQuietly(key.channel());
+                    }
+                }
+            }
+        }
+    }
+
+    private void accept() throws IOException {
+        SocketChannel channel = serverChannel.accept();
+        if (channel == null) return;
+
+        channel.configureBlocking(false);
+        addPeer(channel, channel.register(selector, 0));
+    }
+
+    private void finishConnect(SelectionKey key) throws IOException {
+        SocketChannel channel = (SocketChannel) key.channel();
+        if (channel.finishConnect()) {
+            addPeer(channel, key);
+        }
+    }
+
+    /** Starts talking to the newly connected peer, introducing this node first */
+    private void addPeer(SocketChannel channel, SelectionKey key) {
+        Peer peer = new Peer(channel, key, maxQueuedBytes);
+        key.attach(peer);
+        peers.add(peer);
+        peer.enqueue(codec.encodeHello(nodeId, blockchain.getTipBlockId()), false);
+    }
+
+    /** Reads the frames the peer sent and hands them to the handler thread */
+    private void read(Peer peer) throws IOException {
+        List<byte[]> frames = peer.read();
+        for (byte[] frame : frames) {
+            receivedFrameCounter.increment();
+            receivedByteCounter.add(MessageCodec.LENGTH_PREFIX_SIZE + frame.length);
+            handler.execute(() -> handleFrame(peer, frame));
+        }
+        // Stop reading from a peer that sends faster than its frames are handled
+        peer.updateInterestOps();
+    }
+
+    private void disconnect(Peer peer) {
+        if (!peers.remove(peer)) return;
+
+        peer.key.cancel();
+        closeQuietly(peer.channel);
+        runOnHandler(() -> sync.removePeer(peer));
+    }
+
+    /** Disconnects from the peer on the selector thread */
+    void disconnectLater(Peer peer) {
+        runOnSelector(() -> disconnect(peer));
+    }
+
+    /** Runs the task on the handler thread */
+    void runOnHandler(Runnable task) {
+        handler.execute(task);
+    }
+
+    /** Runs the task on the selector thread */
+    private void runOnSelector(Runnable task) {
+        selectorTasks.add(task);
+        selector.wakeup();
+    }
+
+    /** Queues the frame to be sent to the peer */
+    void send(Peer peer, ByteBuffer frame) {
+        runOnSelector(() -> {
+            if (peers.contains(peer)) {
+                peer.enqueue(frame, false);
+            }
+        });
+    }
+
+    /** Queues the gossip frame to be sent to every peer apart from the source, which may be null */
+    private void broadcast(ByteBuffer frame, Peer source) {
+        runOnSelector(() -> {
+            for (Peer peer : peers) {
+                if (peer != source && peer.remoteNodeId != null && !peer.enqueue(frame, true)) {
+                    droppedFrameCounter.increment();
+                }
+            }
+        });
+    }
+
+    /** Decodes and handles the frame on the handler thread, disconnecting from the peer if it is malformed */
+    private void handleFrame(Peer peer, byte[] frame) {
+        relaySource.set(peer);
+        try {
+            MessageType type = MessageType.fromId(frame[0]);
+            // Unknown messages are ignored so newer nodes can add messages
+            if (type != null) {
+                handleMessage(peer, type, new DataInputStream(new ByteArrayInputStream(frame, 1, frame.length - 1)));
+            }
+        } catch (IOException | BlockchainException | IllegalArgumentException e) {
+            disconnectLater(peer);
+        } finally {
+            relaySource.remove();
+            if (peer.frameHandled()) {
+                runOnSelector(peer::updateInterestOps);
+            }
+        }
+    }
+
+    private void handleMessage(Peer peer, MessageType type, DataInputStream input) throws IOException {
+        switch (type) {
+            case HELLO: {
+                MessageCodec.Hello hello = codec.readHello(input);
+                if (hello.nodeId == nodeId) {
+                    // Connected to itself
+                    disconnectLater(peer);
+                } else {
+                    peer.remoteNodeId = hello.nodeId;
+                    sync.onPeerTip(peer, hello.tipBlockId);
+                }
+                break;
+            }
+            case RECORDS:
+                // Accepted records are relayed by the listener
+                blockchain.tryAddRecords(codec.readRecords(input));
+                break;
+            case COMPACT_BLOCK:
+                handleCompactBlock(peer, codec.readCompactBlock(input));
+                break;
+            case GET_BLOCK_RECORDS: {
+                String blockHash = codec.readBlockHash(input);
+                int[] positions = codec.readPositions(input);
+                ValidatedBlock<T> block = blockchain.getBlockByHash(blockHash);
+                if (block == null) break;
+
+                List<Record<T>> records = new ArrayList<>(positions.length);
+                for (int position : positions) {
+                    if (position < 0 || position >= block.records.size()) {
+                        throw new IOException(String.format("Invalid record position %s", position));
+                    }
+                    records.add(block.records.get(position));
+                }
+                send(peer, codec.encodeBlockRecords(blockHash, records));
+                break;
+            }
+            case BLOCK_RECORDS:
+                handleBlockRecords(peer, codec.readBlockHash(input), codec.readRecords(input));
+                break;
+            case GET_BLOCK: {
+                ValidatedBlock<T> block = blockchain.getBlockByHash(codec.readBlockHash(input));
+                if (block != null) {
+                    send(peer, codec.encodeBlock(block));
+                }
+                break;
+            }
+            case BLOCK: {
+                HashedBlock<T> block = codec.readBlock(input);
+                if (!sync.onBlock(peer, block)) {
+                    submitBlock(peer, block, false);
+                }
+                break;
+            }
+            case GET_HEADERS: {
+                long fromBlockId = codec.readFromBlockId(input);
+                int maxCount = Math.min(codec.readMaxCount(input), ChainSync.MAX_HEADERS_PER_REQUEST);
+                send(peer, codec.encodeHeaders(blockchain.getHeaders(fromBlockId, maxCount)));
+                break;
+            }
+            case HEADERS:
+                sync.onHeaders(peer, codec.readHeaders(input));
+                break;
+        }
+    }
+
+    /** Rebuilds the block from the known records, asking the peer for any that are missing */
+    private void handleCompactBlock(Peer peer, CompactBlock<T> compactBlock) {
+        // A block far ahead of the tip means the peer has blocks this node missed, which the sync downloads
+        sync.onPeerTip(peer, compactBlock.id);
+        if (pendingBlocks.containsKey(compactBlock.hash) || blockchain.getBlockByHash(compactBlock.hash) != null) {
+            return;
+        }
+
+        List<Record<T>> records = new ArrayList<>(compactBlock.shortIds.length);
+        List<Integer> missingPositions = new ArrayList<>();
+        for (int i = 0; i < compactBlock.shortIds.length; i++) {
+            Record<T> record = knownRecords.get(compactBlock.shortIds[i]);
+            records.add(record);
+            if (record == null) {
+                missingPositions.add(i);
+            }
+        }
+
+        if (missingPositions.isEmpty()) {
+            reconstructedBlockCounter.increment();
+            submitBlock(peer, compactBlock.toBlock(records), true);
+            return;
+        }
+        int[] positions = missingPositions.stream().mapToInt(Integer::intValue).toArray();
+        pendingBlocks.put(compactBlock.hash, new PendingBlock<>(compactBlock, records, positions));
+        missingRecordCounter.add(positions.length);
+        send(peer, codec.encodeGetBlockRecords(compactBlock.hash, positions));
+    }
+
+    /** Fills in the missing records of the pending compact block and submits it */
+    private void handleBlockRecords(Peer peer, String blockHash, List<Record<T>> missingRecords) throws IOException {
+        PendingBlock<T> pendingBlock = pendingBlocks.remove(blockHash);
+        if (pendingBlock == null) return;
+
+        if (missingRecords.size() != pendingBlock.missingPositions.length) {
+            throw new IOException(String.format("Expected %s records but got %s",
+                    pendingBlock.missingPositions.length, missingRecords.size()));
+        }
+        for (int i = 0; i < missingRecords.size(); i++) {
+            pendingBlock.records.set(pendingBlock.missingPositions[i], missingRecords.get(i));
+        }
+        submitBlock(peer, pendingBlock.compactBlock.toBlock(pendingBlock.records), true);
+    }
+
+    /**
+     * Submits the block from the peer. An orphan is kept until its previous block arrives, which is asked for.
+     * A rebuilt compact block with a wrong hash may have a short ID collision, so the whole block is asked for.
+     */
+    private void submitBlock(Peer peer, HashedBlock<T> block, boolean isRebuilt) {
+        for (Record<T> record : block.records) {
+            knownRecords.put(CompactBlock.getShortId(record), record);
+        }
+
+        BlockSubmitResult result = blockchain.submitBlock(block);
+        switch (result) {
+            case ACCEPTED:
+            case SIDE_BRANCH: {
+                // Accepted blocks and side branch blocks are relayed by the listener
+                HashedBlock<T> child = orphanBlocks.remove(block.hash);
+                if (child != null) {
+                    submitBlock(peer, child, false);
+                }
+                break;
+            }
+            case ORPHAN:
+                // The sync downloads the missing blocks if it is running, otherwise they are fetched one at a time
+                orphanBlocks.put(block.prevBlockHash, block);
+                if (!sync.isActive()) {
+                    send(peer, codec.encodeGetBlock(block.prevBlockHash));
+                }
+                break;
+            case INVALID_HASH:
+                if (isRebuilt) {
+                    send(peer, codec.encodeGetBlock(block.hash));
+                }
+                break;
+            default:
+                break;
+        }
+    }
+
+    private static void closeQuietly(AutoCloseable closeable) {
+        try {
+            closeable.close();
+        } catch (Exception e) {
+            // Nothing more can be done with a connection that failed to close
+        }
+    }
+
+    /** Relays the records and blocks the blockchain adds, handing the encoding to the handler thread */
+    private class RelayListener implements ChainListener<T> {
+
+        @Override
+        public void onRecordsAdded(List<Record<T>> records) {
+            Peer source = relaySource.get();
+            handler.execute(() -> {
+                for (Record<T> record : records) {
+                    knownRecords.put(CompactBlock.getShortId(record), record);
+                }
+                broadcast(codec.encodeRecords(records), source);
+            });
+        }
+
+        @Override
+        public void onBlockAdded(ValidatedBlock<T> block) {
+            relayBlock(block);
+        }
+
+        @Override
+        public void onSideBlockAdded(ValidatedBlock<T> block) {
+            // A competing branch is relayed too, so the peers can switch to it once it has more work
+            relayBlock(block);
+        }
+
+        private void relayBlock(ValidatedBlock<T> block) {
+            // Peers that are behind download the synced blocks themselves
+            if (sync.isApplierThread()) return;
+
+            Peer source = relaySource.get();
+            handler.execute(() -> broadcast(codec.encodeCompactBlock(CompactBlock.fromBlock(block)), source));
+        }
+    }
+
+    /** A compact block waiting for its missing records */
+    private static class PendingBlock<T extends RecordValue> {
+
+        final CompactBlock<T> compactBlock;
+
+        /** The block's records, with nulls at the missing positions */
+        final List<Record<T>> records;
+
+        /** The positions of the records asked for, in the order they were asked for */
+        final int[] missingPositions;
+
+        PendingBlock(CompactBlock<T> compactBlock, List<Record<T>> records, int[] missingPositions) {
+            this.compactBlock = compactBlock;
+            this.records = records;
+            this.missingPositions = missingPositions;
+        }
+    }
+}
@@ -0,0 +1,146 @@
+package functionality.network;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A connection to another node. It splits the bytes read into frames and queues the frames to write.
+ * Reading from the peer is paused while too many of its frames wait to be handled
+ * or too many bytes wait to be written to it, so a slow or flooding peer cannot use up memory.
+ * Apart from the count of unhandled frames, a peer must only be used on the selector thread.
+ */
+class Peer {
+
+    /** The size of the read buffer, which grows to fit larger frames */
+    static final int INITIAL_READ_BUFFER_SIZE = 64 * 1024;
+
+    /** The number of frames read from the peer that may wait to be handled before reading is paused */
+    static final int MAX_UNHANDLED_FRAMES = 256;
+
+    final SocketChannel channel;
+
+    final SelectionKey key;
+
+    /** The number of bytes that may be queued before droppable frames are dropped and reading is paused */
+    private final int maxQueuedBytes;
+
+    /** The frames waiting to be written, the first of which may be partly written */
+    private final ArrayDeque<ByteBuffer> writeQueue = new ArrayDeque<>();
+
+    /** The number of frames read from the peer that have not been handled yet */
+    private final AtomicInteger unhandledFrameCount = new AtomicInteger();
+
+    /** The bytes read that do not make up a whole frame yet */
+    private ByteBuffer readBuffer = ByteBuffer.allocate(INITIAL_READ_BUFFER_SIZE);
+
+    /** The number of bytes waiting to be written */
+    private long queuedBytes = 0;
+
+    /** The ID of the node on the other end, or null until its HELLO message is handled */
+    volatile Long remoteNodeId = null;
+
+    /** The highest block ID the peer is known to have in its canonical chain */
+    volatile long remoteTipBlockId = 0;
+
+    Peer(SocketChannel channel, SelectionKey key, int maxQueuedBytes) {
+        this.channel = channel;
+        this.key = key;
+        this.maxQueuedBytes = maxQueuedBytes;
+    }
+
+    /**
+     * Reads what the peer has sent, returning the whole frames without their length.
+     * Throws an EOFException if the peer closed the connection.
+     */
+    List<byte[]> read() throws IOException {
+        if (channel.read(readBuffer) < 0) {
+            throw new EOFException("Peer closed the connection");
+        }
+
+        List<byte[]> frames = new ArrayList<>();
+        readBuffer.flip();
+        while (readBuffer.remaining() >= MessageCodec.LENGTH_PREFIX_SIZE) {
+            int length = readBuffer.getInt(readBuffer.position());
+            if (length <= 0 || length > MessageCodec.MAX_FRAME_LENGTH) {
+                throw new IOException(String.format("Invalid frame length %s", length));
+            }
+            if (readBuffer.remaining() < MessageCodec.LENGTH_PREFIX_SIZE + length) {
+                ensureReadCapacity(MessageCodec.LENGTH_PREFIX_SIZE + length);
+                break;
+            }
+            byte[] frame = new byte[length];
+            readBuffer.position(readBuffer.position() + MessageCodec.LENGTH_PREFIX_SIZE);
+            readBuffer.get(frame);
+            frames.add(frame);
+        }
+        readBuffer.compact();
+        unhandledFrameCount.addAndGet(frames.size());
+        return frames;
+    }
+
+    /** Grows the flipped read buffer so it can hold a frame of the size */
+    private void ensureReadCapacity(int frameSize) {
+        if (readBuffer.capacity() >= frameSize) return;
+
+        ByteBuffer grownBuffer = ByteBuffer.allocate(frameSize);
+        grownBuffer.put(readBuffer);
+        grownBuffer.flip();
+        readBuffer = grownBuffer;
+    }
+
+    /**
+     * Marks a frame read from the peer as handled.
+     * Returns a boolean stating whether reading was paused because of unhandled frames and can now resume.
+     * This may be called from any thread.
+     */
+    boolean frameHandled() {
+        return unhandledFrameCount.decrementAndGet() == MAX_UNHANDLED_FRAMES - 1;
+    }
+
+    /**
+     * Queues the frame to be written. A droppable frame is dropped if too many bytes are already queued,
+     * since gossip is only an optimisation and the peer can ask for what it missed.
+     * Returns a boolean stating whether the frame was queued.
+     */
+    boolean enqueue(ByteBuffer frame, boolean isDroppable) {
+        if (isDroppable && queuedBytes + frame.remaining() > maxQueuedBytes) {
+            return false;
+        }
+        // Frames are shared between peers, so each peer keeps its own position
+        writeQueue.add(frame.duplicate());
+        queuedBytes += frame.remaining();
+        updateInterestOps();
+        return true;
+    }
+
+    /** Writes as many of the queued frames as the socket accepts. Returns the number of bytes written. */
+    long flush() throws IOException {
+        long writtenBytes = 0;
+        while (!writeQueue.isEmpty()) {
+            ByteBuffer frame = writeQueue.peek();
+            writtenBytes += channel.write(frame);
+            if (frame.hasRemaining()) {
+                break;
+            }
+            writeQueue.poll();
+        }
+        queuedBytes -= writtenBytes;
+        updateInterestOps();
+        return writtenBytes;
+    }
+
+    /** Only waits to write while frames are queued, and only reads while the peer is not being held back */
+    void updateInterestOps() {
+        if (!key.isValid()) return;
+
+        boolean isReadable = queuedBytes <= maxQueuedBytes && unhandledFrameCount.get() < MAX_UNHANDLED_FRAMES;
+        key.interestOps((isReadable ? SelectionKey.OP_READ : 0) | (writeQueue.isEmpty() ? 0 : SelectionKey.OP_WRITE));
+    }
+}
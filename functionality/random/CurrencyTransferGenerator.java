@@ -10,12 +10,12 @@ public class CurrencyTransferGenerator extends RandomGenerator<CurrencyTransfer>
     static final int MAX_AMOUNT_PER_TRANSFER = 100;
 
     @Override
-    public CurrencyTransfer generate() {
+    public CurrencyTransfer generate(long creatorUserId) {
+        // Users can only send their own money
         int userCount = UserManager.getUserCountExcludingSystem();
-        long fromUserId = generateInt(UserManager.minUserId, userCount + UserManager.minUserId);
         int amount = generateInt(1, MAX_AMOUNT_PER_TRANSFER);
         long toUserId = generateInt(UserManager.minUserId, userCount + UserManager.minUserId);
 
-        return new CurrencyTransfer(fromUserId, amount, toUserId);
+        return new CurrencyTransfer(creatorUserId, amount, toUserId);
     }
 }
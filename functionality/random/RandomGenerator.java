@@ -26,6 +26,6 @@ public abstract class RandomGenerator<T> {
         return min + Math.floorMod(random.nextInt(), max - min);
     }
 
-    /** Returns new record value */
-    public abstract T generate();
+    /** Returns new record value created by the user */
+    public abstract T generate(long creatorUserId);
 }
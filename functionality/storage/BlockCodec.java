@@ -0,0 +1,151 @@
+package functionality.storage;
+
+import dataentities.block.BlockHeader;
+import dataentities.block.HashedBlock;
+import dataentities.block.MinerBlock;
+import dataentities.block.ValidatedBlock;
+import dataentities.block.record.Record;
+import dataentities.block.record.RecordValue;
+import functionality.SignatureScheme;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/** Writes and reads validated blocks in a compact binary format */
+public class BlockCodec<T extends RecordValue> {
+
+    /** The version of the encoding, which is written first and changes whenever the encoding changes */
+    static final int ENCODING_VERSION = 1;
+
+    /** Writes and reads the values of the records */
+    private final RecordValueCodec<T> valueCodec;
+
+    public BlockCodec(RecordValueCodec<T> valueCodec) {
+        this.valueCodec = valueCodec;
+    }
+
+    /** Encodes the block */
+    public byte[] encode(ValidatedBlock<T> block) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream output = new DataOutputStream(bytes);
+        output.writeByte(ENCODING_VERSION);
+        output.writeLong(block.id);
+        output.writeUTF(block.prevBlockHash);
+        output.writeInt(block.hashPrefixZeroCount);
+        output.writeLong(block.minerUserId);
+        valueCodec.write(block.minerReward, output);
+        output.writeLong(block.nonce);
+        output.writeUTF(block.hash);
+        output.writeLong(block.timestamp);
+        output.writeLong(block.calculationTimeMs);
+        output.writeInt(block.records.size());
+        for (Record<T> record : block.records) {
+            writeRecord(record, output);
+        }
+        output.flush();
+        return bytes.toByteArray();
+    }
+
+    /** Decodes a block that was encoded by this codec */
+    public ValidatedBlock<T> decode(byte[] data) throws IOException {
+        DataInputStream input = new DataInputStream(new ByteArrayInputStream(data));
+        int version = input.readUnsignedByte();
+        if (version != ENCODING_VERSION) {
+            throw new IOException(String.format("Unsupported block encoding version %s", version));
+        }
+        long id = input.readLong();
+        String prevBlockHash = input.readUTF();
+        int hashPrefixZeroCount = input.readInt();
+        long minerUserId = input.readLong();
+        T minerReward = valueCodec.read(input);
+        long nonce = input.readLong();
+        String hash = input.readUTF();
+        long timestamp = input.readLong();
+        long calculationTimeMs = input.readLong();
+        int recordCount = input.readInt();
+        List<Record<T>> records = new ArrayList<>(recordCount);
+        for (int i = 0; i < recordCount; i++) {
+            records.add(readRecord(input));
+        }
+
+        MinerBlock<T> minerBlock = new MinerBlock<>(
+                id, prevBlockHash, hashPrefixZeroCount, List.copyOf(records), minerUserId, minerReward
+        );
+        return ValidatedBlock.fromMinerBlock(
+                HashedBlock.fromMinerBlock(minerBlock, timestamp, nonce, hash), calculationTimeMs
+        );
+    }
+
+    /** Writes the header of a block encoded by this codec */
+    public void writeHeader(BlockHeader header, DataOutput output) throws IOException {
+        output.writeLong(header.id);
+        output.writeUTF(header.prevBlockHash);
+        output.writeInt(header.hashPrefixZeroCount);
+        writeBytes(header.recordsRoot, output);
+        output.writeInt(header.recordCount);
+        output.writeLong(header.minerUserId);
+        valueCodec.write(getMinerReward(header), output);
+        output.writeLong(header.nonce);
+        output.writeUTF(header.hash);
+        output.writeLong(header.timestamp);
+        output.writeLong(header.calculationTimeMs);
+    }
+
+    /** Reads a header written by this codec */
+    public BlockHeader readHeader(DataInput input) throws IOException {
+        return new BlockHeader(
+                input.readLong(), input.readUTF(), input.readInt(), readBytes(input), input.readInt(),
+                input.readLong(), valueCodec.read(input), input.readLong(), input.readUTF(), input.readLong(),
+                input.readLong()
+        );
+    }
+
+    /** Writes the record */
+    public void writeRecord(Record<T> record, DataOutput output) throws IOException {
+        output.writeLong(record.id);
+        output.writeLong(record.creatorUserId);
+        valueCodec.write(record.value, output);
+        output.writeByte(record.signatureScheme.id);
+        writeBytes(record.signature, output);
+        writeBytes(record.publicKey.getEncoded(), output);
+    }
+
+    /** Reads a record written by this codec */
+    public Record<T> readRecord(DataInput input) throws IOException {
+        long id = input.readLong();
+        long creatorUserId = input.readLong();
+        T value = valueCodec.read(input);
+        SignatureScheme signatureScheme = SignatureScheme.fromId(input.readByte());
+        byte[] signature = readBytes(input);
+        byte[] publicKey = readBytes(input);
+        return new Record<>(
+                id, creatorUserId, value, signatureScheme, signature, signatureScheme.decodePublicKey(publicKey)
+        );
+    }
+
+    /** Gets the reward of the header, which is only ever a value of this codec's type */
+    @SuppressWarnings("unchecked")
+    private T getMinerReward(BlockHeader header) {
+        return (T) header.minerReward;
+    }
+
+    /** Writes the bytes prefixed with their length */
+    static void writeBytes(byte[] bytes, DataOutput output) throws IOException {
+        output.writeShort(bytes.length);
+        output.write(bytes);
+    }
+
+    /** Reads bytes prefixed with their length */
+    static byte[] readBytes(DataInput input) throws IOException {
+        byte[] bytes = new byte[input.readUnsignedShort()];
+        input.readFully(bytes);
+        return bytes;
+    }
+}
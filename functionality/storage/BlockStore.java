@@ -0,0 +1,439 @@
+package functionality.storage;
+
+import dataentities.block.ValidatedBlock;
+import dataentities.block.record.RecordValue;
+import dataentities.exception.BlockchainException;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.CRC32C;
+
+/**
+ * An append-only store of validated blocks, written to memory-mapped segment files.
+ * Each entry is the length of the encoded block, its CRC and then the encoded block.
+ * A zero length marks the end of a segment, and one is written after each entry before the entry itself.
+ * On opening, the store is truncated at the first torn or corrupted entry, dropping the blocks after it, and
+ * whatever is left after the end is zeroed. Segments are only forced to disk every few blocks,
+ * so appending a block is usually a memory copy.
+ * Each block has a location made of its segment number and its position in the segment,
+ * which can be used to read the block back on its own.
+ */
+public class BlockStore<T extends RecordValue> implements AutoCloseable {
+
+    /** The default size of each segment file */
+    public static final int DEFAULT_SEGMENT_SIZE = 64 * 1024 * 1024;
+
+    /** The default number of blocks appended between each force to disk */
+    public static final int DEFAULT_SYNC_EVERY_BLOCKS = 8;
+
+    /** The number of bytes before each encoded block */
+    static final int ENTRY_HEADER_SIZE = Integer.BYTES * 2;
+
+    /** The file name format of the segments, numbered in the order they were created */
+    static final String SEGMENT_FILE_FORMAT = "segment-%08d.dat";
+
+    /** The directory containing the segments */
+    private final Path directory;
+
+    /** Writes and reads the blocks */
+    private final BlockCodec<T> codec;
+
+    /** The size of each segment file */
+    private final int segmentSize;
+
+    /** The number of blocks appended between each force to disk */
+    private final int syncEveryBlocks;
+
+    /** The end position of each full segment, keyed by the segment number */
+    private final Map<Integer, Integer> fullSegmentEnds = new TreeMap<>();
+
+    /** The read-only mappings of the full segments that have been read, keyed by the segment number */
+    private final Map<Integer, MappedByteBuffer> fullSegmentMappings = new HashMap<>();
+
+    /** The number of the segment being appended to */
+    private int segmentNumber;
+
+    /** The channel of the segment being appended to */
+    private FileChannel channel;
+
+    /** The mapping of the segment being appended to */
+    private MappedByteBuffer segment;
+
+    /** The number of blocks appended since the segment was last forced to disk */
+    private int unsyncedBlockCount = 0;
+
+    BlockStore(Path directory, BlockCodec<T> codec, int segmentSize, int syncEveryBlocks) {
+        this.directory = directory;
+        this.codec = codec;
+        this.segmentSize = segmentSize;
+        this.syncEveryBlocks = syncEveryBlocks;
+    }
+
+    /** Opens the store in the directory with the default segment size and sync batching */
+    public static <T extends RecordValue> BlockStore<T> open(Path directory, RecordValueCodec<T> valueCodec) {
+        return open(directory, valueCodec, DEFAULT_SEGMENT_SIZE, DEFAULT_SYNC_EVERY_BLOCKS);
+    }
+
+    /** Opens the store in the directory, creating it if it does not exist */
+    public static <T extends RecordValue> BlockStore<T> open(
+            Path directory, RecordValueCodec<T> valueCodec, int segmentSize, int syncEveryBlocks
+    ) {
+        BlockStore<T> store = new BlockStore<>(directory, new BlockCodec<>(valueCodec), segmentSize, syncEveryBlocks);
+        try {
+            Files.createDirectories(directory);
+            store.recover();
+        } catch (IOException e) {
+            throw new BlockchainException("Block store could not be opened", e);
+        }
+        return store;
+    }
+
+    /** Reads all the blocks in the order they were appended */
+    public synchronized List<ValidatedBlock<T>> readBlocks() {
+        List<ValidatedBlock<T>> blocks = new ArrayList<>();
+        forEachBlock((block, location) -> blocks.add(block));
+        return blocks;
+    }
+
+    /**
+     * Passes each block to the visitor in the order they were appended, with its location.
+     * Only one block is decoded at a time, so the blocks do not need to fit in memory together.
+     */
+    public synchronized void forEachBlock(BlockVisitor<T> visitor) {
+        visitEntriesFrom(0, 0, visitor);
+    }
+
+    /** Passes each block appended after the block at the location to the visitor, in the same way as forEachBlock */
+    public synchronized void forEachBlockAfter(long location, BlockVisitor<T> visitor) {
+        int locationSegmentNumber = (int) (location >>> 32);
+        int position = (int) location;
+        try {
+            MappedByteBuffer entries = locationSegmentNumber == segmentNumber
+                    ? segment
+                    : getFullSegment(locationSegmentNumber);
+            visitEntriesFrom(locationSegmentNumber, position + ENTRY_HEADER_SIZE + entries.getInt(position), visitor);
+        } catch (IOException e) {
+            throw new BlockchainException("Blocks could not be read from the block store", e);
+        }
+    }
+
+    /**
+     * States whether a complete entry is stored at the location.
+     * A location given before the store was truncated may be in the middle of the entries appended since.
+     */
+    public synchronized boolean contains(long location) {
+        int locationSegmentNumber = (int) (location >>> 32);
+        int position = (int) location;
+        Integer end = locationSegmentNumber == segmentNumber
+                ? Integer.valueOf(segment.position())
+                : fullSegmentEnds.get(locationSegmentNumber);
+        if (end == null || position < 0 || position + ENTRY_HEADER_SIZE > end) {
+            return false;
+        }
+        try {
+            MappedByteBuffer entries = locationSegmentNumber == segmentNumber
+                    ? segment
+                    : getFullSegment(locationSegmentNumber);
+            int length = entries.getInt(position);
+            if (length <= 0 || position + ENTRY_HEADER_SIZE + length > end) {
+                return false;
+            }
+            return crcOf(readEntry(entries, position)) == entries.getInt(position + Integer.BYTES);
+        } catch (IOException e) {
+            throw new BlockchainException(String.format("Block at %s could not be read from the block store", location), e);
+        }
+    }
+
+    /** Gets the codec the blocks are stored with */
+    public BlockCodec<T> getCodec() {
+        return codec;
+    }
+
+    /** Reads the block at the location, which was given when the block was appended or visited */
+    public synchronized ValidatedBlock<T> read(long location) {
+        int locationSegmentNumber = (int) (location >>> 32);
+        int position = (int) location;
+        try {
+            MappedByteBuffer entries = locationSegmentNumber == segmentNumber
+                    ? segment
+                    : getFullSegment(locationSegmentNumber);
+            return codec.decode(readEntry(entries, position));
+        } catch (IOException e) {
+            throw new BlockchainException(String.format("Block at %s could not be read from the block store", location), e);
+        }
+    }
+
+    /** Appends the block to the store, returning its location */
+    public synchronized long append(ValidatedBlock<T> block) {
+        try {
+            byte[] data = codec.encode(block);
+            if (ENTRY_HEADER_SIZE + data.length > segmentSize - Integer.BYTES) {
+                throw new BlockchainException("Block is too large for a block store segment");
+            }
+
+            // Keep room for the zero length that ends the segment
+            if (segment.position() + ENTRY_HEADER_SIZE + data.length > segmentSize - Integer.BYTES) {
+                segment.force();
+                channel.close();
+                fullSegmentEnds.put(segmentNumber, segment.position());
+                openSegment(segmentNumber + 1);
+            }
+
+            // End the segment after the entry first, so bytes left after it are never read as an entry.
+            // Write the length last so a torn entry is never read as a complete one.
+            int entryPosition = segment.position();
+            segment.putInt(entryPosition + ENTRY_HEADER_SIZE + data.length, 0);
+            segment.position(entryPosition + Integer.BYTES);
+            segment.putInt(crcOf(data));
+            segment.put(data);
+            segment.putInt(entryPosition, data.length);
+
+            unsyncedBlockCount++;
+            if (unsyncedBlockCount >= syncEveryBlocks) {
+                sync();
+            }
+            return toLocation(segmentNumber, entryPosition);
+        } catch (IOException e) {
+            throw new BlockchainException("Block could not be appended to the block store", e);
+        }
+    }
+
+    /**
+     * Removes the block at the location and every block appended after it, e.g. because they left the canonical chain.
+     * Segments after the location's segment are deleted and the location's segment is appended to again.
+     */
+    public synchronized void truncate(long location) {
+        int locationSegmentNumber = (int) (location >>> 32);
+        int position = (int) location;
+        try {
+            if (locationSegmentNumber != segmentNumber) {
+                if (!fullSegmentEnds.containsKey(locationSegmentNumber)) {
+                    throw new BlockchainException(
+                            String.format("Block store segment %s does not exist", locationSegmentNumber)
+                    );
+                }
+                channel.close();
+                Files.delete(getSegmentPath(segmentNumber));
+                for (int number = segmentNumber - 1; number > locationSegmentNumber; number--) {
+                    if (fullSegmentEnds.remove(number) != null) {
+                        fullSegmentMappings.remove(number);
+                        Files.delete(getSegmentPath(number));
+                    }
+                }
+                int end = fullSegmentEnds.remove(locationSegmentNumber);
+                fullSegmentMappings.remove(locationSegmentNumber);
+                openSegment(locationSegmentNumber);
+                segment.position(end);
+            }
+
+            // Zero the removed entries, so the blocks appended next are never followed by an old entry
+            for (int i = position; i < segment.position(); i++) {
+                segment.put(i, (byte) 0);
+            }
+            segment.position(position);
+            sync();
+        } catch (IOException e) {
+            throw new BlockchainException("Blocks could not be removed from the block store", e);
+        }
+    }
+
+    /** Forces the appended blocks to disk */
+    public synchronized void sync() {
+        segment.force();
+        unsyncedBlockCount = 0;
+    }
+
+    @Override
+    public synchronized void close() {
+        try {
+            sync();
+            channel.close();
+        } catch (IOException e) {
+            throw new BlockchainException("Block store could not be closed", e);
+        }
+    }
+
+    /**
+     * Checks every segment and positions the last one after its last complete entry.
+     * A torn or corrupted entry ends the store, since the blocks after it cannot follow on from the blocks before it,
+     * so the rest of its segment is zeroed and the segments after it are deleted.
+     */
+    private void recover() throws IOException {
+        List<Path> segmentPaths;
+        try (Stream<Path> paths = Files.list(directory)) {
+            segmentPaths = paths
+                    .filter(path -> path.getFileName().toString().matches("segment-\\d{8}\\.dat"))
+                    .sorted()
+                    .collect(Collectors.toList());
+        }
+
+        if (segmentPaths.isEmpty()) {
+            openSegment(1);
+            return;
+        }
+
+        for (int i = 0; i < segmentPaths.size(); i++) {
+            String fileName = segmentPaths.get(i).getFileName().toString();
+            openSegment(Integer.parseInt(fileName.substring("segment-".length(), fileName.length() - ".dat".length())));
+            boolean isIntact = checkSegment();
+            if (!isIntact || i == segmentPaths.size() - 1) {
+                // Zero what a torn append left behind, so it can never be mistaken for an entry later
+                zeroFrom(segment.position());
+                for (Path laterSegmentPath : segmentPaths.subList(i + 1, segmentPaths.size())) {
+                    Files.delete(laterSegmentPath);
+                }
+                return;
+            }
+            channel.close();
+            fullSegmentEnds.put(segmentNumber, segment.position());
+        }
+    }
+
+    /**
+     * Checks the entries of the open segment, leaving it positioned after its last complete entry.
+     * Returns false if the entries end with a torn or corrupted entry rather than a zero length.
+     */
+    private boolean checkSegment() {
+        int position = 0;
+        boolean isIntact = true;
+        while (position + ENTRY_HEADER_SIZE <= segmentSize) {
+            int length = segment.getInt(position);
+            if (length == 0) {
+                break;
+            }
+
+            boolean isComplete = length > 0 && position + ENTRY_HEADER_SIZE + length <= segmentSize;
+            if (isComplete) {
+                byte[] data = new byte[length];
+                segment.get(position + ENTRY_HEADER_SIZE, data);
+                isComplete = crcOf(data) == segment.getInt(position + Integer.BYTES);
+            }
+            if (!isComplete) {
+                isIntact = false;
+                break;
+            }
+
+            position += ENTRY_HEADER_SIZE + length;
+        }
+        segment.position(position);
+        return isIntact;
+    }
+
+    /** Decodes the entries from the position of the first segment onwards, passing each to the visitor */
+    private void visitEntriesFrom(int firstSegmentNumber, int firstPosition, BlockVisitor<T> visitor) {
+        try {
+            for (Map.Entry<Integer, Integer> segmentEnd : fullSegmentEnds.entrySet()) {
+                int number = segmentEnd.getKey();
+                if (number >= firstSegmentNumber) {
+                    int start = number == firstSegmentNumber ? firstPosition : 0;
+                    visitEntries(number, getFullSegment(number), start, segmentEnd.getValue(), visitor);
+                }
+            }
+            int start = segmentNumber == firstSegmentNumber ? firstPosition : 0;
+            visitEntries(segmentNumber, segment, start, segment.position(), visitor);
+        } catch (IOException e) {
+            throw new BlockchainException("Blocks could not be read from the block store", e);
+        }
+    }
+
+    /** Decodes the checked entries of the segment between the positions, passing each to the visitor */
+    private void visitEntries(
+            int entriesSegmentNumber, MappedByteBuffer entries, int start, int end, BlockVisitor<T> visitor
+    ) throws IOException {
+        int position = start;
+        while (position < end) {
+            byte[] data = readEntry(entries, position);
+            visitor.visit(codec.decode(data), toLocation(entriesSegmentNumber, position));
+            position += ENTRY_HEADER_SIZE + data.length;
+        }
+    }
+
+    /** Reads the encoded block of the checked entry at the position */
+    private static byte[] readEntry(MappedByteBuffer entries, int position) {
+        byte[] data = new byte[entries.getInt(position)];
+        entries.get(position + ENTRY_HEADER_SIZE, data);
+        return data;
+    }
+
+    /** Gets the read-only mapping of the full segment with the number, mapping it if it has not been read */
+    private MappedByteBuffer getFullSegment(int number) throws IOException {
+        MappedByteBuffer mapping = fullSegmentMappings.get(number);
+        if (mapping == null) {
+            Integer end = fullSegmentEnds.get(number);
+            if (end == null) {
+                throw new IOException(String.format("Block store segment %s does not exist", number));
+            }
+            try (FileChannel fullChannel = FileChannel.open(getSegmentPath(number), StandardOpenOption.READ)) {
+                mapping = fullChannel.map(FileChannel.MapMode.READ_ONLY, 0, end);
+            }
+            fullSegmentMappings.put(number, mapping);
+        }
+        return mapping;
+    }
+
+    /** Combines the segment number and the position of an entry into its location */
+    private static long toLocation(int segmentNumber, int position) {
+        return (long) segmentNumber << 32 | position;
+    }
+
+    /** Zeroes the open segment from the position to its end, only writing the bytes that are not zero already */
+    private void zeroFrom(int position) {
+        boolean isChanged = false;
+        int i = position;
+        for (; i + Long.BYTES <= segmentSize; i += Long.BYTES) {
+            if (segment.getLong(i) != 0) {
+                segment.putLong(i, 0);
+                isChanged = true;
+            }
+        }
+        for (; i < segmentSize; i++) {
+            if (segment.get(i) != 0) {
+                segment.put(i, (byte) 0);
+                isChanged = true;
+            }
+        }
+        if (isChanged) {
+            segment.force();
+        }
+    }
+
+    /** Opens and maps the segment with the number, creating it if it does not exist */
+    private void openSegment(int number) throws IOException {
+        segmentNumber = number;
+        channel = FileChannel.open(
+                getSegmentPath(number),
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE
+        );
+        segment = channel.map(FileChannel.MapMode.READ_WRITE, 0, segmentSize);
+    }
+
+    /** Gets the path of the segment with the number */
+    private Path getSegmentPath(int number) {
+        return directory.resolve(String.format(SEGMENT_FILE_FORMAT, number));
+    }
+
+    /** Calculates the CRC of the data */
+    private static int crcOf(byte[] data) {
+        CRC32C crc = new CRC32C();
+        crc.update(data);
+        return (int) crc.getValue();
+    }
+
+    /** Receives the stored blocks with their locations */
+    public interface BlockVisitor<T extends RecordValue> {
+
+        /** Receives the block stored at the location */
+        void visit(ValidatedBlock<T> block, long location);
+    }
+}
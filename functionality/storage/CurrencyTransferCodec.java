@@ -0,0 +1,42 @@
+package functionality.storage;
+
+import dataentities.block.record.CurrencyTransfer;
+import dataentities.block.record.CurrencyTransferReward;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+/** Writes and reads currency transfers, including miner rewards */
+public class CurrencyTransferCodec implements RecordValueCodec<CurrencyTransfer> {
+
+    /** Marks a transfer between users */
+    static final byte TRANSFER_TYPE = 0;
+
+    /** Marks a reward to a miner */
+    static final byte REWARD_TYPE = 1;
+
+    @Override
+    public void write(CurrencyTransfer value, DataOutput output) throws IOException {
+        output.writeByte(value instanceof CurrencyTransferReward ? REWARD_TYPE : TRANSFER_TYPE);
+        output.writeLong(value.fromUserId);
+        output.writeInt(value.amount);
+        output.writeLong(value.toUserId);
+    }
+
+    @Override
+    public CurrencyTransfer read(DataInput input) throws IOException {
+        byte type = input.readByte();
+        long fromUserId = input.readLong();
+        int amount = input.readInt();
+        long toUserId = input.readLong();
+        switch (type) {
+            case TRANSFER_TYPE:
+                return new CurrencyTransfer(fromUserId, amount, toUserId);
+            case REWARD_TYPE:
+                return new CurrencyTransferReward(fromUserId, amount, toUserId);
+            default:
+                throw new IOException(String.format("Unknown currency transfer type %s", type));
+        }
+    }
+}
@@ -0,0 +1,17 @@
+package functionality.storage;
+
+import dataentities.block.record.RecordValue;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+/** Writes and reads record values in a compact binary format */
+public interface RecordValueCodec<T extends RecordValue> {
+
+    /** Writes the record value */
+    void write(T value, DataOutput output) throws IOException;
+
+    /** Reads a record value that was written by this codec */
+    T read(DataInput input) throws IOException;
+}
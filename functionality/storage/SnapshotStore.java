@@ -0,0 +1,155 @@
+package functionality.storage;
+
+import dataentities.exception.BlockchainException;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.CRC32C;
+
+/**
+ * Stores snapshots of the state derived from the blocks, each named after the last block it includes.
+ * Snapshots are written in the background to a temporary file and then moved into place,
+ * and each one is checked with a CRC when it is read.
+ */
+public class SnapshotStore implements AutoCloseable {
+
+    /** The default number of blocks between each snapshot */
+    public static final int DEFAULT_SNAPSHOT_EVERY_BLOCKS = 100;
+
+    /** The number of snapshots kept, so an older one can be used if the newest is unusable */
+    static final int KEPT_SNAPSHOT_COUNT = 2;
+
+    /** The file name format of the snapshots */
+    static final String SNAPSHOT_FILE_FORMAT = "snapshot-%016d.bin";
+
+    private static final System.Logger logger = System.getLogger(SnapshotStore.class.getName());
+
+    /** The directory containing the snapshots */
+    private final Path directory;
+
+    /** The number of blocks between each snapshot */
+    private final int snapshotEveryBlocks;
+
+    /** Writes the snapshots in the order they were taken */
+    private final ExecutorService writer = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "snapshot-writer");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    SnapshotStore(Path directory, int snapshotEveryBlocks) {
+        this.directory = directory;
+        this.snapshotEveryBlocks = snapshotEveryBlocks;
+    }
+
+    /** Opens the store in the directory with the default snapshot interval */
+    public static SnapshotStore open(Path directory) {
+        return open(directory, DEFAULT_SNAPSHOT_EVERY_BLOCKS);
+    }
+
+    /** Opens the store in the directory, creating it if it does not exist */
+    public static SnapshotStore open(Path directory, int snapshotEveryBlocks) {
+        try {
+            Files.createDirectories(directory);
+        } catch (IOException e) {
+            throw new BlockchainException("Snapshot store could not be opened", e);
+        }
+        return new SnapshotStore(directory, snapshotEveryBlocks);
+    }
+
+    /** States whether a snapshot should be taken after adding the block with the ID */
+    public boolean isSnapshotDue(long blockId) {
+        return blockId % snapshotEveryBlocks == 0;
+    }
+
+    /** Gets the IDs of the last blocks of the stored snapshots, newest first */
+    public List<Long> getSnapshotBlockIds() {
+        try (Stream<Path> paths = Files.list(directory)) {
+            return paths
+                    .map(path -> path.getFileName().toString())
+                    .filter(fileName -> fileName.matches("snapshot-\\d{16}\\.bin"))
+                    .map(fileName -> fileName.substring("snapshot-".length(), fileName.length() - ".bin".length()))
+                    .map(Long::parseLong)
+                    .sorted(Comparator.reverseOrder())
+                    .collect(Collectors.toList());
+        } catch (IOException e) {
+            throw new BlockchainException("Snapshots could not be listed", e);
+        }
+    }
+
+    /** Reads the snapshot whose last block has the ID, or null if it is missing or corrupted */
+    public byte[] read(long blockId) {
+        byte[] file;
+        try {
+            file = Files.readAllBytes(getSnapshotPath(blockId));
+        } catch (IOException e) {
+            return null;
+        }
+        if (file.length < Integer.BYTES) {
+            return null;
+        }
+
+        ByteBuffer buffer = ByteBuffer.wrap(file);
+        int crc = buffer.getInt();
+        byte[] data = new byte[buffer.remaining()];
+        buffer.get(data);
+        return crcOf(data) == crc ? data : null;
+    }
+
+    /** Writes the snapshot in the background, then removes the oldest snapshots */
+    public void write(long blockId, byte[] data) {
+        writer.submit(() -> {
+            try {
+                Path path = getSnapshotPath(blockId);
+                Path temporaryPath = path.resolveSibling(path.getFileName() + ".tmp");
+                Files.write(temporaryPath, ByteBuffer.allocate(Integer.BYTES + data.length)
+                        .putInt(crcOf(data))
+                        .put(data)
+                        .array());
+                Files.move(temporaryPath, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+                List<Long> blockIds = getSnapshotBlockIds();
+                for (Long oldBlockId : blockIds.subList(Math.min(KEPT_SNAPSHOT_COUNT, blockIds.size()), blockIds.size())) {
+                    Files.deleteIfExists(getSnapshotPath(oldBlockId));
+                }
+            } catch (IOException e) {
+                // A missing snapshot only makes the next start slower, so the blockchain carries on without it
+                logger.log(System.Logger.Level.WARNING,
+                        String.format("Snapshot of block %s could not be written", blockId), e);
+            }
+        });
+    }
+
+    /** Waits for the snapshots being written */
+    @Override
+    public void close() {
+        writer.shutdown();
+        try {
+            writer.awaitTermination(1, TimeUnit.MINUTES);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /** Gets the path of the snapshot whose last block has the ID */
+    private Path getSnapshotPath(long blockId) {
+        return directory.resolve(String.format(SNAPSHOT_FILE_FORMAT, blockId));
+    }
+
+    /** Calculates the CRC of the data */
+    private static int crcOf(byte[] data) {
+        CRC32C crc = new CRC32C();
+        crc.update(data);
+        return (int) crc.getValue();
+    }
+}
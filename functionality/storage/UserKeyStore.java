@@ -0,0 +1,87 @@
+package functionality.storage;
+
+import dataentities.exception.BlockchainException;
+import dataentities.user.User;
+import functionality.SignatureScheme;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.security.PrivateKey;
+
+/**
+ * Stores the private keys of the local users apart from the blocks and snapshots, so those never hold a secret.
+ * Each key is kept in its own file, which only the owner can read where the file system supports it.
+ */
+public class UserKeyStore {
+
+    /** The file name format of the keys */
+    static final String KEY_FILE_FORMAT = "user-%d.key";
+
+    /** The directory containing the keys */
+    private final Path directory;
+
+    UserKeyStore(Path directory) {
+        this.directory = directory;
+    }
+
+    /** Opens the store in the directory, creating it if it does not exist */
+    public static UserKeyStore open(Path directory) {
+        try {
+            Files.createDirectories(directory);
+        } catch (IOException e) {
+            throw new BlockchainException("User key store could not be opened", e);
+        }
+        return new UserKeyStore(directory);
+    }
+
+    /** Writes the private key of the user, replacing any key it had before */
+    public void write(User user) {
+        byte[] encodedKey = user.privateKey.getEncoded();
+        byte[] data = ByteBuffer.allocate(1 + encodedKey.length)
+                .put(user.signatureScheme.id)
+                .put(encodedKey)
+                .array();
+
+        Path path = getKeyPath(user.id);
+        Path temporaryPath = path.resolveSibling(path.getFileName() + ".tmp");
+        try {
+            Files.deleteIfExists(temporaryPath);
+            if (FileSystems.getDefault().supportedFileAttributeViews().contains("posix")) {
+                Files.createFile(temporaryPath, PosixFilePermissions.asFileAttribute(PosixFilePermissions.fromString("rw-------")));
+            }
+            Files.write(temporaryPath, data);
+            Files.move(temporaryPath, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            throw new BlockchainException(String.format("Private key of user %s could not be written", user.id), e);
+        }
+    }
+
+    /** Reads the private key of the user with the ID, or returns null if it is not stored */
+    public PrivateKey read(long userId) {
+        byte[] data;
+        try {
+            data = Files.readAllBytes(getKeyPath(userId));
+        } catch (NoSuchFileException e) {
+            return null;
+        } catch (IOException e) {
+            throw new BlockchainException(String.format("Private key of user %s could not be read", userId), e);
+        }
+
+        ByteBuffer buffer = ByteBuffer.wrap(data);
+        SignatureScheme signatureScheme = SignatureScheme.fromId(buffer.get());
+        byte[] encodedKey = new byte[buffer.remaining()];
+        buffer.get(encodedKey);
+        return signatureScheme.decodePrivateKey(encodedKey);
+    }
+
+    /** Gets the path of the key of the user with the ID */
+    private Path getKeyPath(long userId) {
+        return directory.resolve(String.format(KEY_FILE_FORMAT, userId));
+    }
+}
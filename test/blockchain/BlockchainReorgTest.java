@@ -0,0 +1,140 @@
+package blockchain;
+
+import dataentities.block.HashedBlock;
+import dataentities.block.MinerBlock;
+import dataentities.block.ValidatedBlock;
+import dataentities.block.record.CurrencyTransfer;
+import dataentities.block.record.Record;
+import dataentities.user.User;
+import functionality.BlockHasher;
+import functionality.MiningKernel;
+import functionality.MiningKernels;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class BlockchainReorgTest {
+
+    private CurrencyBlockchain blockchain;
+
+    private User sender;
+
+    private User receiver;
+
+    private User miner;
+
+    /** The hashes of the blocks the listener was told became canonical, in the order it was told */
+    private final List<String> addedBlockHashes = new ArrayList<>();
+
+    /** The timestamp of the next mined block, which increases so each block is after the blocks it follows */
+    private long nextTimestamp = System.currentTimeMillis() - 60_000;
+
+    @BeforeEach
+    void setUp() {
+        blockchain = new CurrencyBlockchain(0, 1);
+        sender = UserManager.generateNewUser();
+        receiver = UserManager.generateNewUser();
+        miner = UserManager.generateNewUser();
+        blockchain.addListener(new ChainListener<>() {
+            @Override
+            public void onBlockAdded(ValidatedBlock<CurrencyTransfer> block) {
+                addedBlockHashes.add(block.hash);
+            }
+        });
+    }
+
+    @Test
+    void heavierBranchBecomesCanonicalAndReturnsRevertedRecords() {
+        Record<CurrencyTransfer> firstTransfer = transfer(10, 1);
+        Record<CurrencyTransfer> secondTransfer = transfer(20, 2);
+        HashedBlock<CurrencyTransfer> block1 = mine(1, "0", List.of(firstTransfer));
+        HashedBlock<CurrencyTransfer> block2 = mine(2, block1.hash, List.of(secondTransfer));
+        assertEquals(BlockSubmitResult.ACCEPTED, blockchain.submitBlock(block1));
+        assertEquals(BlockSubmitResult.ACCEPTED, blockchain.submitBlock(block2));
+        assertEquals(130, blockchain.getUserBalance(receiver.id));
+
+        HashedBlock<CurrencyTransfer> branchBlock2 = mine(2, block1.hash, List.of());
+        HashedBlock<CurrencyTransfer> branchBlock3 = mine(3, branchBlock2.hash, List.of());
+        assertEquals(BlockSubmitResult.SIDE_BRANCH, blockchain.submitBlock(branchBlock2));
+        assertEquals(BlockSubmitResult.ACCEPTED, blockchain.submitBlock(branchBlock3));
+
+        assertEquals(List.of(block1.hash, branchBlock2.hash, branchBlock3.hash), getCanonicalHashes());
+        assertEquals(110, blockchain.getUserBalance(receiver.id));
+        assertTrue(blockchain.blocksAreValid());
+
+        // The reverted transfer goes back to the next block, keeping its record ID
+        assertEquals(List.of(secondTransfer), blockchain.getNextBlockTemplate(miner.id).block.records);
+        assertEquals(3, blockchain.getNextRecordId(sender.id));
+
+        assertEquals(List.of(block1.hash, block2.hash, branchBlock2.hash, branchBlock3.hash), addedBlockHashes);
+    }
+
+    @Test
+    void branchWithInvalidRecordsIsDroppedAndCanonicalChainKept() {
+        HashedBlock<CurrencyTransfer> block1 = mine(1, "0", List.of(transfer(10, 1)));
+        HashedBlock<CurrencyTransfer> block2 = mine(2, block1.hash, List.of());
+        assertEquals(BlockSubmitResult.ACCEPTED, blockchain.submitBlock(block1));
+        assertEquals(BlockSubmitResult.ACCEPTED, blockchain.submitBlock(block2));
+
+        // The sender cannot afford the branch's transfer, which is only found once the branch is applied
+        HashedBlock<CurrencyTransfer> branchBlock2 = mine(2, block1.hash, List.of(transfer(1000, 2)));
+        HashedBlock<CurrencyTransfer> branchBlock3 = mine(3, branchBlock2.hash, List.of());
+        assertEquals(BlockSubmitResult.SIDE_BRANCH, blockchain.submitBlock(branchBlock2));
+        assertEquals(BlockSubmitResult.INVALID_RECORDS, blockchain.submitBlock(branchBlock3));
+
+        assertEquals(List.of(block1.hash, block2.hash), getCanonicalHashes());
+        assertEquals(110, blockchain.getUserBalance(receiver.id));
+        assertEquals(2, blockchain.getNextRecordId(sender.id));
+        assertTrue(blockchain.blocksAreValid());
+        assertEquals(List.of(block1.hash, block2.hash), addedBlockHashes);
+
+        // The dropped branch is forgotten, so it is not built on again
+        assertEquals(BlockSubmitResult.ORPHAN, blockchain.submitBlock(mine(4, branchBlock3.hash, List.of())));
+    }
+
+    @Test
+    void branchWithLessWorkStaysSideBranch() {
+        HashedBlock<CurrencyTransfer> block1 = mine(1, "0", List.of());
+        HashedBlock<CurrencyTransfer> block2 = mine(2, block1.hash, List.of());
+        assertEquals(BlockSubmitResult.ACCEPTED, blockchain.submitBlock(block1));
+        assertEquals(BlockSubmitResult.ACCEPTED, blockchain.submitBlock(block2));
+
+        // A branch with as much work as the canonical chain does not replace it
+        HashedBlock<CurrencyTransfer> branchBlock2 = mine(2, block1.hash, List.of(transfer(10, 1)));
+        assertEquals(BlockSubmitResult.SIDE_BRANCH, blockchain.submitBlock(branchBlock2));
+        assertEquals(BlockSubmitResult.STALE, blockchain.submitBlock(branchBlock2));
+
+        assertEquals(List.of(block1.hash, block2.hash), getCanonicalHashes());
+        assertEquals(100, blockchain.getUserBalance(receiver.id));
+    }
+
+    /** Mines a block on top of the block with the previous hash, rewarding the miner as the blockchain does */
+    private HashedBlock<CurrencyTransfer> mine(long id, String prevBlockHash, List<Record<CurrencyTransfer>> records) {
+        MinerBlock<CurrencyTransfer> block = new MinerBlock<>(
+                id, prevBlockHash, 0, records, miner.id, blockchain.getMinerReward(miner.id)
+        );
+        MiningKernel kernel = MiningKernels.create(block.prevBlockHash, block.contentRoot);
+        long timestamp = nextTimestamp++;
+        kernel.setTimestamp(timestamp);
+        byte[] hash = new byte[BlockHasher.HASH_LENGTH];
+        kernel.hash(0, hash);
+        return HashedBlock.fromMinerBlock(block, timestamp, 0, BlockHasher.encodeHash(hash));
+    }
+
+    /** Creates a signed transfer of the amount from the sender to the receiver */
+    private Record<CurrencyTransfer> transfer(int amount, long recordId) {
+        CurrencyTransfer value = new CurrencyTransfer(sender.id, amount, receiver.id);
+        return new Record<>(
+                recordId, sender.id, value, sender.signatureScheme, sender.getSignature(value, recordId), sender.publicKey
+        );
+    }
+
+    private List<String> getCanonicalHashes() {
+        return blockchain.getHeaders(1, Integer.MAX_VALUE).stream().map(header -> header.hash).toList();
+    }
+}
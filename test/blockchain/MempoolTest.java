@@ -0,0 +1,190 @@
+package blockchain;
+
+import dataentities.block.BlockData;
+import dataentities.block.HashedBlock;
+import dataentities.block.MinerBlock;
+import dataentities.block.record.CurrencyTransfer;
+import dataentities.block.record.Record;
+import dataentities.user.User;
+import functionality.BlockHasher;
+import functionality.MiningKernel;
+import functionality.MiningKernels;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class MempoolTest {
+
+    /** The number of threads adding the records of one creator at once */
+    private static final int THREAD_COUNT = 8;
+
+    private final User creator = UserManager.generateNewUser();
+
+    private final User receiver = UserManager.generateNewUser();
+
+    @Test
+    void claimsOnlyTheNextRecordIdOfEachCreator() {
+        Mempool<CurrencyTransfer> mempool = new Mempool<>(
+                new ChainState<>(new BlockData<>(1, "0", 0, List.of()), 0)
+        );
+        Record<CurrencyTransfer> first = transfer(creator, 1);
+        Record<CurrencyTransfer> second = transfer(creator, 2);
+        Record<CurrencyTransfer> duplicate = transfer(creator, 2);
+        Record<CurrencyTransfer> gap = transfer(creator, 4);
+        Record<CurrencyTransfer> otherCreator = transfer(receiver, 1);
+
+        List<Record<CurrencyTransfer>> rejected = new ArrayList<>();
+        List<Record<CurrencyTransfer>> appended = mempool.tryClaimAndAppend(
+                List.of(first, otherCreator, second, duplicate, gap), rejected
+        );
+
+        assertEquals(List.of(first, otherCreator, second), appended);
+        assertEquals(List.of(duplicate, gap), rejected);
+        assertEquals(List.of(first, otherCreator, second), mempool.getSnapshot().records);
+        assertEquals(3, mempool.getNextRecordId(creator.id));
+        assertEquals(2, mempool.getNextRecordId(receiver.id));
+    }
+
+    @Test
+    void concurrentlyClaimedRecordsAreAppendedInIdOrder() throws Exception {
+        Mempool<CurrencyTransfer> mempool = new Mempool<>(
+                new ChainState<>(new BlockData<>(1, "0", 0, List.of()), 0)
+        );
+        List<Record<CurrencyTransfer>> records = createTransfers(creator, 2000);
+
+        // Every thread races to add each next record, so the IDs are claimed from many threads at once
+        runOnThreads(() -> {
+            List<Record<CurrencyTransfer>> rejected = new ArrayList<>();
+            long nextRecordId;
+            while ((nextRecordId = mempool.getNextRecordId(creator.id)) <= records.size()) {
+                mempool.tryClaimAndAppend(List.of(records.get((int) nextRecordId - 1)), rejected);
+            }
+        });
+
+        assertEquals(records, mempool.getSnapshot().records);
+    }
+
+    @Test
+    void concurrentlyAddedRecordsMakeAValidBlock() throws Exception {
+        CurrencyBlockchain blockchain = new CurrencyBlockchain(0, 1);
+        List<Record<CurrencyTransfer>> records = createTransfers(creator, 100);
+
+        runOnThreads(() -> {
+            long nextRecordId;
+            while ((nextRecordId = blockchain.getNextRecordId(creator.id)) <= records.size()) {
+                blockchain.tryAddRecord(records.get((int) nextRecordId - 1));
+            }
+        });
+
+        // The block's records are applied in order, so it is only accepted if each creator's records are in ID order
+        MinerBlock<CurrencyTransfer> block = blockchain.getNextBlockTemplate(receiver.id).block;
+        assertEquals(records, block.records);
+        assertEquals(BlockSubmitResult.ACCEPTED, blockchain.submitBlock(mine(block)));
+        assertEquals(CurrencyBlockchain.STARTING_USER_BALANCE - records.size(), blockchain.getUserBalance(creator.id));
+    }
+
+    @Test
+    void recordReplayedAsAnotherCreatorsIsRejected() {
+        CurrencyBlockchain blockchain = new CurrencyBlockchain(0, 1);
+        Record<CurrencyTransfer> record = transfer(creator, 1);
+        assertTrue(blockchain.tryAddRecord(record));
+
+        // The receiver's next record ID is also 1, but the signature covers the creator it was made for
+        Record<CurrencyTransfer> replayedRecord = new Record<>(
+                record.id, receiver.id, record.value, record.signatureScheme, record.signature, record.publicKey
+        );
+        assertFalse(replayedRecord.hasValidSignature());
+        assertFalse(blockchain.tryAddRecord(replayedRecord));
+        assertEquals(1, blockchain.getNextRecordId(receiver.id));
+    }
+
+    @Test
+    void recordSignedWithAnotherUsersKeyIsRejected() {
+        CurrencyBlockchain blockchain = new CurrencyBlockchain(0, 1);
+        CurrencyTransfer value = new CurrencyTransfer(creator.id, 50, receiver.id);
+        byte[] signature = receiver.signatureScheme.sign(
+                Record.getSignatureData(creator.id, value, 1), receiver.privateKey
+        );
+        Record<CurrencyTransfer> forgedRecord = new Record<>(
+                1, creator.id, value, receiver.signatureScheme, signature, receiver.publicKey
+        );
+
+        // The signature is valid for the key it carries, but that is not the creator's registered key
+        assertTrue(forgedRecord.hasValidSignature());
+        assertFalse(blockchain.tryAddRecord(forgedRecord));
+        assertEquals(1, blockchain.getNextRecordId(creator.id));
+    }
+
+    @Test
+    void transfersFromOtherUsersOrTheSystemAreRejected() {
+        CurrencyBlockchain blockchain = new CurrencyBlockchain(0, 1);
+        Record<CurrencyTransfer> fromOtherUser = signedBy(creator, 1, new CurrencyTransfer(receiver.id, 50, creator.id));
+        Record<CurrencyTransfer> fromSystem = signedBy(
+                creator, 1, new CurrencyTransfer(UserManager.SystemUser.id, 50, creator.id)
+        );
+        assertFalse(blockchain.tryAddRecord(fromOtherUser));
+        assertFalse(blockchain.tryAddRecord(fromSystem));
+
+        // A block holding such a transfer is rejected too
+        MinerBlock<CurrencyTransfer> block = new MinerBlock<>(
+                1, "0", 0, List.of(fromSystem), receiver.id, blockchain.getMinerReward(receiver.id)
+        );
+        assertEquals(BlockSubmitResult.INVALID_RECORDS, blockchain.submitBlock(mine(block)));
+        assertEquals(CurrencyBlockchain.STARTING_USER_BALANCE, blockchain.getUserBalance(creator.id));
+    }
+
+    /** Runs the task on many threads at once, waiting for all of them and failing if any of them failed */
+    private static void runOnThreads(Runnable task) throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(THREAD_COUNT);
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int i = 0; i < THREAD_COUNT; i++) {
+                futures.add(executor.submit(task));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    /** Creates the first records of the user, each sending one unit of currency */
+    private List<Record<CurrencyTransfer>> createTransfers(User user, int count) {
+        List<Record<CurrencyTransfer>> records = new ArrayList<>(count);
+        for (long recordId = Mempool.FIRST_RECORD_ID; records.size() < count; recordId++) {
+            records.add(transfer(user, recordId));
+        }
+        return records;
+    }
+
+    /** Creates a signed transfer of one unit of currency from the user */
+    private Record<CurrencyTransfer> transfer(User user, long recordId) {
+        return signedBy(user, recordId, new CurrencyTransfer(user.id, 1, user == receiver ? creator.id : receiver.id));
+    }
+
+    /** Creates a record of the value, created and signed by the user */
+    private static Record<CurrencyTransfer> signedBy(User user, long recordId, CurrencyTransfer value) {
+        return new Record<>(
+                recordId, user.id, value, user.signatureScheme, user.getSignature(value, recordId), user.publicKey
+        );
+    }
+
+    /** Hashes the block at a zero count of 0, which any hash meets */
+    private static HashedBlock<CurrencyTransfer> mine(MinerBlock<CurrencyTransfer> block) {
+        MiningKernel kernel = MiningKernels.create(block.prevBlockHash, block.contentRoot);
+        long timestamp = System.currentTimeMillis();
+        kernel.setTimestamp(timestamp);
+        byte[] hash = new byte[BlockHasher.HASH_LENGTH];
+        kernel.hash(0, hash);
+        return HashedBlock.fromMinerBlock(block, timestamp, 0, BlockHasher.encodeHash(hash));
+    }
+}
@@ -0,0 +1,117 @@
+package blockchain;
+
+import dataentities.block.HashedBlock;
+import dataentities.block.MinerBlock;
+import dataentities.block.record.CurrencyTransfer;
+import dataentities.block.record.LocatedRecord;
+import dataentities.block.record.Record;
+import dataentities.block.record.RecordPage;
+import dataentities.user.User;
+import functionality.BlockHasher;
+import functionality.MiningKernel;
+import functionality.MiningKernels;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class RecordPageTest {
+
+    private CurrencyBlockchain blockchain;
+
+    private User sender;
+
+    private User miner;
+
+    /** The timestamp of the next mined block, which increases so each block is after the blocks it follows */
+    private long nextTimestamp = System.currentTimeMillis() - 60_000;
+
+    @BeforeEach
+    void setUp() {
+        blockchain = new CurrencyBlockchain(0, 1);
+        sender = UserManager.generateNewUser();
+        miner = UserManager.generateNewUser();
+    }
+
+    @Test
+    void userPagesLeaveOutRewards() {
+        mineRecords(List.of(transfer(10, 1)));
+        mineRecords(List.of());
+
+        // The miner was paid two rewards, but only the transfer is one of their records
+        RecordPage<CurrencyTransfer> page = blockchain.getUserRecordPage(miner.id, RecordPage.FIRST_CURSOR, 10);
+        assertEquals(1, page.records.size());
+        assertEquals(1, page.records.get(0).blockId);
+        assertFalse(page.hasNextPage());
+        assertEquals(CurrencyBlockchain.STARTING_USER_BALANCE + 210, blockchain.getUserBalance(miner.id));
+    }
+
+    @Test
+    void userPagesRejectCursorsOutsideTheRecords() {
+        mineRecords(List.of(transfer(10, 1), transfer(20, 2)));
+
+        RecordPage<CurrencyTransfer> firstPage = blockchain.getUserRecordPage(sender.id, RecordPage.FIRST_CURSOR, 1);
+        RecordPage<CurrencyTransfer> lastPage = blockchain.getUserRecordPage(sender.id, firstPage.nextCursor, 1);
+        assertEquals(2, lastPage.records.get(0).record.id);
+        assertFalse(lastPage.hasNextPage());
+
+        assertThrows(IllegalArgumentException.class, () -> blockchain.getUserRecordPage(sender.id, -1, 1));
+        assertThrows(IllegalArgumentException.class, () -> blockchain.getUserRecordPage(sender.id, 3, 1));
+        assertThrows(IllegalArgumentException.class, () -> blockchain.getUserRecordPage(sender.id, 0, 0));
+    }
+
+    @Test
+    void blockPagesRejectCursorsOutsideTheBlocks() {
+        mineRecords(List.of(transfer(10, 1)));
+        mineRecords(List.of(transfer(20, 2), transfer(30, 3)));
+
+        List<Long> recordIds = blockchain.streamBlockRecords(1, 2)
+                .map(located -> located.record.id)
+                .toList();
+        assertEquals(List.of(1L, 2L, 3L), recordIds);
+
+        RecordPage<CurrencyTransfer> page = blockchain.getBlockRecordPage(1, 2, RecordPage.FIRST_CURSOR, 2);
+        LocatedRecord<CurrencyTransfer> last = blockchain.getBlockRecordPage(1, 2, page.nextCursor, 2).records.get(0);
+        assertEquals(3, last.record.id);
+
+        assertThrows(IllegalArgumentException.class, () -> blockchain.getBlockRecordPage(1, 2, -1, 2));
+        assertThrows(
+                IllegalArgumentException.class,
+                () -> blockchain.getBlockRecordPage(1, 2, RecordIndex.getLocation(3, 0), 2)
+        );
+        assertThrows(
+                IllegalArgumentException.class,
+                () -> blockchain.getBlockRecordPage(1, 2, RecordIndex.getLocation(1, 5), 2)
+        );
+    }
+
+    /** Adds the records and mines the next block with them */
+    private void mineRecords(List<Record<CurrencyTransfer>> records) {
+        for (Record<CurrencyTransfer> record : records) {
+            blockchain.tryAddRecord(record);
+        }
+        MinerBlock<CurrencyTransfer> block = blockchain.getNextBlockTemplate(miner.id).block;
+        assertEquals(records, block.records);
+        MiningKernel kernel = MiningKernels.create(block.prevBlockHash, block.contentRoot);
+        long timestamp = nextTimestamp++;
+        kernel.setTimestamp(timestamp);
+        byte[] hash = new byte[BlockHasher.HASH_LENGTH];
+        kernel.hash(0, hash);
+        assertEquals(
+                BlockSubmitResult.ACCEPTED,
+                blockchain.submitBlock(HashedBlock.fromMinerBlock(block, timestamp, 0, BlockHasher.encodeHash(hash)))
+        );
+    }
+
+    /** Creates a signed transfer of the amount from the sender to the miner */
+    private Record<CurrencyTransfer> transfer(int amount, long recordId) {
+        CurrencyTransfer value = new CurrencyTransfer(sender.id, amount, miner.id);
+        return new Record<>(
+                recordId, sender.id, value, sender.signatureScheme, sender.getSignature(value, recordId), sender.publicKey
+        );
+    }
+}
@@ -0,0 +1,118 @@
+package functionality.network;
+
+import blockchain.BlockSubmitResult;
+import blockchain.CurrencyBlockchain;
+import blockchain.UserManager;
+import dataentities.block.HashedBlock;
+import dataentities.block.MinerBlock;
+import dataentities.block.record.CurrencyTransfer;
+import dataentities.block.record.Record;
+import dataentities.user.User;
+import functionality.BlockHasher;
+import functionality.MiningKernel;
+import functionality.MiningKernels;
+import functionality.storage.CurrencyTransferCodec;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class CompactBlockTest {
+
+    private CurrencyBlockchain blockchain;
+
+    private User miner;
+
+    private HashedBlock<CurrencyTransfer> block;
+
+    @BeforeEach
+    void setUp() {
+        blockchain = new CurrencyBlockchain(0, 1);
+        User sender = UserManager.generateNewUser();
+        User receiver = UserManager.generateNewUser();
+        miner = UserManager.generateNewUser();
+        for (long recordId = 1; recordId <= 5; recordId++) {
+            CurrencyTransfer value = new CurrencyTransfer(sender.id, (int) recordId, receiver.id);
+            assertTrue(blockchain.tryAddRecord(new Record<>(
+                    recordId, sender.id, value, sender.signatureScheme, sender.getSignature(value, recordId), sender.publicKey
+            )));
+        }
+        block = mine(blockchain.getNextBlockTemplate(miner.id).block);
+    }
+
+    @Test
+    void rebuiltBlockHasTheMinedBlocksHashAndIsAccepted() {
+        CompactBlock<CurrencyTransfer> compactBlock = CompactBlock.fromBlock(block);
+        HashedBlock<CurrencyTransfer> rebuiltBlock = compactBlock.toBlock(block.records);
+
+        assertEquals(block.hash, rebuiltBlock.hash);
+        assertArrayEquals(block.recordsRoot, rebuiltBlock.recordsRoot);
+        assertArrayEquals(block.contentRoot, rebuiltBlock.contentRoot);
+        assertEquals(block.timestamp, rebuiltBlock.timestamp);
+        assertEquals(block.minerReward, rebuiltBlock.minerReward);
+        assertEquals(block.hash, BlockHasher.encodeHash(BlockHasher.hashHeader(
+                rebuiltBlock.prevBlockHash, rebuiltBlock.contentRoot, rebuiltBlock.nonce, rebuiltBlock.timestamp
+        )));
+        assertEquals(BlockSubmitResult.ACCEPTED, blockchain.submitBlock(rebuiltBlock));
+    }
+
+    @Test
+    void shortIdsIdentifyTheRecordsInTheBlocksOrder() {
+        CompactBlock<CurrencyTransfer> compactBlock = CompactBlock.fromBlock(block);
+
+        assertEquals(block.records.size(), compactBlock.shortIds.length);
+        for (int i = 0; i < block.records.size(); i++) {
+            assertEquals(CompactBlock.getShortId(block.records.get(i)), compactBlock.shortIds[i]);
+        }
+    }
+
+    @Test
+    void blockRebuiltFromRecordsInAnotherOrderIsRejected() {
+        List<Record<CurrencyTransfer>> records = new ArrayList<>(block.records);
+        Collections.swap(records, 0, 1);
+        HashedBlock<CurrencyTransfer> rebuiltBlock = CompactBlock.fromBlock(block).toBlock(records);
+
+        assertEquals(BlockSubmitResult.INVALID_HASH, blockchain.submitBlock(rebuiltBlock));
+    }
+
+    @Test
+    void compactBlockIsRebuiltAfterBeingSentBetweenNodes() throws IOException {
+        MessageCodec<CurrencyTransfer> codec = new MessageCodec<>(new CurrencyTransferCodec());
+        ByteBuffer frame = codec.encodeCompactBlock(CompactBlock.fromBlock(block));
+        byte[] bytes = new byte[frame.remaining()];
+        frame.get(bytes);
+
+        // Skip the length and the type, which the node reads before handing the payload to the codec
+        int payloadStart = MessageCodec.LENGTH_PREFIX_SIZE + 1;
+        CompactBlock<CurrencyTransfer> compactBlock = codec.readCompactBlock(new DataInputStream(
+                new ByteArrayInputStream(bytes, payloadStart, bytes.length - payloadStart)
+        ));
+        HashedBlock<CurrencyTransfer> rebuiltBlock = compactBlock.toBlock(block.records);
+
+        assertEquals(block.hash, rebuiltBlock.hash);
+        assertEquals(block.minerUserId, rebuiltBlock.minerUserId);
+        assertEquals(block.timestamp, rebuiltBlock.timestamp);
+        assertEquals(BlockSubmitResult.ACCEPTED, blockchain.submitBlock(rebuiltBlock));
+    }
+
+    /** Mines the block with the smallest nonce that meets its zero count */
+    private static HashedBlock<CurrencyTransfer> mine(MinerBlock<CurrencyTransfer> minerBlock) {
+        MiningKernel kernel = MiningKernels.create(minerBlock.prevBlockHash, minerBlock.contentRoot);
+        long timestamp = System.currentTimeMillis();
+        kernel.setTimestamp(timestamp);
+        int nonce = kernel.findNonce(0, Integer.MAX_VALUE, minerBlock.hashPrefixZeroCount);
+        byte[] hash = new byte[BlockHasher.HASH_LENGTH];
+        kernel.hash(nonce, hash);
+        return HashedBlock.fromMinerBlock(minerBlock, timestamp, nonce, BlockHasher.encodeHash(hash));
+    }
+}
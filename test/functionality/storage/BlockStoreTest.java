@@ -0,0 +1,158 @@
+package functionality.storage;
+
+import dataentities.block.HashedBlock;
+import dataentities.block.MinerBlock;
+import dataentities.block.ValidatedBlock;
+import dataentities.block.record.CurrencyTransfer;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class BlockStoreTest {
+
+    /** A segment size that fits a few blocks, so the blocks span several segments */
+    private static final int SEGMENT_SIZE = 1024;
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void recoveryTruncatesTornEntryAndZeroesIt() throws IOException {
+        List<Long> locations = appendBlocks(1, 3);
+
+        // Tear an append after the last block: its length and part of its data reached the file, its CRC did not
+        long lastLocation = locations.get(locations.size() - 1);
+        Path segmentPath = getSegmentPath(lastLocation);
+        byte[] segment = Files.readAllBytes(segmentPath);
+        int end = getEntryEnd(segment, lastLocation);
+        ByteBuffer.wrap(segment).putInt(end, 40);
+        for (int i = end + BlockStore.ENTRY_HEADER_SIZE; i < end + BlockStore.ENTRY_HEADER_SIZE + 20; i++) {
+            segment[i] = 7;
+        }
+        Files.write(segmentPath, segment);
+
+        try (BlockStore<CurrencyTransfer> store = open()) {
+            assertEquals(List.of(1L, 2L, 3L), getBlockIds(store.readBlocks()));
+        }
+        segment = Files.readAllBytes(segmentPath);
+        for (int i = end; i < segment.length; i++) {
+            assertEquals(0, segment[i], "Byte " + i + " after the last entry was not zeroed");
+        }
+
+        // The next block is appended where the torn entry was
+        try (BlockStore<CurrencyTransfer> store = open()) {
+            assertEquals((long) getSegmentNumber(lastLocation) << 32 | end, store.append(block(4)));
+        }
+        try (BlockStore<CurrencyTransfer> store = open()) {
+            assertEquals(List.of(1L, 2L, 3L, 4L), getBlockIds(store.readBlocks()));
+        }
+    }
+
+    @Test
+    void recoveryDropsEverythingAfterCorruptedEntry() throws IOException {
+        List<Long> locations = appendBlocks(1, 30);
+        long corruptedLocation = locations.get(9);
+        assertTrue(getSegmentNumber(corruptedLocation) < getSegmentNumber(locations.get(29)));
+
+        Path segmentPath = getSegmentPath(corruptedLocation);
+        byte[] segment = Files.readAllBytes(segmentPath);
+        segment[(int) corruptedLocation + BlockStore.ENTRY_HEADER_SIZE + 1] ^= 1;
+        Files.write(segmentPath, segment);
+
+        try (BlockStore<CurrencyTransfer> store = open()) {
+            List<ValidatedBlock<CurrencyTransfer>> blocks = store.readBlocks();
+            assertEquals(9, blocks.size());
+            assertEquals(9, blocks.get(blocks.size() - 1).id);
+            for (long location : locations.subList(10, 30)) {
+                if (getSegmentNumber(location) != getSegmentNumber(corruptedLocation)) {
+                    assertFalse(Files.exists(getSegmentPath(location)), "A segment after the corrupted entry was kept");
+                }
+            }
+
+            store.append(block(10));
+        }
+        try (BlockStore<CurrencyTransfer> store = open()) {
+            assertEquals(10, store.readBlocks().size());
+        }
+    }
+
+    @Test
+    void blocksAreReadBackByLocation() {
+        List<Long> locations = appendBlocks(1, 12);
+        try (BlockStore<CurrencyTransfer> store = open()) {
+            for (int i = 0; i < locations.size(); i++) {
+                ValidatedBlock<CurrencyTransfer> block = store.read(locations.get(i));
+                assertEquals(i + 1, block.id);
+                assertEquals("hash" + (i + 1), block.hash);
+            }
+        }
+    }
+
+    @Test
+    void blocksAfterLocationAreVisitedAcrossSegments() {
+        List<Long> locations = appendBlocks(1, 12);
+        assertTrue(getSegmentNumber(locations.get(4)) < getSegmentNumber(locations.get(11)));
+        try (BlockStore<CurrencyTransfer> store = open()) {
+            List<Long> visitedIds = new ArrayList<>();
+            store.forEachBlockAfter(locations.get(4), (block, location) -> visitedIds.add(block.id));
+            assertEquals(List.of(6L, 7L, 8L, 9L, 10L, 11L, 12L), visitedIds);
+
+            // A location is only stored until the store is truncated before it
+            assertTrue(store.contains(locations.get(11)));
+            store.truncate(locations.get(5));
+            assertTrue(store.contains(locations.get(4)));
+            assertFalse(store.contains(locations.get(5)));
+            assertFalse(store.contains(locations.get(11)));
+        }
+    }
+
+    private BlockStore<CurrencyTransfer> open() {
+        return BlockStore.open(directory, new CurrencyTransferCodec(), SEGMENT_SIZE, 1);
+    }
+
+    /** Appends blocks with the IDs in the range, returning their locations */
+    private List<Long> appendBlocks(long firstId, long lastId) {
+        List<Long> locations = new ArrayList<>();
+        try (BlockStore<CurrencyTransfer> store = open()) {
+            for (long id = firstId; id <= lastId; id++) {
+                locations.add(store.append(block(id)));
+            }
+        }
+        return locations;
+    }
+
+    private static ValidatedBlock<CurrencyTransfer> block(long id) {
+        MinerBlock<CurrencyTransfer> minerBlock = new MinerBlock<>(
+                id, "hash" + (id - 1), 1, List.of(), 5, new CurrencyTransfer(-1, 100, 5)
+        );
+        return ValidatedBlock.fromMinerBlock(HashedBlock.fromMinerBlock(minerBlock, id, id, "hash" + id), 1);
+    }
+
+    private static List<Long> getBlockIds(List<ValidatedBlock<CurrencyTransfer>> blocks) {
+        return blocks.stream().map(block -> block.id).toList();
+    }
+
+    /** Gets the position after the entry at the location */
+    private static int getEntryEnd(byte[] segment, long location) {
+        int position = (int) location;
+        return position + BlockStore.ENTRY_HEADER_SIZE + ByteBuffer.wrap(segment).getInt(position);
+    }
+
+    private static int getSegmentNumber(long location) {
+        return (int) (location >>> 32);
+    }
+
+    private Path getSegmentPath(long location) {
+        return directory.resolve(String.format(BlockStore.SEGMENT_FILE_FORMAT, getSegmentNumber(location)));
+    }
+}